@@ -22,6 +22,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.text.DecimalFormat;
 import java.util.Calendar;
+import java.util.concurrent.Executor;
 
 import android.app.Activity;
 import android.app.Dialog;
@@ -50,7 +51,10 @@ import com.kircherelectronics.gyrolinearacceleration.gauge.GaugeRotation;
 import com.kircherelectronics.gyrolinearacceleration.plot.DynamicPlot;
 import com.kircherelectronics.gyrolinearacceleration.plot.PlotColor;
 import com.kircherelectronics.gyrolinearacceleration.sensor.AccelerationSensor;
+import com.kircherelectronics.gyrolinearacceleration.sensor.AndroidSensorSource;
+import com.kircherelectronics.gyrolinearacceleration.sensor.LatestSample;
 import com.kircherelectronics.gyrolinearacceleration.sensor.LinearAccelerationSensor;
+import com.kircherelectronics.gyrolinearacceleration.sensor.OutputRate;
 import com.kircherelectronics.gyrolinearacceleration.sensor.observer.AccelerationSensorObserver;
 import com.kircherelectronics.gyrolinearacceleration.sensor.observer.LinearAccelerationSensorObserver;
 
@@ -61,6 +65,11 @@ import com.kircherelectronics.gyrolinearacceleration.sensor.observer.LinearAccel
  * determine the gravity components of the tilt angles via Cardan angles to
  * determine linear acceleration.
  * 
+ * The sensors and the fusion run on the processing thread of the SensorHub,
+ * the activity only posts its registrations there. The samples are handed
+ * back to the UI thread with a LatestSample that is read when a frame is
+ * drawn.
+ * 
  * @author Kaleb
  * 
  */
@@ -68,6 +77,16 @@ public class LinearAccelerationActivity extends Activity implements Runnable,
 		OnTouchListener, LinearAccelerationSensorObserver,
 		AccelerationSensorObserver
 {
+	private static final String tag = LinearAccelerationActivity.class
+			.getSimpleName();
+
+	// Indicate if the frame time should be measured and logged, for
+	// debugging only.
+	private static final boolean PROFILE = false;
+
+	// The number of frames the frame time is averaged over before it is
+	// logged.
+	private static final int PROFILE_FRAMES = 50;
 
 	// Indicate if the output should be logged to a .csv file
 	private boolean logData = false;
@@ -82,6 +101,17 @@ public class LinearAccelerationActivity extends Activity implements Runnable,
 	private float[] acceleration = new float[3];
 	private float[] linearAcceleration = new float[3];
 
+	// The samples handed over from the processing thread.
+	private LatestSample accelerationSample = new LatestSample(3);
+	private LatestSample linearAccelerationSample = new LatestSample(3);
+
+	// The frame time and the age of the fused sample at the frame, summed
+	// over the frames since the last log.
+	private int profileFrames = 0;
+	private long frameTimeSum = 0;
+	private long frameTimeMax = 0;
+	private long sampleAgeSum = 0;
+
 	// Touch to zoom constants for the dynamicPlot
 	private float distance = 0;
 	private float zoom = 1.2f;
@@ -153,6 +183,59 @@ public class LinearAccelerationActivity extends Activity implements Runnable,
 
 	private Handler handler;
 
+	// The executor of the processing thread the sensors run on.
+	private Executor processing;
+
+	// Registers the observers on the processing thread.
+	private Runnable resumeSensors = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			accelerationSensor
+					.registerAccelerationObserver(LinearAccelerationActivity.this);
+			accelerationSensor
+					.registerAccelerationObserver(linearAccelerationSensor);
+			// The UI is only updated every 100 ms, there is no need to be
+			// notified of every fused sample. Twice per update keeps the drawn
+			// value fresh.
+			linearAccelerationSensor.registerAccelerationObserver(
+					LinearAccelerationActivity.this,
+					OutputRate.everyMillis(50));
+
+			linearAccelerationSensor.onStart();
+		}
+	};
+
+	// Removes the observers on the processing thread.
+	private Runnable pauseSensors = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			accelerationSensor
+					.removeAccelerationObserver(LinearAccelerationActivity.this);
+			accelerationSensor
+					.removeAccelerationObserver(linearAccelerationSensor);
+			linearAccelerationSensor
+					.removeAccelerationObserver(LinearAccelerationActivity.this);
+
+			linearAccelerationSensor.onPause();
+		}
+	};
+
+	// Restarts the fusion from scratch on the processing thread.
+	private Runnable resetSensors = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			linearAccelerationSensor.onPause();
+			linearAccelerationSensor.clearCheckpoint();
+			linearAccelerationSensor.onStart();
+		}
+	};
+
 	@Override
 	protected void onCreate(Bundle savedInstanceState)
 	{
@@ -189,6 +272,10 @@ public class LinearAccelerationActivity extends Activity implements Runnable,
 		// Format the UI outputs so they look nice
 		df = new DecimalFormat("#.##");
 
+		// Install the hub for the sensors of the device before the sensors
+		// are created.
+		processing = AndroidSensorSource.install(this).getExecutor();
+
 		linearAccelerationSensor = new LinearAccelerationSensor(this);
 		accelerationSensor = new AccelerationSensor(this);
 
@@ -225,8 +312,7 @@ public class LinearAccelerationActivity extends Activity implements Runnable,
 
 			// Reset the data
 		case R.id.menu_settings_reset:
-			linearAccelerationSensor.onPause();
-			linearAccelerationSensor.onStart();
+			processing.execute(resetSensors);
 			return true;
 
 			// Log the data
@@ -244,11 +330,7 @@ public class LinearAccelerationActivity extends Activity implements Runnable,
 	{
 		super.onPause();
 
-		accelerationSensor.removeAccelerationObserver(this);
-		accelerationSensor.removeAccelerationObserver(linearAccelerationSensor);
-		linearAccelerationSensor.removeAccelerationObserver(this);
-
-		linearAccelerationSensor.onPause();
+		processing.execute(pauseSensors);
 
 		if (logData)
 		{
@@ -265,12 +347,7 @@ public class LinearAccelerationActivity extends Activity implements Runnable,
 
 		handler.post(this);
 
-		accelerationSensor.registerAccelerationObserver(this);
-		accelerationSensor
-				.registerAccelerationObserver(linearAccelerationSensor);
-		linearAccelerationSensor.registerAccelerationObserver(this);
-
-		linearAccelerationSensor.onStart();
+		processing.execute(resumeSensors);
 	}
 
 	/**
@@ -313,18 +390,16 @@ public class LinearAccelerationActivity extends Activity implements Runnable,
 	@Override
 	public void onAccelerationSensorChanged(float[] acceleration, long timeStamp)
 	{
-		// Get a local copy of the sensor values
-		System.arraycopy(acceleration, 0, this.acceleration, 0,
-				acceleration.length);
+		// Called on the processing thread, hand the values over to the UI.
+		accelerationSample.publish(acceleration, timeStamp);
 	}
 
 	@Override
 	public void onLinearAccelerationSensorChanged(float[] linearAcceleration,
 			long timeStamp)
 	{
-		// Get a local copy of the sensor values
-		System.arraycopy(linearAcceleration, 0, this.linearAcceleration, 0,
-				linearAcceleration.length);
+		// Called on the processing thread, hand the values over to the UI.
+		linearAccelerationSample.publish(linearAcceleration, timeStamp);
 	}
 
 	@Override
@@ -332,9 +407,25 @@ public class LinearAccelerationActivity extends Activity implements Runnable,
 	{
 		handler.postDelayed(this, 100);
 
-		plotData();
-		logData();
+		// Get a local copy of the newest samples.
+		accelerationSample.read(acceleration);
+		linearAccelerationSample.read(linearAcceleration);
+
+		if (PROFILE)
+		{
+			final long sampleAge = linearAccelerationSample.getAge();
+			final long start = System.nanoTime();
+
+			plotData();
+
+			profileFrame(System.nanoTime() - start, sampleAge);
+		}
+		else
+		{
+			plotData();
+		}
 
+		logData();
 	}
 
 	/**
@@ -485,6 +576,38 @@ public class LinearAccelerationActivity extends Activity implements Runnable,
 				linearAcceleration[1], Color.parseColor("#33b5e5"));
 	}
 
+	/**
+	 * Measure the UI frame time and the age of the fused sample it shows, and
+	 * log their averages every PROFILE_FRAMES frames. Only called when PROFILE
+	 * is set.
+	 * 
+	 * @param frameTime
+	 *            the time it took to draw the frame in nanoseconds.
+	 * @param sampleAge
+	 *            the time since the fused sample was published in
+	 *            nanoseconds.
+	 */
+	private void profileFrame(long frameTime, long sampleAge)
+	{
+		profileFrames++;
+		frameTimeSum += frameTime;
+		frameTimeMax = Math.max(frameTimeMax, frameTime);
+		sampleAgeSum += sampleAge;
+
+		if (profileFrames == PROFILE_FRAMES)
+		{
+			Log.d(tag, "Frame time mean " + frameTimeSum / profileFrames
+					/ 1000 + " us, max " + frameTimeMax / 1000
+					+ " us, fused sample age " + sampleAgeSum / profileFrames
+					/ 1000000 + " ms");
+
+			profileFrames = 0;
+			frameTimeSum = 0;
+			frameTimeMax = 0;
+			sampleAgeSum = 0;
+		}
+	}
+
 	/**
 	 * Log output data to an external .csv file.
 	 */
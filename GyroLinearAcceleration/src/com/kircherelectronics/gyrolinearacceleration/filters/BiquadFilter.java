@@ -0,0 +1,210 @@
+package com.kircherelectronics.gyrolinearacceleration.filters;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A second order Butterworth low-pass or high-pass filter, implemented as a
+ * biquad in transposed direct form II. The coefficients are found with the
+ * bilinear transform for a fixed sample rate, so the stage assumes the frames
+ * arrive at that rate. The coefficients and the state are kept in double
+ * precision since a low cutoff at a high sample rate puts the poles very close
+ * to the unit circle.
+ * 
+ * The state is started as if the first frame had always been the input, so a
+ * low-pass filter does not ramp up from zero and a high-pass filter does not
+ * start with a step.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ * @see http://www.musicdsp.org/files/Audio-EQ-Cookbook.txt
+ */
+public class BiquadFilter implements FilterStage
+{
+	// The quality factor of a second order Butterworth filter, 1/sqrt(2).
+	private static final double BUTTERWORTH_Q = 0.7071067811865476;
+
+	private final double b0;
+	private final double b1;
+	private final double b2;
+	private final double a1;
+	private final double a2;
+
+	private boolean dataInit = false;
+
+	// The two state variables of each channel.
+	private double[] z1;
+	private double[] z2;
+
+	/**
+	 * Initialize the state with coefficients normalized by a0.
+	 * 
+	 * @param b0
+	 *            the coefficient of the input.
+	 * @param b1
+	 *            the coefficient of the previous input.
+	 * @param b2
+	 *            the coefficient of the input before that.
+	 * @param a1
+	 *            the coefficient of the previous output.
+	 * @param a2
+	 *            the coefficient of the output before that.
+	 */
+	private BiquadFilter(double b0, double b1, double b2, double a1, double a2)
+	{
+		super();
+
+		this.b0 = b0;
+		this.b1 = b1;
+		this.b2 = b2;
+		this.a1 = a1;
+		this.a2 = a2;
+	}
+
+	/**
+	 * Create a Butterworth low-pass filter.
+	 * 
+	 * @param cutoff
+	 *            the -3 dB frequency in Hz.
+	 * @param sampleRate
+	 *            the rate of the frames in Hz.
+	 * @return the filter.
+	 * @throws IllegalArgumentException
+	 *             if the cutoff is not between 0 and half the sample rate.
+	 */
+	public static BiquadFilter lowPass(double cutoff, double sampleRate)
+	{
+		final double cos = cos(cutoff, sampleRate);
+		final double a0 = 1 + alpha(cutoff, sampleRate);
+
+		return new BiquadFilter((1 - cos) / 2 / a0, (1 - cos) / a0, (1 - cos)
+				/ 2 / a0, -2 * cos / a0, (2 - a0) / a0);
+	}
+
+	/**
+	 * Create a Butterworth high-pass filter.
+	 * 
+	 * @param cutoff
+	 *            the -3 dB frequency in Hz.
+	 * @param sampleRate
+	 *            the rate of the frames in Hz.
+	 * @return the filter.
+	 * @throws IllegalArgumentException
+	 *             if the cutoff is not between 0 and half the sample rate.
+	 */
+	public static BiquadFilter highPass(double cutoff, double sampleRate)
+	{
+		final double cos = cos(cutoff, sampleRate);
+		final double a0 = 1 + alpha(cutoff, sampleRate);
+
+		return new BiquadFilter((1 + cos) / 2 / a0, -(1 + cos) / a0, (1 + cos)
+				/ 2 / a0, -2 * cos / a0, (2 - a0) / a0);
+	}
+
+	@Override
+	public void filter(float[] data, long timestamp)
+	{
+		if (!dataInit)
+		{
+			initState(data);
+		}
+
+		for (int i = 0; i < z1.length; i++)
+		{
+			final double x = data[i];
+			final double y = b0 * x + z1[i];
+
+			z1[i] = b1 * x - a1 * y + z2[i];
+			z2[i] = b2 * x - a2 * y;
+
+			data[i] = (float) y;
+		}
+	}
+
+	@Override
+	public void reset()
+	{
+		dataInit = false;
+	}
+
+	/**
+	 * Start the state in the steady state of a constant input equal to the
+	 * first frame.
+	 * 
+	 * @param data
+	 *            the first frame.
+	 */
+	private void initState(float[] data)
+	{
+		if (z1 == null || z1.length != data.length)
+		{
+			z1 = new double[data.length];
+			z2 = new double[data.length];
+		}
+
+		// The gain of the filter at 0 Hz, 1 for a low-pass and 0 for a
+		// high-pass filter.
+		final double gain = (b0 + b1 + b2) / (1 + a1 + a2);
+
+		for (int i = 0; i < data.length; i++)
+		{
+			final double x = data[i];
+			final double y = gain * x;
+
+			z2[i] = b2 * x - a2 * y;
+			z1[i] = y - b0 * x;
+		}
+
+		dataInit = true;
+	}
+
+	/**
+	 * Find the cosine of the normalized cutoff frequency.
+	 * 
+	 * @param cutoff
+	 *            the cutoff frequency in Hz.
+	 * @param sampleRate
+	 *            the sample rate in Hz.
+	 * @return the cosine.
+	 */
+	private static double cos(double cutoff, double sampleRate)
+	{
+		if (!(cutoff > 0 && cutoff < sampleRate / 2))
+		{
+			throw new IllegalArgumentException("Cutoff " + cutoff
+					+ " Hz is not below the Nyquist frequency of "
+					+ sampleRate + " Hz");
+		}
+
+		return Math.cos(2 * Math.PI * cutoff / sampleRate);
+	}
+
+	/**
+	 * Find the bandwidth term of the cookbook formulae for a Butterworth
+	 * response.
+	 * 
+	 * @param cutoff
+	 *            the cutoff frequency in Hz.
+	 * @param sampleRate
+	 *            the sample rate in Hz.
+	 * @return sin(w0) / (2 * Q).
+	 */
+	private static double alpha(double cutoff, double sampleRate)
+	{
+		return Math.sin(2 * Math.PI * cutoff / sampleRate)
+				/ (2 * BUTTERWORTH_Q);
+	}
+}
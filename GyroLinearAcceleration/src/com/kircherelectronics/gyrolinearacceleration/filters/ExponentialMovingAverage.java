@@ -0,0 +1,145 @@
+package com.kircherelectronics.gyrolinearacceleration.filters;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * An exponential moving average, the simplest low-pass filter. Each output is
+ * output + alpha * (input - output), so it only keeps one value per channel
+ * and smaller values of alpha smooth more at the cost of more lag. The first
+ * frame is passed through unchanged.
+ * 
+ * With a time constant set the weight of each frame is found from the time
+ * since the previous frame, alpha = 1 - exp(-dt / tau), so the smoothing is
+ * the same at any sample rate instead of depending on the rate the device
+ * delivers frames at. If the time stamps go backwards the next frame is
+ * passed through as if it were the first.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class ExponentialMovingAverage implements FilterStage
+{
+	private float alpha;
+
+	// The time constant in nanoseconds, 0 to use the fixed alpha.
+	private long timeConstant = 0;
+
+	private boolean dataInit = false;
+
+	// The time stamp of the previous frame in nanoseconds.
+	private long timestampOld;
+
+	// The previous output of each channel.
+	private float[] output;
+
+	/**
+	 * Initialize the state.
+	 * 
+	 * @param alpha
+	 *            the weight of a new sample, between 0 and 1.
+	 */
+	public ExponentialMovingAverage(float alpha)
+	{
+		super();
+
+		setAlpha(alpha);
+	}
+
+	/**
+	 * Set the weight of a new sample.
+	 * 
+	 * @param alpha
+	 *            the weight of a new sample, between 0 and 1.
+	 * @throws IllegalArgumentException
+	 *             if alpha is not between 0 and 1.
+	 */
+	public void setAlpha(float alpha)
+	{
+		if (!(alpha > 0 && alpha <= 1))
+		{
+			throw new IllegalArgumentException("alpha must be in (0, 1]: "
+					+ alpha);
+		}
+
+		this.alpha = alpha;
+		this.timeConstant = 0;
+	}
+
+	/**
+	 * Set the time constant, which replaces the fixed alpha with one found
+	 * from the time stamps of the frames. After one time constant the output
+	 * has moved 63% of the way to a new constant input.
+	 * 
+	 * @param timeConstant
+	 *            the time constant in nanoseconds.
+	 * @throws IllegalArgumentException
+	 *             if the time constant is not positive.
+	 */
+	public void setTimeConstant(long timeConstant)
+	{
+		if (timeConstant <= 0)
+		{
+			throw new IllegalArgumentException(
+					"time constant must be positive: " + timeConstant);
+		}
+
+		this.timeConstant = timeConstant;
+	}
+
+	@Override
+	public void filter(float[] data, long timestamp)
+	{
+		if (!dataInit || (timeConstant > 0 && timestamp < timestampOld))
+		{
+			if (output == null || output.length != data.length)
+			{
+				output = new float[data.length];
+			}
+
+			System.arraycopy(data, 0, output, 0, data.length);
+
+			timestampOld = timestamp;
+
+			dataInit = true;
+
+			return;
+		}
+
+		float weight = alpha;
+
+		if (timeConstant > 0)
+		{
+			weight = (float) -Math.expm1(-(double) (timestamp - timestampOld)
+					/ timeConstant);
+
+			timestampOld = timestamp;
+		}
+
+		for (int i = 0; i < output.length; i++)
+		{
+			output[i] += weight * (data[i] - output[i]);
+
+			data[i] = output[i];
+		}
+	}
+
+	@Override
+	public void reset()
+	{
+		dataInit = false;
+	}
+}
@@ -0,0 +1,162 @@
+package com.kircherelectronics.gyrolinearacceleration.filters;
+
+import java.util.ArrayList;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A chain of filter stages that a frame passes through in order, for instance
+ * a median to remove spikes followed by a low-pass filter. A pipeline is a
+ * stage itself, so pipelines can be nested. With profiling enabled the
+ * processing time of each stage is measured so the latency and the smoothing
+ * of a configuration can be tuned against each other.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class FilterPipeline implements FilterStage
+{
+	private ArrayList<FilterStage> stages;
+
+	// Measure the processing time of every stage.
+	private boolean profiling = false;
+
+	// The processing time of each stage in nanoseconds, by the index of the
+	// stage, and the number of frames measured.
+	private long[] stageTime = new long[0];
+	private long frameCount = 0;
+
+	/**
+	 * Initialize an empty pipeline, which passes frames through unchanged.
+	 */
+	public FilterPipeline()
+	{
+		super();
+
+		stages = new ArrayList<FilterStage>();
+	}
+
+	/**
+	 * Add a stage to the end of the pipeline.
+	 * 
+	 * @param stage
+	 *            the stage.
+	 */
+	public void addStage(FilterStage stage)
+	{
+		stages.add(stage);
+
+		long[] time = new long[stages.size()];
+		System.arraycopy(stageTime, 0, time, 0, stageTime.length);
+		stageTime = time;
+	}
+
+	/**
+	 * Get the number of stages.
+	 * 
+	 * @return the number of stages.
+	 */
+	public int getStageCount()
+	{
+		return stages.size();
+	}
+
+	/**
+	 * Get a stage.
+	 * 
+	 * @param index
+	 *            the index of the stage.
+	 * @return the stage.
+	 */
+	public FilterStage getStage(int index)
+	{
+		return stages.get(index);
+	}
+
+	/**
+	 * Select if the processing time of every stage is measured. Off by
+	 * default since it takes a read of the clock per stage.
+	 * 
+	 * @param profiling
+	 *            true to measure the processing time.
+	 */
+	public void setProfiling(boolean profiling)
+	{
+		this.profiling = profiling;
+	}
+
+	/**
+	 * Get the mean processing time of a stage per frame, measured while
+	 * profiling since the last reset.
+	 * 
+	 * @param index
+	 *            the index of the stage.
+	 * @return the processing time in nanoseconds, or 0 if no frames have been
+	 *         measured.
+	 */
+	public double getStageTime(int index)
+	{
+		return frameCount == 0 ? 0 : (double) stageTime[index] / frameCount;
+	}
+
+	@Override
+	public void filter(float[] data, long timestamp)
+	{
+		// Index the stages directly, an iterator would be allocated for
+		// every frame.
+		if (!profiling)
+		{
+			for (int i = 0; i < stages.size(); i++)
+			{
+				stages.get(i).filter(data, timestamp);
+			}
+
+			return;
+		}
+
+		long start = System.nanoTime();
+
+		for (int i = 0; i < stages.size(); i++)
+		{
+			stages.get(i).filter(data, timestamp);
+
+			final long end = System.nanoTime();
+
+			stageTime[i] += end - start;
+
+			start = end;
+		}
+
+		frameCount++;
+	}
+
+	/**
+	 * Clear the history of every stage and the processing times.
+	 */
+	@Override
+	public void reset()
+	{
+		for (int i = 0; i < stages.size(); i++)
+		{
+			stages.get(i).reset();
+
+			stageTime[i] = 0;
+		}
+
+		frameCount = 0;
+	}
+}
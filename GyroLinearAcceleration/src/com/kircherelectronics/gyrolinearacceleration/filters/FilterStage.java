@@ -0,0 +1,44 @@
+package com.kircherelectronics.gyrolinearacceleration.filters;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A stage of a FilterPipeline. A stage filters a frame of samples, one value
+ * per channel (axis), in place. The state of a stage is sized by the first
+ * frame it sees, after that implementations must not allocate in filter()
+ * since it is called for every sensor sample.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public interface FilterStage
+{
+	/**
+	 * Filter a frame in place.
+	 * 
+	 * @param data
+	 *            the frame, replaced by the filtered frame.
+	 * @param timestamp
+	 *            the time stamp of the frame in nanoseconds.
+	 */
+	public void filter(float[] data, long timestamp);
+
+	/**
+	 * Clear the history of the stage. The configuration is kept.
+	 */
+	public void reset();
+}
@@ -0,0 +1,296 @@
+package com.kircherelectronics.gyrolinearacceleration.filters;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Reduces the rate of a stream of frames by an integer factor, filtering it
+ * with a FIR low-pass kernel first so the frequencies above the new Nyquist
+ * frequency do not alias into the output, as they do when every n-th frame is
+ * simply kept.
+ * 
+ * The filter and the downsampling are done in one pass in polyphase form: the
+ * filter is only evaluated for the frames that are kept, so a kernel of taps
+ * coefficients costs taps / factor multiplications per input frame instead of
+ * taps. A frame that is dropped is only written to the history. The history of
+ * each channel is stored twice in a row, so the newest taps samples are
+ * always contiguous and the dot product needs no wrap around.
+ * 
+ * Frames from a sensor are decimated one at a time with decimate(float[]),
+ * arrays of interleaved frames from a recorded log with decimate(float[], int,
+ * float[]). Both continue the same stream. The history is started as if the
+ * first frame had always been the input, so the output does not ramp up from
+ * zero. Nothing is allocated once the first frame has sized the buffers.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ * @see FirKernels#decimation(int, int)
+ */
+public class FirDecimator
+{
+	// The kernel in reverse order, so it lines up with the history from the
+	// oldest to the newest sample.
+	private final float[] kernel;
+
+	private final int taps;
+
+	private final int factor;
+
+	private boolean dataInit = false;
+
+	private int channels;
+
+	// The history of channel i starts at i * 2 * taps, every sample is stored
+	// at position and position + taps.
+	private float[] history;
+
+	// The position of the newest sample in the history.
+	private int position;
+
+	// The number of input frames until the next output frame.
+	private int phase;
+
+	/**
+	 * Initialize the state.
+	 * 
+	 * @param kernel
+	 *            the coefficients of the low-pass filter.
+	 * @param factor
+	 *            the number of input frames per output frame.
+	 * @throws IllegalArgumentException
+	 *             if the kernel is empty or the factor is smaller than 1.
+	 */
+	public FirDecimator(float[] kernel, int factor)
+	{
+		super();
+
+		if (kernel.length < 1)
+		{
+			throw new IllegalArgumentException("kernel must not be empty");
+		}
+
+		if (factor < 1)
+		{
+			throw new IllegalArgumentException("factor must be at least 1: "
+					+ factor);
+		}
+
+		this.taps = kernel.length;
+		this.factor = factor;
+
+		this.kernel = new float[taps];
+
+		for (int i = 0; i < taps; i++)
+		{
+			this.kernel[i] = kernel[taps - 1 - i];
+		}
+	}
+
+	/**
+	 * Get the number of input frames per output frame.
+	 * 
+	 * @return the decimation factor.
+	 */
+	public int getFactor()
+	{
+		return factor;
+	}
+
+	/**
+	 * Get the delay of the filter, the time an output frame lags the input
+	 * frame it is produced on, for a symmetric kernel.
+	 * 
+	 * @return the delay in input frames.
+	 */
+	public float getDelay()
+	{
+		return (taps - 1) / 2.0f;
+	}
+
+	/**
+	 * Add a frame to the stream. On every factor-th frame, starting with the
+	 * first, the frame is replaced with an output frame.
+	 * 
+	 * @param data
+	 *            the input frame, replaced with the output frame if one is
+	 *            produced.
+	 * @return true if the frame holds an output frame.
+	 */
+	public boolean decimate(float[] data)
+	{
+		if (!dataInit || data.length != channels)
+		{
+			initBuffers(data, 0, data.length);
+		}
+
+		push(data, 0);
+
+		if (phase == 0)
+		{
+			output(data, 0);
+		}
+
+		final boolean produced = phase == 0;
+
+		phase = (phase + 1) % factor;
+
+		return produced;
+	}
+
+	/**
+	 * Decimate an array of interleaved frames, continuing the stream of the
+	 * previous calls.
+	 * 
+	 * @param input
+	 *            the input frames, channel i of frame k at k * channels + i.
+	 * @param channels
+	 *            the number of channels of a frame.
+	 * @param output
+	 *            the array the output frames are written to, interleaved the
+	 *            same way. It must have room for input.length / channels /
+	 *            factor + 1 frames.
+	 * @return the number of output frames written.
+	 */
+	public int decimate(float[] input, int channels, float[] output)
+	{
+		final int frames = input.length / channels;
+
+		if (frames == 0)
+		{
+			return 0;
+		}
+
+		if (!dataInit || channels != this.channels)
+		{
+			initBuffers(input, 0, channels);
+		}
+
+		int produced = 0;
+
+		for (int k = 0; k < frames; k++)
+		{
+			push(input, k * channels);
+
+			if (phase == 0)
+			{
+				output(output, produced * channels);
+
+				produced++;
+			}
+
+			phase = (phase + 1) % factor;
+		}
+
+		return produced;
+	}
+
+	/**
+	 * Clear the history, the next frame starts a new stream.
+	 */
+	public void reset()
+	{
+		dataInit = false;
+	}
+
+	/**
+	 * Write a frame to the history of every channel.
+	 * 
+	 * @param source
+	 *            the array holding the frame.
+	 * @param offset
+	 *            the index of the first channel of the frame.
+	 */
+	private void push(float[] source, int offset)
+	{
+		position++;
+
+		if (position == taps)
+		{
+			position = 0;
+		}
+
+		for (int i = 0; i < channels; i++)
+		{
+			final int base = i * 2 * taps + position;
+			final float value = source[offset + i];
+
+			history[base] = value;
+			history[base + taps] = value;
+		}
+	}
+
+	/**
+	 * Filter the history of every channel into an output frame.
+	 * 
+	 * @param target
+	 *            the array the frame is written to.
+	 * @param offset
+	 *            the index of the first channel of the frame.
+	 */
+	private void output(float[] target, int offset)
+	{
+		for (int i = 0; i < channels; i++)
+		{
+			// The oldest of the newest taps samples.
+			final int start = i * 2 * taps + position + 1;
+
+			float sum = 0;
+
+			for (int j = 0; j < taps; j++)
+			{
+				sum += kernel[j] * history[start + j];
+			}
+
+			target[offset + i] = sum;
+		}
+	}
+
+	/**
+	 * Size the buffers for the number of channels and fill the history with
+	 * the first frame.
+	 * 
+	 * @param source
+	 *            the array holding the first frame.
+	 * @param offset
+	 *            the index of the first channel of the frame.
+	 * @param channels
+	 *            the number of channels of a frame.
+	 */
+	private void initBuffers(float[] source, int offset, int channels)
+	{
+		if (history == null || this.channels != channels)
+		{
+			history = new float[channels * 2 * taps];
+		}
+
+		this.channels = channels;
+
+		for (int i = 0; i < channels; i++)
+		{
+			final int base = i * 2 * taps;
+
+			for (int j = 0; j < 2 * taps; j++)
+			{
+				history[base + j] = source[offset + i];
+			}
+		}
+
+		position = 0;
+		phase = 0;
+
+		dataInit = true;
+	}
+}
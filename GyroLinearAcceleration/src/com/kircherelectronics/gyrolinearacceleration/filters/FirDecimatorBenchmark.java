@@ -0,0 +1,153 @@
+package com.kircherelectronics.gyrolinearacceleration.filters;
+
+import java.util.Random;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Measures the throughput of the FirDecimator for decimation factors from 2
+ * to 16 on a recorded-log sized array of three channel frames. For each
+ * factor the polyphase decimator is compared with filtering every frame with
+ * the same kernel and dropping the frames that are not kept, and the largest
+ * difference between their outputs is reported, which should be 0.
+ * 
+ * Run from the command line with the optional argument [frames] to print one
+ * CSV row per factor.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class FirDecimatorBenchmark
+{
+	private static final int[] FACTORS =
+	{ 2, 4, 8, 16 };
+
+	// The number of taps of the kernel per output frame.
+	private static final int TAPS_PER_PHASE = 8;
+
+	// The number of channels, as for an accelerometer.
+	private static final int CHANNELS = 3;
+
+	// The number of times each decimator is run, the fastest run is kept.
+	private static final int RUNS = 5;
+
+	public static void main(String[] args)
+	{
+		int frames = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		float[] input = new float[frames * CHANNELS];
+
+		Random random = new Random(42);
+
+		for (int i = 0; i < input.length; i++)
+		{
+			input[i] = (float) (Math.sin(i / CHANNELS * 0.01) + 0.1 * random
+					.nextGaussian());
+		}
+
+		System.out
+				.println("factor,taps,polyphase ns/frame,polyphase Mframes/s,full rate ns/frame,max difference");
+
+		for (int f = 0; f < FACTORS.length; f++)
+		{
+			final int factor = FACTORS[f];
+			final float[] kernel = FirKernels.decimation(factor, TAPS_PER_PHASE);
+
+			float[] polyphase = new float[(frames / factor + 1) * CHANNELS];
+			float[] fullRate = new float[(frames / factor + 1) * CHANNELS];
+
+			long bestPolyphase = Long.MAX_VALUE;
+			long bestFullRate = Long.MAX_VALUE;
+
+			for (int r = 0; r < RUNS; r++)
+			{
+				FirDecimator decimator = new FirDecimator(kernel, factor);
+
+				long start = System.nanoTime();
+
+				decimator.decimate(input, CHANNELS, polyphase);
+
+				bestPolyphase = Math.min(bestPolyphase, System.nanoTime()
+						- start);
+
+				start = System.nanoTime();
+
+				filterAndDrop(kernel, factor, input, fullRate);
+
+				bestFullRate = Math.min(bestFullRate, System.nanoTime() - start);
+			}
+
+			float difference = 0;
+
+			for (int i = 0; i < polyphase.length; i++)
+			{
+				difference = Math.max(difference,
+						Math.abs(polyphase[i] - fullRate[i]));
+			}
+
+			System.out.println(factor + "," + kernel.length + ","
+					+ (float) bestPolyphase / frames + ","
+					+ (float) frames * 1000 / bestPolyphase + ","
+					+ (float) bestFullRate / frames + "," + difference);
+		}
+	}
+
+	/**
+	 * Filter every frame with the kernel and keep every factor-th output, the
+	 * work the decimator avoids. The history before the first frame is taken
+	 * to be the first frame, as the decimator does.
+	 * 
+	 * @param kernel
+	 *            the kernel.
+	 * @param factor
+	 *            the decimation factor.
+	 * @param input
+	 *            the input frames.
+	 * @param output
+	 *            the array the kept frames will be written to.
+	 */
+	private static void filterAndDrop(float[] kernel, int factor,
+			float[] input, float[] output)
+	{
+		final int frames = input.length / CHANNELS;
+		final int taps = kernel.length;
+
+		float[] filtered = new float[CHANNELS];
+
+		for (int k = 0; k < frames; k++)
+		{
+			for (int i = 0; i < CHANNELS; i++)
+			{
+				float sum = 0;
+
+				// Sum from the oldest sample, in the order the decimator does.
+				for (int j = taps - 1; j >= 0; j--)
+				{
+					sum += kernel[j] * input[Math.max(k - j, 0) * CHANNELS + i];
+				}
+
+				filtered[i] = sum;
+			}
+
+			if (k % factor == 0)
+			{
+				System.arraycopy(filtered, 0, output, k / factor * CHANNELS,
+						CHANNELS);
+			}
+		}
+	}
+}
@@ -0,0 +1,344 @@
+package com.kircherelectronics.gyrolinearacceleration.filters;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Convolves a stream of frames with an arbitrary FIR kernel, for instance a
+ * windowed-sinc low-pass or a differentiator from FirKernels, where the
+ * MeanFilter only offers a boxcar.
+ * 
+ * Frames from a sensor are filtered one at a time as a stage. Recordings are
+ * streamed through in blocks with filter(float[], int, float[]): each block
+ * of a channel is copied behind the last taps - 1 samples of the channel into
+ * a contiguous buffer, so the convolution runs over a plain float array. The
+ * convolution computes four outputs per pass over the kernel with four
+ * independent sums, which reads every kernel coefficient once for four
+ * outputs and lets the processor overlap the additions. Every output is
+ * still summed over the taps in the same order as the scalar convolution, so
+ * the two are bit-identical and the scalar one can be selected with
+ * setUnrolled(false) as a reference. Both paths continue the same stream and
+ * nothing is allocated once the first frame has sized the buffers.
+ * 
+ * The history is started as if the first frame had always been the input, so
+ * a low-pass kernel does not ramp up from zero.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class FirFilter implements FilterStage
+{
+	// The number of frames of a recording convolved per block.
+	private static final int BLOCK = 1024;
+
+	// The kernel in reverse order, so it lines up with the samples from the
+	// oldest to the newest.
+	private final float[] kernel;
+
+	private final int taps;
+
+	// Convolve four outputs per pass over the kernel.
+	private boolean unrolled = true;
+
+	private boolean dataInit = false;
+
+	private int channels;
+
+	// The history of channel i starts at i * 2 * taps, every sample is stored
+	// at position and position + taps.
+	private float[] history;
+
+	// The position of the newest sample in the history.
+	private int position;
+
+	// The last taps - 1 samples of a channel followed by a block.
+	private float[] block;
+
+	// The output of a block of a channel.
+	private float[] blockOutput;
+
+	/**
+	 * Initialize the state.
+	 * 
+	 * @param kernel
+	 *            the coefficients of the filter.
+	 * @throws IllegalArgumentException
+	 *             if the kernel is empty.
+	 */
+	public FirFilter(float[] kernel)
+	{
+		super();
+
+		if (kernel.length < 1)
+		{
+			throw new IllegalArgumentException("kernel must not be empty");
+		}
+
+		this.taps = kernel.length;
+
+		this.kernel = new float[taps];
+
+		for (int i = 0; i < taps; i++)
+		{
+			this.kernel[i] = kernel[taps - 1 - i];
+		}
+	}
+
+	/**
+	 * Select the unrolled convolution for recordings, on by default. The
+	 * scalar convolution gives the same output and is kept as a reference.
+	 * 
+	 * @param unrolled
+	 *            true to convolve four outputs per pass over the kernel.
+	 */
+	public void setUnrolled(boolean unrolled)
+	{
+		this.unrolled = unrolled;
+	}
+
+	/**
+	 * Get the delay of the filter for a symmetric or antisymmetric kernel.
+	 * 
+	 * @return the delay in frames.
+	 */
+	public float getDelay()
+	{
+		return (taps - 1) / 2.0f;
+	}
+
+	@Override
+	public void filter(float[] data, long timestamp)
+	{
+		if (!dataInit || data.length != channels)
+		{
+			initBuffers(data, 0, data.length);
+		}
+
+		position++;
+
+		if (position == taps)
+		{
+			position = 0;
+		}
+
+		for (int i = 0; i < channels; i++)
+		{
+			final int base = i * 2 * taps;
+
+			history[base + position] = data[i];
+			history[base + position + taps] = data[i];
+
+			// The oldest of the newest taps samples.
+			final int start = base + position + 1;
+
+			float sum = 0;
+
+			for (int j = 0; j < taps; j++)
+			{
+				sum += kernel[j] * history[start + j];
+			}
+
+			data[i] = sum;
+		}
+	}
+
+	/**
+	 * Filter an array of interleaved frames in blocks, continuing the stream
+	 * of the previous calls.
+	 * 
+	 * @param input
+	 *            the input frames, channel i of frame k at k * channels + i.
+	 * @param channels
+	 *            the number of channels of a frame.
+	 * @param output
+	 *            the array the filtered frames are written to, which may be
+	 *            the input.
+	 */
+	public void filter(float[] input, int channels, float[] output)
+	{
+		final int frames = input.length / channels;
+
+		if (frames == 0)
+		{
+			return;
+		}
+
+		if (!dataInit || channels != this.channels)
+		{
+			initBuffers(input, 0, channels);
+		}
+
+		for (int from = 0; from < frames; from += BLOCK)
+		{
+			final int length = Math.min(BLOCK, frames - from);
+
+			for (int i = 0; i < channels; i++)
+			{
+				final int base = i * 2 * taps;
+
+				// The last taps - 1 samples of the channel, from the oldest.
+				System.arraycopy(history, base + position + 2, block, 0,
+						taps - 1);
+
+				for (int k = 0; k < length; k++)
+				{
+					block[taps - 1 + k] = input[(from + k) * channels + i];
+				}
+
+				if (unrolled)
+				{
+					convolveUnrolled(block, blockOutput, length);
+				}
+				else
+				{
+					convolveScalar(block, blockOutput, length);
+				}
+
+				for (int k = 0; k < length; k++)
+				{
+					output[(from + k) * channels + i] = blockOutput[k];
+				}
+
+				// Keep the newest taps samples as the history, ending at
+				// position taps - 1.
+				System.arraycopy(block, length - 1, history, base, taps);
+				System.arraycopy(block, length - 1, history, base + taps, taps);
+			}
+
+			position = taps - 1;
+		}
+	}
+
+	@Override
+	public void reset()
+	{
+		dataInit = false;
+	}
+
+	/**
+	 * Convolve a block one output at a time.
+	 * 
+	 * @param x
+	 *            taps - 1 samples of history followed by the block.
+	 * @param y
+	 *            the array the output of the block is written to.
+	 * @param length
+	 *            the number of samples of the block.
+	 */
+	private void convolveScalar(float[] x, float[] y, int length)
+	{
+		for (int n = 0; n < length; n++)
+		{
+			float sum = 0;
+
+			for (int j = 0; j < taps; j++)
+			{
+				sum += kernel[j] * x[n + j];
+			}
+
+			y[n] = sum;
+		}
+	}
+
+	/**
+	 * Convolve a block four outputs at a time, with the scalar convolution
+	 * for the outputs left over.
+	 * 
+	 * @param x
+	 *            taps - 1 samples of history followed by the block.
+	 * @param y
+	 *            the array the output of the block is written to.
+	 * @param length
+	 *            the number of samples of the block.
+	 */
+	private void convolveUnrolled(float[] x, float[] y, int length)
+	{
+		int n = 0;
+
+		for (; n + 4 <= length; n += 4)
+		{
+			float sum0 = 0;
+			float sum1 = 0;
+			float sum2 = 0;
+			float sum3 = 0;
+
+			for (int j = 0; j < taps; j++)
+			{
+				final float k = kernel[j];
+				final int index = n + j;
+
+				sum0 += k * x[index];
+				sum1 += k * x[index + 1];
+				sum2 += k * x[index + 2];
+				sum3 += k * x[index + 3];
+			}
+
+			y[n] = sum0;
+			y[n + 1] = sum1;
+			y[n + 2] = sum2;
+			y[n + 3] = sum3;
+		}
+
+		for (; n < length; n++)
+		{
+			float sum = 0;
+
+			for (int j = 0; j < taps; j++)
+			{
+				sum += kernel[j] * x[n + j];
+			}
+
+			y[n] = sum;
+		}
+	}
+
+	/**
+	 * Size the buffers for the number of channels and fill the history with
+	 * the first frame.
+	 * 
+	 * @param source
+	 *            the array holding the first frame.
+	 * @param offset
+	 *            the index of the first channel of the frame.
+	 * @param channels
+	 *            the number of channels of a frame.
+	 */
+	private void initBuffers(float[] source, int offset, int channels)
+	{
+		if (history == null || this.channels != channels)
+		{
+			history = new float[channels * 2 * taps];
+			block = new float[taps - 1 + BLOCK];
+			blockOutput = new float[BLOCK];
+		}
+
+		this.channels = channels;
+
+		for (int i = 0; i < channels; i++)
+		{
+			final int base = i * 2 * taps;
+
+			for (int j = 0; j < 2 * taps; j++)
+			{
+				history[base + j] = source[offset + i];
+			}
+		}
+
+		position = 0;
+
+		dataInit = true;
+	}
+}
@@ -0,0 +1,126 @@
+package com.kircherelectronics.gyrolinearacceleration.filters;
+
+import java.util.Random;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Compares the unrolled convolution of the FirFilter with its scalar
+ * convolution and with a MeanFilter of the same length, over kernels from 16
+ * to 256 taps on a recording of three channel frames. For each length the
+ * cost per frame of the three is reported, with the largest difference
+ * between the unrolled and the scalar output, which should be 0.
+ * 
+ * Run from the command line with the optional argument [frames] to print one
+ * CSV row per kernel length.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class FirFilterBenchmark
+{
+	private static final int[] TAPS =
+	{ 16, 32, 64, 128, 256 };
+
+	// The number of channels, as for an accelerometer.
+	private static final int CHANNELS = 3;
+
+	// The sample rate of the recording in Hz.
+	private static final double SAMPLE_RATE = 200;
+
+	// The number of times each filter is run, the fastest run is kept.
+	private static final int RUNS = 5;
+
+	public static void main(String[] args)
+	{
+		int frames = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		float[] input = new float[frames * CHANNELS];
+
+		Random random = new Random(42);
+
+		for (int i = 0; i < input.length; i++)
+		{
+			input[i] = (float) (Math.sin(i / CHANNELS * 0.01) + 0.1 * random
+					.nextGaussian());
+		}
+
+		System.out
+				.println("taps,unrolled ns/frame,scalar ns/frame,mean filter ns/frame,max difference");
+
+		float[] unrolled = new float[input.length];
+		float[] scalar = new float[input.length];
+
+		for (int t = 0; t < TAPS.length; t++)
+		{
+			final int taps = TAPS[t];
+			final float[] kernel = FirKernels.lowPass(taps, 5, SAMPLE_RATE);
+
+			long bestUnrolled = Long.MAX_VALUE;
+			long bestScalar = Long.MAX_VALUE;
+			long bestMean = Long.MAX_VALUE;
+
+			for (int r = 0; r < RUNS; r++)
+			{
+				FirFilter filter = new FirFilter(kernel);
+
+				long start = System.nanoTime();
+
+				filter.filter(input, CHANNELS, unrolled);
+
+				bestUnrolled = Math.min(bestUnrolled, System.nanoTime() - start);
+
+				filter = new FirFilter(kernel);
+				filter.setUnrolled(false);
+
+				start = System.nanoTime();
+
+				filter.filter(input, CHANNELS, scalar);
+
+				bestScalar = Math.min(bestScalar, System.nanoTime() - start);
+
+				MeanFilter mean = new MeanFilter();
+				mean.setWindowSize(taps);
+
+				float[] frame = new float[CHANNELS];
+
+				start = System.nanoTime();
+
+				for (int k = 0; k < frames; k++)
+				{
+					System.arraycopy(input, k * CHANNELS, frame, 0, CHANNELS);
+
+					mean.filterFloat(frame, frame);
+				}
+
+				bestMean = Math.min(bestMean, System.nanoTime() - start);
+			}
+
+			float difference = 0;
+
+			for (int i = 0; i < input.length; i++)
+			{
+				difference = Math.max(difference,
+						Math.abs(unrolled[i] - scalar[i]));
+			}
+
+			System.out.println(taps + "," + (float) bestUnrolled / frames
+					+ "," + (float) bestScalar / frames + ","
+					+ (float) bestMean / frames + "," + difference);
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package com.kircherelectronics.gyrolinearacceleration.filters;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Designs the kernels of FIR filters with the windowed-sinc method. The ideal
+ * impulse response is truncated to the number of taps and shaped with a
+ * Hamming window, which keeps the stop band about 50 dB down. An odd number of
+ * taps gives a kernel that is symmetric around its center tap, so the filter
+ * delays every frequency by (taps - 1) / 2 samples.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class FirKernels
+{
+	/**
+	 * Only static methods.
+	 */
+	private FirKernels()
+	{
+		super();
+	}
+
+	/**
+	 * Design a low-pass kernel with a gain of 1 at 0 Hz.
+	 * 
+	 * @param taps
+	 *            the number of taps, more taps give a sharper transition.
+	 * @param cutoff
+	 *            the -6 dB frequency in Hz.
+	 * @param sampleRate
+	 *            the rate of the samples in Hz.
+	 * @return the kernel.
+	 * @throws IllegalArgumentException
+	 *             if there are no taps or the cutoff is not between 0 and half
+	 *             the sample rate.
+	 */
+	public static float[] lowPass(int taps, double cutoff, double sampleRate)
+	{
+		if (taps < 1)
+		{
+			throw new IllegalArgumentException("taps must be at least 1: "
+					+ taps);
+		}
+
+		if (!(cutoff > 0 && cutoff < sampleRate / 2))
+		{
+			throw new IllegalArgumentException("Cutoff " + cutoff
+					+ " Hz is not below the Nyquist frequency of " + sampleRate
+					+ " Hz");
+		}
+
+		final double fc = cutoff / sampleRate;
+		final double center = (taps - 1) / 2.0;
+
+		double[] kernel = new double[taps];
+		double sum = 0;
+
+		for (int i = 0; i < taps; i++)
+		{
+			final double t = i - center;
+
+			kernel[i] = sinc(2 * fc * t) * 2 * fc * window(i, taps);
+
+			sum += kernel[i];
+		}
+
+		// Normalize the gain at 0 Hz, which the truncation changes slightly.
+		float[] normalized = new float[taps];
+
+		for (int i = 0; i < taps; i++)
+		{
+			normalized[i] = (float) (kernel[i] / sum);
+		}
+
+		return normalized;
+	}
+
+	/**
+	 * Design the anti-aliasing kernel for a FirDecimator, a low-pass filter
+	 * with its cutoff at 80% of the Nyquist frequency of the decimated rate.
+	 * 
+	 * @param factor
+	 *            the decimation factor.
+	 * @param tapsPerPhase
+	 *            the number of taps per output sample, the kernel has factor *
+	 *            tapsPerPhase + 1 taps.
+	 * @return the kernel.
+	 * @throws IllegalArgumentException
+	 *             if the factor or the taps per phase are smaller than 1.
+	 */
+	public static float[] decimation(int factor, int tapsPerPhase)
+	{
+		if (factor < 1 || tapsPerPhase < 1)
+		{
+			throw new IllegalArgumentException(
+					"factor and taps per phase must be at least 1: " + factor
+							+ ", " + tapsPerPhase);
+		}
+
+		if (factor == 1)
+		{
+			return new float[]
+			{ 1 };
+		}
+
+		// Design at a sample rate of 1 Hz.
+		return lowPass(factor * tapsPerPhase + 1, 0.4 / factor, 1);
+	}
+
+	/**
+	 * Design a differentiator, which estimates the rate of change of a signal,
+	 * for instance the jerk from the acceleration. It is the derivative of the
+	 * low-pass impulse response, so the noise above the cutoff is not
+	 * amplified the way it is by a difference of samples. The kernel is scaled
+	 * so a signal that changes by 1 per second gives an output of exactly 1.
+	 * 
+	 * @param taps
+	 *            the number of taps, which must be odd.
+	 * @param cutoff
+	 *            the frequency in Hz above which the differentiator rolls off,
+	 *            at most half the sample rate.
+	 * @param sampleRate
+	 *            the rate of the samples in Hz.
+	 * @return the kernel.
+	 * @throws IllegalArgumentException
+	 *             if the number of taps is not odd and at least 3 or the cutoff
+	 *             is not between 0 and half the sample rate.
+	 */
+	public static float[] differentiator(int taps, double cutoff,
+			double sampleRate)
+	{
+		if (taps < 3 || taps % 2 == 0)
+		{
+			throw new IllegalArgumentException(
+					"taps must be odd and at least 3: " + taps);
+		}
+
+		if (!(cutoff > 0 && cutoff <= sampleRate / 2))
+		{
+			throw new IllegalArgumentException("Cutoff " + cutoff
+					+ " Hz is above the Nyquist frequency of " + sampleRate
+					+ " Hz");
+		}
+
+		final double w = 2 * Math.PI * cutoff / sampleRate;
+		final int center = (taps - 1) / 2;
+
+		double[] kernel = new double[taps];
+		double gain = 0;
+
+		for (int i = 0; i < taps; i++)
+		{
+			final int t = i - center;
+
+			if (t != 0)
+			{
+				kernel[i] = (w * t * Math.cos(w * t) - Math.sin(w * t))
+						/ (Math.PI * t * t) * window(i, taps);
+			}
+
+			// The output for the ramp x[n] = n, the kernel is applied to the
+			// sample t samples before the center.
+			gain -= t * kernel[i];
+		}
+
+		float[] normalized = new float[taps];
+
+		for (int i = 0; i < taps; i++)
+		{
+			normalized[i] = (float) (kernel[i] / gain * sampleRate);
+		}
+
+		return normalized;
+	}
+
+	/**
+	 * Find the normalized sinc, sin(pi * x) / (pi * x).
+	 * 
+	 * @param x
+	 *            the argument.
+	 * @return the sinc of x.
+	 */
+	private static double sinc(double x)
+	{
+		if (x == 0)
+		{
+			return 1;
+		}
+
+		return Math.sin(Math.PI * x) / (Math.PI * x);
+	}
+
+	/**
+	 * Find the Hamming window at a tap.
+	 * 
+	 * @param i
+	 *            the index of the tap.
+	 * @param taps
+	 *            the number of taps.
+	 * @return the weight of the tap.
+	 */
+	private static double window(int i, int taps)
+	{
+		if (taps == 1)
+		{
+			return 1;
+		}
+
+		return 0.54 - 0.46 * Math.cos(2 * Math.PI * i / (taps - 1));
+	}
+}
@@ -1,8 +1,8 @@
 package com.kircherelectronics.gyrolinearacceleration.filters;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /*
  * Copyright 2013, Kircher Electronics
@@ -22,94 +22,327 @@ import java.util.List;
 
 /**
  * Implements a mean filter designed to smooth the data points based on a mean.
+ * The history of all channels is kept in one primitive ring buffer so the
+ * filter does not allocate once the buffer has been sized by the first sample.
+ * A running sum is kept for each channel, so a sample costs O(1) whatever the
+ * window size. The sums are kept in double precision and recomputed from the
+ * buffer every time it wraps, so rounding can not accumulate. The window
+ * arithmetic is also available as static methods on windows held in the
+ * arrays of the caller, so many windows can share flat arrays.
  * 
  * @author Kaleb
  * @version %I%, %G%
  * 
  */
-public class MeanFilter
+public class MeanFilter implements FilterStage
 {
 	// The size of the mean filters rolling window.
 	private int filterWindow = 30;
 
 	private boolean dataInit;
 
-	private ArrayList<LinkedList<Number>> dataLists;
+	// The number of channels (axes) being filtered.
+	private int channels;
+
+	// The number of samples currently held in the window.
+	private int count;
+
+	// The index in the ring buffer where the next sample will be written.
+	private int head;
+
+	// The ring buffer of filterWindow samples, channel i of sample k is
+	// stored at k * channels + i so each sample is contiguous.
+	private float[] dataBuffer;
+
+	// The sum of the samples in the window of each channel.
+	private double[] sums;
 
 	/**
 	 * Initialize a new MeanFilter object.
 	 */
 	public MeanFilter()
 	{
-		dataLists = new ArrayList<LinkedList<Number>>();
 		dataInit = false;
 	}
 
 	/**
 	 * Filter the data.
 	 * 
-	 * @param iterator
+	 * @param data
 	 *            contains input the data.
 	 * @return the filtered output data.
 	 */
 	public float[] filterFloat(float[] data)
 	{
-		for (int i = 0; i < data.length; i++)
+		float[] means = new float[data.length];
+
+		filterFloat(data, means);
+
+		return means;
+	}
+
+	/**
+	 * Filter the data into a caller provided array. The input and output may
+	 * be the same array. No memory is allocated once the filter has seen its
+	 * first sample.
+	 * 
+	 * @param data
+	 *            contains input the data.
+	 * @param means
+	 *            the array the filtered output data will be written to.
+	 */
+	public void filterFloat(float[] data, float[] means)
+	{
+		// Initialize the data structures for the data set.
+		if (!dataInit)
 		{
-			// Initialize the data structures for the data set.
-			if (!dataInit)
-			{
-				dataLists.add(new LinkedList<Number>());
-			}
+			initBuffers(data.length);
+		}
 
-			dataLists.get(i).addLast(data[i]);
+		addSample(data, dataBuffer, 0, sums, 0, channels, head,
+				count == filterWindow);
 
-			if (dataLists.get(i).size() > filterWindow)
-			{
-				dataLists.get(i).removeFirst();
-			}
+		head = (head + 1) % filterWindow;
+
+		if (count < filterWindow)
+		{
+			count++;
 		}
 
-		dataInit = true;
+		if (head == 0)
+		{
+			updateSums(dataBuffer, 0, sums, 0, channels, filterWindow, head,
+					count);
+		}
 
-		float[] means = new float[dataLists.size()];
+		for (int i = 0; i < channels; i++)
+		{
+			means[i] = (float) (sums[i] / count);
+		}
+	}
+
+	@Override
+	public void filter(float[] data, long timestamp)
+	{
+		filterFloat(data, data);
+	}
+
+	/**
+	 * Clear the history of the filter. The window size is kept.
+	 */
+	@Override
+	public void reset()
+	{
+		dataInit = false;
+	}
 
-		for (int i = 0; i < dataLists.size(); i++)
+	/**
+	 * Write the history of the filter so it can be restored with readState().
+	 * 
+	 * @param out
+	 *            the output the state will be written to.
+	 * @throws IOException
+	 *             if the state could not be written.
+	 */
+	public void writeState(DataOutput out) throws IOException
+	{
+		out.writeInt(filterWindow);
+		out.writeInt(dataInit ? channels : 0);
+
+		if (!dataInit)
 		{
-			means[i] = (float) getMean(dataLists.get(i));
+			return;
 		}
 
-		return means;
+		out.writeInt(count);
+		out.writeInt(head);
+
+		for (int i = 0; i < channels; i++)
+		{
+			for (int j = 0; j < filterWindow; j++)
+			{
+				out.writeFloat(dataBuffer[j * channels + i]);
+			}
+		}
 	}
 
 	/**
-	 * Get the mean of the data set.
+	 * Restore the history of the filter written by writeState(). The window
+	 * size of the filter must match the window size of the state.
 	 * 
-	 * @param data
-	 *            the data set.
-	 * @return the mean of the data set.
+	 * @param in
+	 *            the input the state will be read from.
+	 * @throws IOException
+	 *             if the state could not be read or does not match the
+	 *             window size of the filter.
 	 */
-	private float getMean(List<Number> data)
+	public void readState(DataInput in) throws IOException
 	{
-		float m = 0;
-		float count = 0;
+		int window = in.readInt();
+		int channels = in.readInt();
 
-		for (int i = 0; i < data.size(); i++)
+		if (window != filterWindow)
 		{
-			m += data.get(i).floatValue();
-			count++;
+			throw new IOException("Window size " + window
+					+ " does not match " + filterWindow);
+		}
+
+		reset();
+
+		if (channels == 0)
+		{
+			return;
 		}
 
-		if (count != 0)
+		int count = in.readInt();
+		int head = in.readInt();
+
+		if (count < 0 || count > filterWindow || head < 0
+				|| head >= filterWindow)
 		{
-			m = m / count;
+			throw new IOException("Invalid filter state");
+		}
+
+		initBuffers(channels);
+
+		for (int i = 0; i < channels; i++)
+		{
+			for (int j = 0; j < filterWindow; j++)
+			{
+				dataBuffer[j * channels + i] = in.readFloat();
+			}
 		}
 
-		return m;
+		this.count = count;
+		this.head = head;
+
+		updateSums(dataBuffer, 0, sums, 0, channels, filterWindow, head, count);
 	}
 
 	public void setWindowSize(int size)
 	{
 		this.filterWindow = size;
+
+		reset();
+	}
+
+	/**
+	 * Write a sample to a window held in the arrays of the caller and add it
+	 * to the running sums, replacing the oldest sample if the window is full.
+	 * The caller advances the head and the count.
+	 * 
+	 * @param data
+	 *            the sample, one value per channel.
+	 * @param buffer
+	 *            the ring buffer the window is held in, channel i of sample
+	 *            k is stored at bufferOffset + k * channels + i.
+	 * @param bufferOffset
+	 *            the index of the window in the buffer.
+	 * @param sums
+	 *            the running sums of the window.
+	 * @param sumsOffset
+	 *            the index of the sum of the first channel.
+	 * @param channels
+	 *            the number of channels.
+	 * @param head
+	 *            the index of the sample in the window to write.
+	 * @param full
+	 *            true if the window is full.
+	 */
+	public static void addSample(float[] data, float[] buffer,
+			int bufferOffset, double[] sums, int sumsOffset, int channels,
+			int head, boolean full)
+	{
+		final int base = bufferOffset + head * channels;
+
+		for (int i = 0; i < channels; i++)
+		{
+			// Replace the oldest sample once the window is full.
+			if (full)
+			{
+				sums[sumsOffset + i] -= buffer[base + i];
+			}
+
+			sums[sumsOffset + i] += data[i];
+
+			buffer[base + i] = data[i];
+		}
+	}
+
+	/**
+	 * Recompute the running sums of a window held in the arrays of the
+	 * caller from its samples, summed from the oldest to the newest.
+	 * 
+	 * @param buffer
+	 *            the ring buffer the window is held in.
+	 * @param bufferOffset
+	 *            the index of the window in the buffer.
+	 * @param sums
+	 *            the running sums of the window.
+	 * @param sumsOffset
+	 *            the index of the sum of the first channel.
+	 * @param channels
+	 *            the number of channels.
+	 * @param window
+	 *            the size of the window.
+	 * @param head
+	 *            the index of the sample in the window to write next.
+	 * @param count
+	 *            the number of samples in the window.
+	 */
+	public static void updateSums(float[] buffer, int bufferOffset,
+			double[] sums, int sumsOffset, int channels, int window,
+			int head, int count)
+	{
+		final int oldest = (head - count + window) % window;
+
+		for (int i = 0; i < channels; i++)
+		{
+			double sum = 0;
+
+			int index = oldest;
+
+			for (int j = 0; j < count; j++)
+			{
+				sum += buffer[bufferOffset + index * channels + i];
+
+				index++;
+
+				if (index == window)
+				{
+					index = 0;
+				}
+			}
+
+			sums[sumsOffset + i] = sum;
+		}
+	}
+
+	/**
+	 * Size the ring buffer for the number of channels in the data set.
+	 * 
+	 * @param channels
+	 *            the number of channels in the data set.
+	 */
+	private void initBuffers(int channels)
+	{
+		if (dataBuffer == null || sums.length != channels
+				|| dataBuffer.length != channels * filterWindow)
+		{
+			dataBuffer = new float[channels * filterWindow];
+			sums = new double[channels];
+		}
+
+		this.channels = channels;
+
+		count = 0;
+		head = 0;
+
+		for (int i = 0; i < channels; i++)
+		{
+			sums[i] = 0;
+		}
+
+		dataInit = true;
 	}
 }
@@ -0,0 +1,160 @@
+package com.kircherelectronics.gyrolinearacceleration.filters;
+
+import java.util.Random;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Measures the cost of the MeanFilter over window sizes from 10 to 1000
+ * samples and compares it with a mean that is recomputed from the whole
+ * window for every sample, the way the filter used to work. The largest
+ * difference between the two means is reported as well.
+ * 
+ * Run from the command line with the optional argument [samples] to print
+ * one CSV row per window size.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class MeanFilterBenchmark
+{
+	private static final int[] WINDOWS =
+	{ 10, 30, 100, 300, 1000 };
+
+	// The number of channels, as for an accelerometer.
+	private static final int CHANNELS = 3;
+
+	// The number of times each filter is run, the fastest run is kept.
+	private static final int RUNS = 5;
+
+	public static void main(String[] args)
+	{
+		int samples = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		float[] data = new float[samples * CHANNELS];
+
+		Random random = new Random(42);
+
+		// A noisy acceleration around gravity.
+		for (int i = 0; i < data.length; i++)
+		{
+			data[i] = (float) (9.81 * (i % CHANNELS == 2 ? 1 : 0) + random
+					.nextGaussian());
+		}
+
+		System.out
+				.println("window,running sum ns/sample,recomputed ns/sample,max difference");
+
+		for (int w = 0; w < WINDOWS.length; w++)
+		{
+			final int window = WINDOWS[w];
+
+			float[] means = new float[samples * CHANNELS];
+			float[] reference = new float[samples * CHANNELS];
+
+			long best = Long.MAX_VALUE;
+			long bestReference = Long.MAX_VALUE;
+
+			for (int r = 0; r < RUNS; r++)
+			{
+				long start = System.nanoTime();
+
+				runFilter(data, means, window);
+
+				best = Math.min(best, System.nanoTime() - start);
+
+				start = System.nanoTime();
+
+				runReference(data, reference, window);
+
+				bestReference = Math.min(bestReference, System.nanoTime()
+						- start);
+			}
+
+			float difference = 0;
+
+			for (int i = 0; i < means.length; i++)
+			{
+				difference = Math.max(difference,
+						Math.abs(means[i] - reference[i]));
+			}
+
+			System.out.println(window + "," + (float) best / samples + ","
+					+ (float) bestReference / samples + "," + difference);
+		}
+	}
+
+	/**
+	 * Run the samples through a MeanFilter.
+	 * 
+	 * @param data
+	 *            the samples, CHANNELS values per sample.
+	 * @param means
+	 *            the array the means will be written to.
+	 * @param window
+	 *            the window size.
+	 */
+	private static void runFilter(float[] data, float[] means, int window)
+	{
+		MeanFilter filter = new MeanFilter();
+		filter.setWindowSize(window);
+
+		float[] sample = new float[CHANNELS];
+
+		for (int i = 0; i < data.length; i += CHANNELS)
+		{
+			System.arraycopy(data, i, sample, 0, CHANNELS);
+
+			filter.filterFloat(sample, sample);
+
+			System.arraycopy(sample, 0, means, i, CHANNELS);
+		}
+	}
+
+	/**
+	 * Find the means by summing the whole window, from the oldest to the
+	 * newest sample, for every sample.
+	 * 
+	 * @param data
+	 *            the samples, CHANNELS values per sample.
+	 * @param means
+	 *            the array the means will be written to.
+	 * @param window
+	 *            the window size.
+	 */
+	private static void runReference(float[] data, float[] means, int window)
+	{
+		final int samples = data.length / CHANNELS;
+
+		for (int i = 0; i < samples; i++)
+		{
+			final int first = Math.max(0, i - window + 1);
+
+			for (int c = 0; c < CHANNELS; c++)
+			{
+				float m = 0;
+
+				for (int k = first; k <= i; k++)
+				{
+					m += data[k * CHANNELS + c];
+				}
+
+				means[i * CHANNELS + c] = m / (i - first + 1);
+			}
+		}
+	}
+}
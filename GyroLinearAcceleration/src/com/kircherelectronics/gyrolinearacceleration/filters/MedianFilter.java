@@ -0,0 +1,461 @@
+package com.kircherelectronics.gyrolinearacceleration.filters;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A running median over a window of the most recent frames, which removes
+ * spikes without smearing steps the way a mean does. It has the same
+ * filterFloat() methods as the MeanFilter, so it can be used in its place.
+ * 
+ * Each channel keeps its window in a ring buffer and splits it between two
+ * heaps of ring buffer slots: a max-heap holding the lower half of the window
+ * and a min-heap holding the upper half, so the median is at the top of the
+ * heaps. The heap position of every slot is tracked, which lets the oldest
+ * sample be removed from the middle of its heap. A sample costs O(log window)
+ * per channel and nothing is allocated once the first frame has sized the
+ * buffers. While the window is filling the median of the samples so far is
+ * output, the mean of the two middle samples for an even count.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class MedianFilter implements FilterStage
+{
+	private int window;
+
+	private boolean dataInit = false;
+
+	private int channels;
+
+	// The number of samples currently held in the window.
+	private int count;
+
+	// The index in the ring buffer where the next sample will be written.
+	private int head;
+
+	// The ring buffers, sample k of channel i is stored at i * window + k so
+	// the heaps of a channel only look at its own buffer.
+	private float[] dataBuffer;
+
+	// The heaps of ring buffer slots of channel i start at i * window. The low
+	// heap is a max-heap of the lower half of the window, the high heap a
+	// min-heap of the upper half. The low heap holds the extra sample of an
+	// odd count.
+	private int[] lowHeap;
+	private int[] highHeap;
+	private int[] lowSize;
+	private int[] highSize;
+
+	// The heap position of slot k of channel i, stored at i * window + k. A
+	// position p in the low heap is stored as p, in the high heap as -p - 1.
+	private int[] positions;
+
+	/**
+	 * Initialize the state.
+	 * 
+	 * @param window
+	 *            the number of frames the median is taken over.
+	 * @throws IllegalArgumentException
+	 *             if the window is smaller than 1.
+	 */
+	public MedianFilter(int window)
+	{
+		super();
+
+		setWindowSize(window);
+	}
+
+	/**
+	 * Filter the data.
+	 * 
+	 * @param data
+	 *            contains input the data.
+	 * @return the filtered output data.
+	 */
+	public float[] filterFloat(float[] data)
+	{
+		float[] medians = new float[data.length];
+
+		filterFloat(data, medians);
+
+		return medians;
+	}
+
+	/**
+	 * Filter the data into a caller provided array. The input and output may
+	 * be the same array. No memory is allocated once the filter has seen its
+	 * first sample.
+	 * 
+	 * @param data
+	 *            contains input the data.
+	 * @param medians
+	 *            the array the filtered output data will be written to.
+	 */
+	public void filterFloat(float[] data, float[] medians)
+	{
+		if (!dataInit)
+		{
+			initBuffers(data.length);
+		}
+
+		final boolean full = count == window;
+
+		for (int i = 0; i < channels; i++)
+		{
+			// The oldest sample is in the slot the new sample is written to.
+			if (full)
+			{
+				remove(i, head);
+			}
+
+			final int base = i * window;
+
+			dataBuffer[base + head] = data[i];
+
+			insert(i, head);
+
+			final float median = dataBuffer[base + lowHeap[base]];
+
+			if (lowSize[i] > highSize[i])
+			{
+				medians[i] = median;
+			}
+			else
+			{
+				medians[i] = (median + dataBuffer[base + highHeap[base]]) / 2;
+			}
+		}
+
+		head = (head + 1) % window;
+
+		if (!full)
+		{
+			count++;
+		}
+	}
+
+	@Override
+	public void filter(float[] data, long timestamp)
+	{
+		filterFloat(data, data);
+	}
+
+	@Override
+	public void reset()
+	{
+		dataInit = false;
+	}
+
+	/**
+	 * Set the number of frames the median is taken over and clear the
+	 * history.
+	 * 
+	 * @param size
+	 *            the window size.
+	 * @throws IllegalArgumentException
+	 *             if the window is smaller than 1.
+	 */
+	public void setWindowSize(int size)
+	{
+		if (size < 1)
+		{
+			throw new IllegalArgumentException("window must be at least 1: "
+					+ size);
+		}
+
+		this.window = size;
+
+		reset();
+	}
+
+	/**
+	 * Add the sample in a ring buffer slot to the heaps of a channel and
+	 * rebalance them.
+	 * 
+	 * @param channel
+	 *            the channel.
+	 * @param slot
+	 *            the ring buffer slot of the sample.
+	 */
+	private void insert(int channel, int slot)
+	{
+		final int base = channel * window;
+
+		if (lowSize[channel] == 0
+				|| dataBuffer[base + slot] <= dataBuffer[base + lowHeap[base]])
+		{
+			push(channel, true, slot);
+		}
+		else
+		{
+			push(channel, false, slot);
+		}
+
+		rebalance(channel);
+	}
+
+	/**
+	 * Remove the sample in a ring buffer slot from the heaps of a channel and
+	 * rebalance them.
+	 * 
+	 * @param channel
+	 *            the channel.
+	 * @param slot
+	 *            the ring buffer slot of the sample.
+	 */
+	private void remove(int channel, int slot)
+	{
+		final int position = positions[channel * window + slot];
+
+		if (position >= 0)
+		{
+			removeAt(channel, true, position);
+		}
+		else
+		{
+			removeAt(channel, false, -position - 1);
+		}
+
+		rebalance(channel);
+	}
+
+	/**
+	 * Move the top of one heap to the other until the low heap holds as many
+	 * samples as the high heap, or one more.
+	 * 
+	 * @param channel
+	 *            the channel.
+	 */
+	private void rebalance(int channel)
+	{
+		final int base = channel * window;
+
+		if (lowSize[channel] > highSize[channel] + 1)
+		{
+			final int slot = lowHeap[base];
+
+			removeAt(channel, true, 0);
+			push(channel, false, slot);
+		}
+		else if (highSize[channel] > lowSize[channel])
+		{
+			final int slot = highHeap[base];
+
+			removeAt(channel, false, 0);
+			push(channel, true, slot);
+		}
+	}
+
+	/**
+	 * Add a slot to the end of a heap and sift it up.
+	 * 
+	 * @param channel
+	 *            the channel.
+	 * @param low
+	 *            true for the low heap, false for the high heap.
+	 * @param slot
+	 *            the ring buffer slot.
+	 */
+	private void push(int channel, boolean low, int slot)
+	{
+		final int position = low ? lowSize[channel]++ : highSize[channel]++;
+
+		set(channel, low, position, slot);
+		siftUp(channel, low, position);
+	}
+
+	/**
+	 * Remove the slot at a position of a heap by moving the last slot of the
+	 * heap into its place.
+	 * 
+	 * @param channel
+	 *            the channel.
+	 * @param low
+	 *            true for the low heap, false for the high heap.
+	 * @param position
+	 *            the position in the heap.
+	 */
+	private void removeAt(int channel, boolean low, int position)
+	{
+		final int[] heap = low ? lowHeap : highHeap;
+		final int last = low ? --lowSize[channel] : --highSize[channel];
+
+		if (position == last)
+		{
+			return;
+		}
+
+		set(channel, low, position, heap[channel * window + last]);
+
+		// The moved slot can belong above or below its new position.
+		siftUp(channel, low, position);
+		siftDown(channel, low, position);
+	}
+
+	/**
+	 * Move the slot at a position of a heap up until its parent comes before
+	 * it.
+	 * 
+	 * @param channel
+	 *            the channel.
+	 * @param low
+	 *            true for the low heap, false for the high heap.
+	 * @param position
+	 *            the position in the heap.
+	 */
+	private void siftUp(int channel, boolean low, int position)
+	{
+		final int[] heap = low ? lowHeap : highHeap;
+		final int base = channel * window;
+		final int slot = heap[base + position];
+		final float value = dataBuffer[base + slot];
+
+		while (position > 0)
+		{
+			final int parent = (position - 1) / 2;
+			final float parentValue = dataBuffer[base + heap[base + parent]];
+
+			if (low ? value <= parentValue : value >= parentValue)
+			{
+				break;
+			}
+
+			set(channel, low, position, heap[base + parent]);
+
+			position = parent;
+		}
+
+		set(channel, low, position, slot);
+	}
+
+	/**
+	 * Move the slot at a position of a heap down until it comes before both
+	 * of its children.
+	 * 
+	 * @param channel
+	 *            the channel.
+	 * @param low
+	 *            true for the low heap, false for the high heap.
+	 * @param position
+	 *            the position in the heap.
+	 */
+	private void siftDown(int channel, boolean low, int position)
+	{
+		final int[] heap = low ? lowHeap : highHeap;
+		final int base = channel * window;
+		final int size = low ? lowSize[channel] : highSize[channel];
+		final int slot = heap[base + position];
+		final float value = dataBuffer[base + slot];
+
+		while (true)
+		{
+			int child = 2 * position + 1;
+
+			if (child >= size)
+			{
+				break;
+			}
+
+			float childValue = dataBuffer[base + heap[base + child]];
+
+			// Follow the child that comes first.
+			if (child + 1 < size)
+			{
+				final float rightValue = dataBuffer[base
+						+ heap[base + child + 1]];
+
+				if (low ? rightValue > childValue : rightValue < childValue)
+				{
+					child++;
+					childValue = rightValue;
+				}
+			}
+
+			if (low ? childValue <= value : childValue >= value)
+			{
+				break;
+			}
+
+			set(channel, low, position, heap[base + child]);
+
+			position = child;
+		}
+
+		set(channel, low, position, slot);
+	}
+
+	/**
+	 * Store a slot at a position of a heap and record its position.
+	 * 
+	 * @param channel
+	 *            the channel.
+	 * @param low
+	 *            true for the low heap, false for the high heap.
+	 * @param position
+	 *            the position in the heap.
+	 * @param slot
+	 *            the ring buffer slot.
+	 */
+	private void set(int channel, boolean low, int position, int slot)
+	{
+		final int base = channel * window;
+
+		if (low)
+		{
+			lowHeap[base + position] = slot;
+			positions[base + slot] = position;
+		}
+		else
+		{
+			highHeap[base + position] = slot;
+			positions[base + slot] = -position - 1;
+		}
+	}
+
+	/**
+	 * Size the buffers for the number of channels in the data set.
+	 * 
+	 * @param channels
+	 *            the number of channels in the data set.
+	 */
+	private void initBuffers(int channels)
+	{
+		if (dataBuffer == null || this.channels != channels
+				|| dataBuffer.length != channels * window)
+		{
+			dataBuffer = new float[channels * window];
+			lowHeap = new int[channels * window];
+			highHeap = new int[channels * window];
+			positions = new int[channels * window];
+			lowSize = new int[channels];
+			highSize = new int[channels];
+		}
+
+		this.channels = channels;
+
+		count = 0;
+		head = 0;
+
+		for (int i = 0; i < channels; i++)
+		{
+			lowSize[i] = 0;
+			highSize[i] = 0;
+		}
+
+		dataInit = true;
+	}
+}
@@ -0,0 +1,162 @@
+package com.kircherelectronics.gyrolinearacceleration.filters;
+
+import java.util.Random;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Compares the MedianFilter with the MeanFilter over window sizes from 8 to
+ * 512 samples on a noisy acceleration with impulsive spikes, like the
+ * vibration of a vehicle mount. For each window the cost per sample of both
+ * filters is reported, with the RMS error of their output against the
+ * acceleration without the spikes.
+ * 
+ * Run from the command line with the optional argument [samples] to print
+ * one CSV row per window size.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class MedianFilterBenchmark
+{
+	private static final int[] WINDOWS =
+	{ 8, 16, 32, 64, 128, 256, 512 };
+
+	// The number of channels, as for an accelerometer.
+	private static final int CHANNELS = 3;
+
+	// The number of times each filter is run, the fastest run is kept.
+	private static final int RUNS = 5;
+
+	// The chance of a spike and its size in m/s^2.
+	private static final double SPIKE_PROBABILITY = 0.02;
+	private static final double SPIKE_SIZE = 20;
+
+	public static void main(String[] args)
+	{
+		int samples = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		float[] clean = new float[samples * CHANNELS];
+		float[] data = new float[samples * CHANNELS];
+
+		Random random = new Random(42);
+
+		// Gravity on the z-axis with a slow motion, white noise and spikes.
+		for (int i = 0; i < data.length; i++)
+		{
+			clean[i] = (float) (9.81 * (i % CHANNELS == 2 ? 1 : 0) + Math
+					.sin(i / CHANNELS * 0.002));
+
+			data[i] = (float) (clean[i] + 0.1 * random.nextGaussian());
+
+			if (random.nextDouble() < SPIKE_PROBABILITY)
+			{
+				data[i] += (float) (SPIKE_SIZE * random.nextGaussian());
+			}
+		}
+
+		System.out
+				.println("window,median ns/sample,mean ns/sample,median rms error,mean rms error");
+
+		float[] medians = new float[samples * CHANNELS];
+		float[] means = new float[samples * CHANNELS];
+
+		for (int w = 0; w < WINDOWS.length; w++)
+		{
+			final int window = WINDOWS[w];
+
+			long bestMedian = Long.MAX_VALUE;
+			long bestMean = Long.MAX_VALUE;
+
+			for (int r = 0; r < RUNS; r++)
+			{
+				MedianFilter median = new MedianFilter(window);
+
+				long start = System.nanoTime();
+
+				run(median, data, medians);
+
+				bestMedian = Math.min(bestMedian, System.nanoTime() - start);
+
+				MeanFilter mean = new MeanFilter();
+				mean.setWindowSize(window);
+
+				start = System.nanoTime();
+
+				run(mean, data, means);
+
+				bestMean = Math.min(bestMean, System.nanoTime() - start);
+			}
+
+			System.out.println(window + "," + (float) bestMedian / samples
+					+ "," + (float) bestMean / samples + ","
+					+ error(medians, clean, window) + ","
+					+ error(means, clean, window));
+		}
+	}
+
+	/**
+	 * Run the samples through a filter.
+	 * 
+	 * @param filter
+	 *            the filter.
+	 * @param data
+	 *            the samples, CHANNELS values per sample.
+	 * @param output
+	 *            the array the filtered samples will be written to.
+	 */
+	private static void run(FilterStage filter, float[] data, float[] output)
+	{
+		float[] sample = new float[CHANNELS];
+
+		for (int i = 0; i < data.length; i += CHANNELS)
+		{
+			System.arraycopy(data, i, sample, 0, CHANNELS);
+
+			filter.filter(sample, i);
+
+			System.arraycopy(sample, 0, output, i, CHANNELS);
+		}
+	}
+
+	/**
+	 * Find the RMS error of the filtered samples once the window is full.
+	 * Both filters lag the clean signal by half a window, which is part of
+	 * the error.
+	 * 
+	 * @param output
+	 *            the filtered samples.
+	 * @param clean
+	 *            the samples without noise and spikes.
+	 * @param window
+	 *            the window size.
+	 * @return the RMS error in m/s^2.
+	 */
+	private static float error(float[] output, float[] clean, int window)
+	{
+		double sum = 0;
+
+		for (int i = window * CHANNELS; i < output.length; i++)
+		{
+			final double e = output[i] - clean[i];
+
+			sum += e * e;
+		}
+
+		return (float) Math.sqrt(sum / (output.length - window * CHANNELS));
+	}
+}
@@ -0,0 +1,290 @@
+package com.kircherelectronics.gyrolinearacceleration.filters;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Filters a long recording of interleaved frames offline by splitting it into
+ * chunks that are filtered at the same time on an ExecutorService. Every
+ * chunk gets a new stage, which is first run over a halo of the frames before
+ * the chunk so its window holds the same frames it would hold in a sequential
+ * pass. The output of the halo is thrown away.
+ * 
+ * The output is bit-identical to running one stage over the whole recording
+ * as long as the state of the stage after the halo only depends on the frames
+ * in the halo, and the chunks start where the stage would be in that state.
+ * The factories for the MeanFilter and the MedianFilter set the halo and the
+ * alignment of the chunks so this holds: the MeanFilter recomputes its sums
+ * from its window every time its ring buffer wraps, so its chunks start at a
+ * multiple of the window with a halo of one window. The median only depends
+ * on the frames in the window, so the MedianFilter needs a halo of one window
+ * less one frame and no alignment. A stage with an infinite memory, like the
+ * BiquadFilter, can not be split this way.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class ParallelFilter
+{
+	/**
+	 * Creates the stage of a chunk.
+	 */
+	public interface StageFactory
+	{
+		/**
+		 * Create a stage with a cleared history.
+		 * 
+		 * @return the stage.
+		 */
+		public FilterStage newStage();
+	}
+
+	private final StageFactory factory;
+
+	// The number of frames a stage is run over before a chunk.
+	private final int halo;
+
+	// The chunks start at a multiple of this number of frames.
+	private final int alignment;
+
+	/**
+	 * Initialize the state.
+	 * 
+	 * @param factory
+	 *            creates the stage of a chunk.
+	 * @param halo
+	 *            the number of frames a stage is run over before its chunk.
+	 * @param alignment
+	 *            the chunks start at a multiple of this number of frames.
+	 * @throws IllegalArgumentException
+	 *             if the halo is negative or the alignment smaller than 1.
+	 */
+	public ParallelFilter(StageFactory factory, int halo, int alignment)
+	{
+		super();
+
+		if (halo < 0 || alignment < 1)
+		{
+			throw new IllegalArgumentException("Invalid halo " + halo
+					+ " or alignment " + alignment);
+		}
+
+		this.factory = factory;
+		this.halo = halo;
+		this.alignment = alignment;
+	}
+
+	/**
+	 * Create a parallel MeanFilter.
+	 * 
+	 * @param window
+	 *            the window size of the filter.
+	 * @return the parallel filter.
+	 */
+	public static ParallelFilter meanFilter(final int window)
+	{
+		return new ParallelFilter(new StageFactory()
+		{
+			@Override
+			public FilterStage newStage()
+			{
+				MeanFilter filter = new MeanFilter();
+				filter.setWindowSize(window);
+
+				return filter;
+			}
+		}, window, window);
+	}
+
+	/**
+	 * Create a parallel MedianFilter.
+	 * 
+	 * @param window
+	 *            the window size of the filter.
+	 * @return the parallel filter.
+	 */
+	public static ParallelFilter medianFilter(final int window)
+	{
+		return new ParallelFilter(new StageFactory()
+		{
+			@Override
+			public FilterStage newStage()
+			{
+				return new MedianFilter(window);
+			}
+		}, window - 1, 1);
+	}
+
+	/**
+	 * Filter a recording on the calling thread with a single stage, the
+	 * sequential pass the parallel output matches.
+	 * 
+	 * @param input
+	 *            the input frames, channel i of frame k at k * channels + i.
+	 * @param channels
+	 *            the number of channels of a frame.
+	 * @param output
+	 *            the array the filtered frames are written to, which may be
+	 *            the input.
+	 */
+	public void filter(float[] input, int channels, float[] output)
+	{
+		final int frames = input.length / channels;
+
+		run(factory.newStage(), input, channels, output, 0, 0, frames);
+	}
+
+	/**
+	 * Filter a recording in chunks on an executor. The call returns once every
+	 * chunk has been filtered. If a chunk fails or the thread is interrupted
+	 * the remaining chunks are cancelled and the output is left incomplete.
+	 * 
+	 * @param input
+	 *            the input frames, channel i of frame k at k * channels + i.
+	 * @param channels
+	 *            the number of channels of a frame.
+	 * @param output
+	 *            the array the filtered frames are written to, which must not
+	 *            be the input since the halos are read from it.
+	 * @param executor
+	 *            the executor the chunks are run on.
+	 * @param chunks
+	 *            the number of chunks, a few per thread balances the load.
+	 * @throws IllegalArgumentException
+	 *             if the output is the input or there are no chunks.
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting for the chunks.
+	 */
+	public void filter(final float[] input, final int channels,
+			final float[] output, ExecutorService executor, int chunks)
+			throws InterruptedException
+	{
+		if (input == output)
+		{
+			throw new IllegalArgumentException(
+					"output must not be the input");
+		}
+
+		if (chunks < 1)
+		{
+			throw new IllegalArgumentException("chunks must be at least 1: "
+					+ chunks);
+		}
+
+		final int frames = input.length / channels;
+
+		// The length of a chunk, rounded up to the alignment.
+		int length = (frames + chunks - 1) / chunks;
+		length = Math.max(alignment,
+				(length + alignment - 1) / alignment * alignment);
+
+		ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+		for (int start = 0; start < frames; start += length)
+		{
+			final int from = start;
+			final int to = Math.min(start + length, frames);
+
+			futures.add(executor.submit(new Callable<Void>()
+			{
+				@Override
+				public Void call()
+				{
+					run(factory.newStage(), input, channels, output,
+							Math.max(from - halo, 0), from, to);
+
+					return null;
+				}
+			}));
+		}
+
+		boolean done = false;
+
+		try
+		{
+			for (int i = 0; i < futures.size(); i++)
+			{
+				futures.get(i).get();
+			}
+
+			done = true;
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof RuntimeException)
+			{
+				throw (RuntimeException) e.getCause();
+			}
+
+			throw new IllegalStateException(e.getCause());
+		}
+		finally
+		{
+			// Cancel the chunks that are still queued or running if a chunk
+			// failed or the thread was interrupted while waiting.
+			if (!done)
+			{
+				for (int i = 0; i < futures.size(); i++)
+				{
+					futures.get(i).cancel(true);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Run a stage over the halo and a chunk of a recording, using the index of
+	 * a frame as its time stamp.
+	 * 
+	 * @param stage
+	 *            the stage with a cleared history.
+	 * @param input
+	 *            the input frames.
+	 * @param channels
+	 *            the number of channels of a frame.
+	 * @param output
+	 *            the array the filtered frames are written to.
+	 * @param first
+	 *            the index of the first frame of the halo.
+	 * @param from
+	 *            the index of the first frame of the chunk.
+	 * @param to
+	 *            the index after the last frame of the chunk.
+	 */
+	private static void run(FilterStage stage, float[] input, int channels,
+			float[] output, int first, int from, int to)
+	{
+		float[] frame = new float[channels];
+
+		for (int k = first; k < to; k++)
+		{
+			System.arraycopy(input, k * channels, frame, 0, channels);
+
+			stage.filter(frame, k);
+
+			if (k >= from)
+			{
+				System.arraycopy(frame, 0, output, k * channels, channels);
+			}
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package com.kircherelectronics.gyrolinearacceleration.filters;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Measures how the ParallelFilter scales with the number of threads, from 1
+ * to the number of cores, on a synthetic recording of three channel frames
+ * smoothed with a MeanFilter. For each number of threads the time, the
+ * speedup over the sequential pass and whether the output is bit-identical to
+ * the sequential pass are reported.
+ * 
+ * Run from the command line with the optional arguments [samples] [window] to
+ * print one CSV row per number of threads. The default recording of 100M
+ * samples needs a heap of about 1 GB for the input and the two outputs, for
+ * instance -Xmx1200m.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class ParallelFilterBenchmark
+{
+	// The number of channels, as for an accelerometer.
+	private static final int CHANNELS = 3;
+
+	// The number of chunks per thread.
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	// The number of times each configuration is run, the fastest run is kept.
+	private static final int RUNS = 5;
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		int samples = args.length > 0 ? Integer.parseInt(args[0]) : 100000000;
+		int window = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+
+		float[] input = new float[samples / CHANNELS * CHANNELS];
+
+		Random random = new Random(42);
+
+		for (int i = 0; i < input.length; i++)
+		{
+			input[i] = (float) (Math.sin(i / CHANNELS * 0.001) + 0.1 * random
+					.nextGaussian());
+		}
+
+		ParallelFilter filter = ParallelFilter.meanFilter(window);
+
+		float[] sequential = new float[input.length];
+		float[] parallel = new float[input.length];
+
+		long bestSequential = Long.MAX_VALUE;
+
+		for (int r = 0; r < RUNS; r++)
+		{
+			long start = System.nanoTime();
+
+			filter.filter(input, CHANNELS, sequential);
+
+			bestSequential = Math.min(bestSequential, System.nanoTime() - start);
+		}
+
+		System.out.println("threads,ms,speedup,bit-identical");
+		System.out.println("sequential," + bestSequential / 1000000 + ",1.0,"
+				+ true);
+
+		final int cores = Runtime.getRuntime().availableProcessors();
+
+		for (int threads = 1; threads <= cores; threads++)
+		{
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+			long best = Long.MAX_VALUE;
+
+			for (int r = 0; r < RUNS; r++)
+			{
+				long start = System.nanoTime();
+
+				filter.filter(input, CHANNELS, parallel, executor, threads
+						* CHUNKS_PER_THREAD);
+
+				best = Math.min(best, System.nanoTime() - start);
+			}
+
+			executor.shutdown();
+
+			System.out.println(threads + "," + best / 1000000 + ","
+					+ (float) bestSequential / best + ","
+					+ identical(sequential, parallel));
+		}
+	}
+
+	/**
+	 * Compare two outputs bit for bit.
+	 * 
+	 * @param a
+	 *            the first output.
+	 * @param b
+	 *            the second output.
+	 * @return true if every value has the same bits.
+	 */
+	private static boolean identical(float[] a, float[] b)
+	{
+		for (int i = 0; i < a.length; i++)
+		{
+			if (Float.floatToRawIntBits(a[i]) != Float.floatToRawIntBits(b[i]))
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
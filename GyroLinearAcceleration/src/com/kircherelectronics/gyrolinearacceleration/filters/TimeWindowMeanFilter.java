@@ -0,0 +1,272 @@
+package com.kircherelectronics.gyrolinearacceleration.filters;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A mean filter over the frames of the most recent span of time instead of a
+ * number of frames. The MeanFilter smooths over a fixed number of samples, so
+ * its time constant depends on the rate the device delivers samples at, which
+ * differs between devices and under load. This filter keeps the time stamp of
+ * every frame in a primitive ring buffer and evicts frames by age, so the
+ * same window behaves the same at any rate.
+ * 
+ * Each frame is added once and evicted once, so a frame costs amortized O(1).
+ * The running sums are kept in double precision and recomputed from the
+ * buffer once per buffer length of frames. The buffer starts small and
+ * doubles when a window holds more frames than it can, after that nothing is
+ * allocated. If the time stamps go backwards the history is cleared.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class TimeWindowMeanFilter implements FilterStage
+{
+	// The initial number of frames the ring buffer can hold.
+	private static final int INITIAL_CAPACITY = 16;
+
+	// The length of the window in nanoseconds.
+	private long window;
+
+	private boolean dataInit = false;
+
+	private int channels;
+
+	// The number of frames the ring buffer can hold.
+	private int capacity = 0;
+
+	// The index of the oldest frame and the number of frames in the window.
+	private int tail;
+	private int count;
+
+	// The number of frames added since the sums were recomputed.
+	private int added;
+
+	// The time stamp of each frame in nanoseconds.
+	private long[] timestamps;
+
+	// The ring buffer, channel i of frame k is stored at k * channels + i.
+	private float[] dataBuffer;
+
+	// The sum of the frames in the window of each channel.
+	private double[] sums;
+
+	/**
+	 * Initialize the state.
+	 * 
+	 * @param window
+	 *            the length of the window in nanoseconds.
+	 * @throws IllegalArgumentException
+	 *             if the window is not positive.
+	 */
+	public TimeWindowMeanFilter(long window)
+	{
+		super();
+
+		setWindow(window);
+	}
+
+	/**
+	 * Set the length of the window and clear the history.
+	 * 
+	 * @param window
+	 *            the length of the window in nanoseconds.
+	 * @throws IllegalArgumentException
+	 *             if the window is not positive.
+	 */
+	public void setWindow(long window)
+	{
+		if (window <= 0)
+		{
+			throw new IllegalArgumentException("window must be positive: "
+					+ window);
+		}
+
+		this.window = window;
+
+		reset();
+	}
+
+	/**
+	 * Get the number of frames in the window.
+	 * 
+	 * @return the number of frames.
+	 */
+	public int getCount()
+	{
+		return count;
+	}
+
+	@Override
+	public void filter(float[] data, long timestamp)
+	{
+		if (!dataInit || data.length != channels
+				|| (count > 0 && timestamp < newestTimestamp()))
+		{
+			initBuffers(data.length);
+		}
+
+		// Evict the frames that are too old, a frame is kept while it is
+		// younger than the window.
+		while (count > 0 && timestamp - timestamps[tail] >= window)
+		{
+			final int base = tail * channels;
+
+			for (int i = 0; i < channels; i++)
+			{
+				sums[i] -= dataBuffer[base + i];
+			}
+
+			tail = (tail + 1) % capacity;
+			count--;
+		}
+
+		if (count == capacity)
+		{
+			grow();
+		}
+
+		final int head = (tail + count) % capacity;
+		final int base = head * channels;
+
+		timestamps[head] = timestamp;
+
+		for (int i = 0; i < channels; i++)
+		{
+			dataBuffer[base + i] = data[i];
+		}
+
+		count++;
+
+		if (++added >= capacity || count == 1)
+		{
+			updateSums();
+		}
+		else
+		{
+			for (int i = 0; i < channels; i++)
+			{
+				sums[i] += data[i];
+			}
+		}
+
+		for (int i = 0; i < channels; i++)
+		{
+			data[i] = (float) (sums[i] / count);
+		}
+	}
+
+	@Override
+	public void reset()
+	{
+		dataInit = false;
+	}
+
+	/**
+	 * Get the time stamp of the newest frame.
+	 * 
+	 * @return the time stamp in nanoseconds.
+	 */
+	private long newestTimestamp()
+	{
+		return timestamps[(tail + count - 1) % capacity];
+	}
+
+	/**
+	 * Recompute the running sums from the frames in the window, summed from
+	 * the oldest to the newest.
+	 */
+	private void updateSums()
+	{
+		for (int i = 0; i < channels; i++)
+		{
+			double sum = 0;
+
+			int index = tail;
+
+			for (int j = 0; j < count; j++)
+			{
+				sum += dataBuffer[index * channels + i];
+
+				index++;
+
+				if (index == capacity)
+				{
+					index = 0;
+				}
+			}
+
+			sums[i] = sum;
+		}
+
+		added = 0;
+	}
+
+	/**
+	 * Double the capacity of the ring buffer, keeping the frames in order
+	 * from the start of the new buffer.
+	 */
+	private void grow()
+	{
+		final int newCapacity = capacity * 2;
+
+		long[] newTimestamps = new long[newCapacity];
+		float[] newDataBuffer = new float[newCapacity * channels];
+
+		// The frames from the tail to the end of the buffer, then the frames
+		// that wrapped around to its start.
+		final int first = capacity - tail;
+
+		System.arraycopy(timestamps, tail, newTimestamps, 0, first);
+		System.arraycopy(timestamps, 0, newTimestamps, first, tail);
+
+		System.arraycopy(dataBuffer, tail * channels, newDataBuffer, 0, first
+				* channels);
+		System.arraycopy(dataBuffer, 0, newDataBuffer, first * channels, tail
+				* channels);
+
+		timestamps = newTimestamps;
+		dataBuffer = newDataBuffer;
+		capacity = newCapacity;
+		tail = 0;
+	}
+
+	/**
+	 * Size the buffers for the number of channels in the data set and clear
+	 * the window.
+	 * 
+	 * @param channels
+	 *            the number of channels in the data set.
+	 */
+	private void initBuffers(int channels)
+	{
+		if (dataBuffer == null || this.channels != channels)
+		{
+			capacity = INITIAL_CAPACITY;
+			timestamps = new long[capacity];
+			dataBuffer = new float[capacity * channels];
+			sums = new double[channels];
+		}
+
+		this.channels = channels;
+
+		tail = 0;
+		count = 0;
+		added = 0;
+
+		dataInit = true;
+	}
+}
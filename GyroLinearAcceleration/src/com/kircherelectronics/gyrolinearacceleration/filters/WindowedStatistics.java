@@ -0,0 +1,418 @@
+package com.kircherelectronics.gyrolinearacceleration.filters;
+
+/*
+ * Copyright 2013, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Tracks the mean, variance, RMS, minimum and maximum of each channel over a
+ * window of the most recent frames, as a measure of the quality of a signal.
+ * As a stage it passes the frames through unchanged, so it can be put at any
+ * point of a FilterPipeline to watch the signal there.
+ * 
+ * The mean and the sum of squared differences from the mean are updated with
+ * Welford's method as a frame enters and leaves the window, and recomputed
+ * from the buffer every time it wraps so rounding can not accumulate. The
+ * minimum and maximum are kept with a monotonic deque of ring buffer slots
+ * per channel, whose front is the extreme of the window. Every frame is
+ * pushed onto and popped off each deque once, so a frame costs amortized O(1)
+ * whatever the window size. Nothing is allocated once the first frame has
+ * sized the buffers, and the getters only read the state.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class WindowedStatistics implements FilterStage
+{
+	private int window;
+
+	private boolean dataInit = false;
+
+	private int channels;
+
+	// The number of frames currently held in the window.
+	private int count;
+
+	// The index in the ring buffer where the next frame will be written.
+	private int head;
+
+	// The ring buffers, sample k of channel i is stored at i * window + k.
+	private float[] dataBuffer;
+
+	// The mean of the window and the sum of the squared differences from the
+	// mean of each channel.
+	private double[] means;
+	private double[] m2;
+
+	// The deques of ring buffer slots of channel i start at i * window. The
+	// values of the slots decrease from the front of a max deque and increase
+	// from the front of a min deque.
+	private int[] maxDeque;
+	private int[] minDeque;
+
+	// The index of the front of the deques of each channel and their sizes.
+	private int[] maxFront;
+	private int[] maxSize;
+	private int[] minFront;
+	private int[] minSize;
+
+	/**
+	 * Initialize the state.
+	 * 
+	 * @param window
+	 *            the number of frames the statistics are taken over.
+	 * @throws IllegalArgumentException
+	 *             if the window is smaller than 1.
+	 */
+	public WindowedStatistics(int window)
+	{
+		super();
+
+		setWindowSize(window);
+	}
+
+	/**
+	 * Set the number of frames the statistics are taken over and clear the
+	 * history.
+	 * 
+	 * @param size
+	 *            the window size.
+	 * @throws IllegalArgumentException
+	 *             if the window is smaller than 1.
+	 */
+	public void setWindowSize(int size)
+	{
+		if (size < 1)
+		{
+			throw new IllegalArgumentException("window must be at least 1: "
+					+ size);
+		}
+
+		this.window = size;
+
+		reset();
+	}
+
+	/**
+	 * Add a frame to the window.
+	 * 
+	 * @param data
+	 *            the frame.
+	 */
+	public void add(float[] data)
+	{
+		if (!dataInit || data.length != channels)
+		{
+			initBuffers(data.length);
+		}
+
+		final boolean full = count == window;
+
+		if (!full)
+		{
+			count++;
+		}
+
+		for (int i = 0; i < channels; i++)
+		{
+			final int base = i * window;
+			final double x = data[i];
+
+			// The oldest frame is in the slot the new frame is written to.
+			if (full)
+			{
+				final double y = dataBuffer[base + head];
+
+				if (count == 1)
+				{
+					means[i] = 0;
+					m2[i] = 0;
+				}
+				else
+				{
+					final double delta = y - means[i];
+
+					means[i] -= delta / (count - 1);
+					m2[i] -= delta * (y - means[i]);
+				}
+
+				if (maxDeque[base + maxFront[i]] == head)
+				{
+					maxFront[i] = (maxFront[i] + 1) % window;
+					maxSize[i]--;
+				}
+
+				if (minDeque[base + minFront[i]] == head)
+				{
+					minFront[i] = (minFront[i] + 1) % window;
+					minSize[i]--;
+				}
+			}
+
+			dataBuffer[base + head] = data[i];
+
+			final double delta = x - means[i];
+
+			means[i] += delta / count;
+			m2[i] += delta * (x - means[i]);
+
+			// Drop the slots that can no longer be the extreme of the window,
+			// since the new frame is at least as extreme and leaves later.
+			while (maxSize[i] > 0
+					&& dataBuffer[base + maxDeque[base + back(maxFront[i],
+							maxSize[i])]] <= data[i])
+			{
+				maxSize[i]--;
+			}
+
+			maxDeque[base + back(maxFront[i], maxSize[i] + 1)] = head;
+			maxSize[i]++;
+
+			while (minSize[i] > 0
+					&& dataBuffer[base + minDeque[base + back(minFront[i],
+							minSize[i])]] >= data[i])
+			{
+				minSize[i]--;
+			}
+
+			minDeque[base + back(minFront[i], minSize[i] + 1)] = head;
+			minSize[i]++;
+		}
+
+		head = (head + 1) % window;
+
+		if (head == 0)
+		{
+			updateMoments();
+		}
+	}
+
+	@Override
+	public void filter(float[] data, long timestamp)
+	{
+		add(data);
+	}
+
+	@Override
+	public void reset()
+	{
+		dataInit = false;
+		count = 0;
+	}
+
+	/**
+	 * Get the number of frames in the window.
+	 * 
+	 * @return the number of frames.
+	 */
+	public int getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * Get the mean of a channel over the window.
+	 * 
+	 * @param channel
+	 *            the channel.
+	 * @return the mean, or 0 if the window is empty.
+	 */
+	public float getMean(int channel)
+	{
+		return count == 0 ? 0 : (float) means[channel];
+	}
+
+	/**
+	 * Get the variance of a channel over the window, the mean of the squared
+	 * differences from the mean.
+	 * 
+	 * @param channel
+	 *            the channel.
+	 * @return the variance, or 0 if the window is empty.
+	 */
+	public float getVariance(int channel)
+	{
+		return count == 0 ? 0 : (float) variance(channel);
+	}
+
+	/**
+	 * Get the standard deviation of a channel over the window.
+	 * 
+	 * @param channel
+	 *            the channel.
+	 * @return the standard deviation, or 0 if the window is empty.
+	 */
+	public float getStandardDeviation(int channel)
+	{
+		return count == 0 ? 0 : (float) Math.sqrt(variance(channel));
+	}
+
+	/**
+	 * Get the root mean square of a channel over the window.
+	 * 
+	 * @param channel
+	 *            the channel.
+	 * @return the RMS, or 0 if the window is empty.
+	 */
+	public float getRms(int channel)
+	{
+		if (count == 0)
+		{
+			return 0;
+		}
+
+		// The mean square is the variance plus the square of the mean.
+		return (float) Math.sqrt(variance(channel) + means[channel]
+				* means[channel]);
+	}
+
+	/**
+	 * Get the smallest value of a channel in the window.
+	 * 
+	 * @param channel
+	 *            the channel.
+	 * @return the minimum, or 0 if the window is empty.
+	 */
+	public float getMin(int channel)
+	{
+		if (count == 0)
+		{
+			return 0;
+		}
+
+		final int base = channel * window;
+
+		return dataBuffer[base + minDeque[base + minFront[channel]]];
+	}
+
+	/**
+	 * Get the largest value of a channel in the window.
+	 * 
+	 * @param channel
+	 *            the channel.
+	 * @return the maximum, or 0 if the window is empty.
+	 */
+	public float getMax(int channel)
+	{
+		if (count == 0)
+		{
+			return 0;
+		}
+
+		final int base = channel * window;
+
+		return dataBuffer[base + maxDeque[base + maxFront[channel]]];
+	}
+
+	/**
+	 * Find the variance of a channel, which rounding of the removal of a frame
+	 * can leave slightly below zero.
+	 * 
+	 * @param channel
+	 *            the channel.
+	 * @return the variance.
+	 */
+	private double variance(int channel)
+	{
+		return Math.max(0, m2[channel] / count);
+	}
+
+	/**
+	 * Find the index of the last entry of a deque.
+	 * 
+	 * @param front
+	 *            the index of the front of the deque.
+	 * @param size
+	 *            the number of entries of the deque.
+	 * @return the index of the last entry.
+	 */
+	private int back(int front, int size)
+	{
+		return (front + size - 1) % window;
+	}
+
+	/**
+	 * Recompute the mean and the sum of squared differences of each channel
+	 * from the full buffer.
+	 */
+	private void updateMoments()
+	{
+		for (int i = 0; i < channels; i++)
+		{
+			final int base = i * window;
+
+			double sum = 0;
+
+			for (int k = 0; k < count; k++)
+			{
+				sum += dataBuffer[base + k];
+			}
+
+			final double mean = sum / count;
+
+			double squares = 0;
+
+			for (int k = 0; k < count; k++)
+			{
+				final double delta = dataBuffer[base + k] - mean;
+
+				squares += delta * delta;
+			}
+
+			means[i] = mean;
+			m2[i] = squares;
+		}
+	}
+
+	/**
+	 * Size the buffers for the number of channels in the data set.
+	 * 
+	 * @param channels
+	 *            the number of channels in the data set.
+	 */
+	private void initBuffers(int channels)
+	{
+		if (dataBuffer == null || this.channels != channels
+				|| dataBuffer.length != channels * window)
+		{
+			dataBuffer = new float[channels * window];
+			maxDeque = new int[channels * window];
+			minDeque = new int[channels * window];
+			means = new double[channels];
+			m2 = new double[channels];
+			maxFront = new int[channels];
+			maxSize = new int[channels];
+			minFront = new int[channels];
+			minSize = new int[channels];
+		}
+
+		this.channels = channels;
+
+		count = 0;
+		head = 0;
+
+		for (int i = 0; i < channels; i++)
+		{
+			means[i] = 0;
+			m2[i] = 0;
+			maxFront[i] = 0;
+			maxSize[i] = 0;
+			minFront[i] = 0;
+			minSize[i] = 0;
+		}
+
+		dataInit = true;
+	}
+}
@@ -0,0 +1,255 @@
+package com.kircherelectronics.gyrolinearacceleration.fusion;
+
+import java.util.Random;
+
+/*
+ * Copyright (C) 2013, Kaleb Kircher - Boki Software, Kircher Engineering, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Compares FusionEngine.process() with feeding the same samples one at a time
+ * through onAcceleration(), onGyroscope() and getLinearAcceleration(), for
+ * each integration mode. Reports the cost per sample of both paths and
+ * whether their output is bit-identical.
+ * 
+ * Run from the command line with the optional argument [samples] to print one
+ * CSV row per integration mode.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class BatchBenchmark
+{
+	// 200 Hz in nanoseconds.
+	private static final long SAMPLE_PERIOD = 5000000;
+
+	// The number of times each path is run, the fastest run is kept.
+	private static final int RUNS = 9;
+
+	private static final String[] NAMES =
+	{ "cardan", "matrix", "quaternion" };
+
+	private static final float[] GRAVITY =
+	{ 1.0f, 2.0f, 9.5f };
+
+	private static final float[] MAGNETIC =
+	{ 0, 22.0f, -40.0f };
+
+	private long[] timestamps;
+
+	private float[] ax;
+	private float[] ay;
+	private float[] az;
+	private float[] gx;
+	private float[] gy;
+	private float[] gz;
+
+	// The linear acceleration of the batch and the event path.
+	private float[] bx;
+	private float[] by;
+	private float[] bz;
+	private float[] ex;
+	private float[] ey;
+	private float[] ez;
+
+	/**
+	 * Generate the samples.
+	 * 
+	 * @param samples
+	 *            the number of samples.
+	 */
+	public BatchBenchmark(int samples)
+	{
+		super();
+
+		generate(samples);
+	}
+
+	public static void main(String[] args)
+	{
+		int samples = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		BatchBenchmark benchmark = new BatchBenchmark(samples);
+
+		System.out
+				.println("mode,batch ns/sample,event ns/sample,speedup,bit-identical");
+
+		for (int i = 0; i < NAMES.length; i++)
+		{
+			long bestBatch = Long.MAX_VALUE;
+			long bestEvent = Long.MAX_VALUE;
+
+			for (int r = 0; r < RUNS; r++)
+			{
+				bestBatch = Math.min(bestBatch,
+						benchmark.runBatch(createEngine(i)));
+				bestEvent = Math.min(bestEvent,
+						benchmark.runEvents(createEngine(i)));
+			}
+
+			System.out.println(NAMES[i] + ","
+					+ Math.round((double) bestBatch / samples) + ","
+					+ Math.round((double) bestEvent / samples) + ","
+					+ (float) bestEvent / bestBatch + ","
+					+ benchmark.identical());
+		}
+	}
+
+	/**
+	 * Create an engine in one of the integration modes.
+	 * 
+	 * @param mode
+	 *            the index of the mode in NAMES.
+	 * @return the engine, with its initial orientation.
+	 */
+	private static FusionEngine createEngine(int mode)
+	{
+		FusionEngine engine = new FusionEngine();
+
+		switch (mode)
+		{
+		case 1:
+			engine.setGravityFromRotationMatrix(true);
+			break;
+		case 2:
+			engine.setQuaternionIntegration(true);
+			break;
+		}
+
+		engine.setInitialOrientation(GRAVITY, MAGNETIC);
+
+		return engine;
+	}
+
+	/**
+	 * Run the samples through process().
+	 * 
+	 * @param engine
+	 *            the engine.
+	 * @return the time it took in nanoseconds.
+	 */
+	private long runBatch(FusionEngine engine)
+	{
+		final long start = System.nanoTime();
+
+		engine.process(timestamps, ax, ay, az, gx, gy, gz, bx, by, bz, 0,
+				timestamps.length);
+
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Run the samples through the event path one at a time.
+	 * 
+	 * @param engine
+	 *            the engine.
+	 * @return the time it took in nanoseconds.
+	 */
+	private long runEvents(FusionEngine engine)
+	{
+		final int n = timestamps.length;
+
+		float[] acceleration = new float[3];
+		float[] gyroscope = new float[3];
+		float[] linearAcceleration = new float[3];
+
+		final long start = System.nanoTime();
+
+		for (int i = 0; i < n; i++)
+		{
+			acceleration[0] = ax[i];
+			acceleration[1] = ay[i];
+			acceleration[2] = az[i];
+
+			gyroscope[0] = gx[i];
+			gyroscope[1] = gy[i];
+			gyroscope[2] = gz[i];
+
+			engine.onAcceleration(acceleration, timestamps[i]);
+			engine.onGyroscope(gyroscope, timestamps[i]);
+			engine.getLinearAcceleration(linearAcceleration);
+
+			ex[i] = linearAcceleration[0];
+			ey[i] = linearAcceleration[1];
+			ez[i] = linearAcceleration[2];
+		}
+
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Compare the output of both paths bit for bit.
+	 * 
+	 * @return true if every value has the same bits.
+	 */
+	private boolean identical()
+	{
+		for (int i = 0; i < timestamps.length; i++)
+		{
+			if (Float.floatToRawIntBits(bx[i]) != Float.floatToRawIntBits(ex[i])
+					|| Float.floatToRawIntBits(by[i]) != Float
+							.floatToRawIntBits(ey[i])
+					|| Float.floatToRawIntBits(bz[i]) != Float
+							.floatToRawIntBits(ez[i]))
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Generate the samples: gravity with noise for the acceleration and a
+	 * random rotation for the gyroscope.
+	 * 
+	 * @param n
+	 *            the number of samples.
+	 */
+	private void generate(int n)
+	{
+		timestamps = new long[n];
+
+		ax = new float[n];
+		ay = new float[n];
+		az = new float[n];
+		gx = new float[n];
+		gy = new float[n];
+		gz = new float[n];
+
+		bx = new float[n];
+		by = new float[n];
+		bz = new float[n];
+		ex = new float[n];
+		ey = new float[n];
+		ez = new float[n];
+
+		Random random = new Random(42);
+
+		for (int i = 0; i < n; i++)
+		{
+			timestamps[i] = (i + 1) * SAMPLE_PERIOD;
+
+			ax[i] = (float) (GRAVITY[0] + 0.5 * random.nextGaussian());
+			ay[i] = (float) (GRAVITY[1] + 0.5 * random.nextGaussian());
+			az[i] = (float) (GRAVITY[2] + 0.5 * random.nextGaussian());
+
+			gx[i] = (float) (0.3 * random.nextGaussian());
+			gy[i] = (float) (0.3 * random.nextGaussian());
+			gz[i] = (float) (0.3 * random.nextGaussian());
+		}
+	}
+}
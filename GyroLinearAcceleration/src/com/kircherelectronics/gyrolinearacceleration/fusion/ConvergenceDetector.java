@@ -0,0 +1,146 @@
+package com.kircherelectronics.gyrolinearacceleration.fusion;
+
+/*
+ * Copyright (C) 2013, Kaleb Kircher - Boki Software, Kircher Engineering, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Tracks the variance of a vector over the most recent samples to decide when
+ * a smoothed signal has settled. The variance is the sum of the variances of
+ * the three axes, kept with running sums over a primitive ring buffer so
+ * adding a sample is O(1) and does not allocate.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class ConvergenceDetector
+{
+	private final int window;
+
+	// The samples in the window, sample k is stored at 3 * k.
+	private final float[] history;
+
+	private int head = 0;
+	private int count = 0;
+
+	// The running sums of each axis and of the squares of all of the axes.
+	private double sumX;
+	private double sumY;
+	private double sumZ;
+	private double sumSq;
+
+	/**
+	 * Initialize the state.
+	 * 
+	 * @param window
+	 *            the number of samples the variance is found over.
+	 */
+	public ConvergenceDetector(int window)
+	{
+		super();
+
+		this.window = window;
+
+		history = new float[3 * window];
+	}
+
+	/**
+	 * Add a sample, replacing the oldest sample once the window is full.
+	 * 
+	 * @param values
+	 *            the sample (x, y, z).
+	 */
+	public void add(float[] values)
+	{
+		final int i = 3 * head;
+
+		if (count == window)
+		{
+			final float x = history[i];
+			final float y = history[i + 1];
+			final float z = history[i + 2];
+
+			sumX -= x;
+			sumY -= y;
+			sumZ -= z;
+			sumSq -= (double) x * x + (double) y * y + (double) z * z;
+		}
+		else
+		{
+			count++;
+		}
+
+		final float x = values[0];
+		final float y = values[1];
+		final float z = values[2];
+
+		history[i] = x;
+		history[i + 1] = y;
+		history[i + 2] = z;
+
+		sumX += x;
+		sumY += y;
+		sumZ += z;
+		sumSq += (double) x * x + (double) y * y + (double) z * z;
+
+		head = (head + 1) % window;
+	}
+
+	/**
+	 * Get the variance of the samples in the window, summed over the axes.
+	 * 
+	 * @return the variance.
+	 */
+	public float getVariance()
+	{
+		if (count == 0)
+		{
+			return 0;
+		}
+
+		final double meanSq = (sumX * sumX + sumY * sumY + sumZ * sumZ)
+				/ count;
+
+		// The running sums can round slightly below zero.
+		return (float) Math.max(0, (sumSq - meanSq) / count);
+	}
+
+	/**
+	 * Indicate if the window is full and the variance is below a threshold.
+	 * 
+	 * @param threshold
+	 *            the largest variance of a settled signal.
+	 * @return true if the signal has settled.
+	 */
+	public boolean isConverged(float threshold)
+	{
+		return count == window && getVariance() < threshold;
+	}
+
+	/**
+	 * Clear the window.
+	 */
+	public void reset()
+	{
+		head = 0;
+		count = 0;
+
+		sumX = 0;
+		sumY = 0;
+		sumZ = 0;
+		sumSq = 0;
+	}
+}
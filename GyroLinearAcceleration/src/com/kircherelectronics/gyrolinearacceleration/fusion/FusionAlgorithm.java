@@ -0,0 +1,75 @@
+package com.kircherelectronics.gyrolinearacceleration.fusion;
+
+/*
+ * Copyright (C) 2013, Kaleb Kircher - Boki Software, Kircher Engineering, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * An orientation filter used by the FusionEngine. Implementations track the
+ * orientation of the device from the gyroscope, and optionally the
+ * accelerometer, and provide the gravity components of the acceleration
+ * signal in the device frame. Implementations must not allocate in update()
+ * since it is called for every gyroscope sample.
+ * 
+ * Rotation matrices follow the convention of SensorManager.getRotationMatrix(),
+ * they transform a vector from the device frame to the world frame.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public interface FusionAlgorithm
+{
+	/**
+	 * Set the orientation of the device and clear any other state.
+	 * 
+	 * @param rotationMatrix
+	 *            the 3x3 rotation matrix of the orientation.
+	 */
+	public void setRotationMatrix(float[] rotationMatrix);
+
+	/**
+	 * Get the current orientation of the device.
+	 * 
+	 * @param rotationMatrix
+	 *            the array the 3x3 rotation matrix will be written to.
+	 */
+	public void getRotationMatrix(float[] rotationMatrix);
+
+	/**
+	 * Update the orientation with a gyroscope sample and the acceleration
+	 * sample taken at the same time, and find the gravity components.
+	 * 
+	 * @param wx
+	 *            the x-axis angular velocity in rad/s.
+	 * @param wy
+	 *            the y-axis angular velocity in rad/s.
+	 * @param wz
+	 *            the z-axis angular velocity in rad/s.
+	 * @param ax
+	 *            the x-axis acceleration in m/s^2.
+	 * @param ay
+	 *            the y-axis acceleration in m/s^2.
+	 * @param az
+	 *            the z-axis acceleration in m/s^2.
+	 * @param dT
+	 *            the time step in seconds.
+	 * @param gravity
+	 *            the array the gravity components (x, y, z) in m/s^2 will be
+	 *            written to.
+	 */
+	public void update(float wx, float wy, float wz, float ax, float ay,
+			float az, float dT, float[] gravity);
+}
@@ -0,0 +1,36 @@
+package com.kircherelectronics.gyrolinearacceleration.fusion;
+
+/*
+ * Copyright (C) 2013, Kaleb Kircher - Boki Software, Kircher Engineering, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Creates the FusionAlgorithm of each session of a FusionServer. Algorithms
+ * keep the orientation of one device, so every session needs its own.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public interface FusionAlgorithmFactory
+{
+	/**
+	 * Create a new algorithm for a session. Called on the worker thread that
+	 * owns the session.
+	 * 
+	 * @return the algorithm, which must not be shared with other sessions.
+	 */
+	public FusionAlgorithm createFusionAlgorithm();
+}
@@ -0,0 +1,241 @@
+package com.kircherelectronics.gyrolinearacceleration.fusion;
+
+import java.lang.reflect.Method;
+import java.util.Random;
+
+/*
+ * Copyright (C) 2013, Kaleb Kircher - Boki Software, Kircher Engineering, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Checks that the gyroscope integration path of the FusionEngine does not
+ * allocate once it is warmed up. Synthetic acceleration and gyroscope samples
+ * are fed through onAcceleration(), onGyroscope() and getLinearAcceleration()
+ * for each integration mode and algorithm, first to warm up and then while
+ * the bytes allocated by the thread are counted.
+ * 
+ * The count comes from com.sun.management.ThreadMXBean, which is looked up by
+ * reflection so the class also builds against the Android platform. Run from
+ * the command line with the optional argument [samples] to print one CSV row
+ * per mode. The exit status is 1 if any mode allocated.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class FusionAllocationCheck
+{
+	// 200 Hz in nanoseconds.
+	private static final long SAMPLE_PERIOD = 5000000;
+
+	// The number of samples generated, reused in turn.
+	private static final int PATTERNS = 1024;
+
+	private static final String[] NAMES =
+	{ "cardan", "matrix", "quaternion", "madgwick", "mahony", "kalman",
+			"rest gating" };
+
+	private static final float[] GRAVITY =
+	{ 1.0f, 2.0f, 9.5f };
+
+	private static final float[] MAGNETIC =
+	{ 0, 22.0f, -40.0f };
+
+	private final Object threadBean;
+	private final Method allocatedBytes;
+	private final Object[] threadId;
+
+	private float[][] accelerations;
+	private float[][] gyroscopes;
+
+	/**
+	 * Look up the allocation counter and generate the samples.
+	 * 
+	 * @throws Exception
+	 *             if the platform does not count allocated bytes per thread.
+	 */
+	public FusionAllocationCheck() throws Exception
+	{
+		super();
+
+		threadBean = Class.forName("java.lang.management.ManagementFactory")
+				.getMethod("getThreadMXBean").invoke(null);
+		allocatedBytes = Class.forName("com.sun.management.ThreadMXBean")
+				.getMethod("getThreadAllocatedBytes", long.class);
+		threadId = new Object[]
+		{ Long.valueOf(Thread.currentThread().getId()) };
+
+		generate();
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		int samples = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		FusionAllocationCheck check = new FusionAllocationCheck();
+
+		boolean allocated = false;
+
+		System.out.println("mode,bytes allocated");
+
+		for (int i = 0; i < NAMES.length; i++)
+		{
+			long bytes = check.run(createEngine(i), samples);
+
+			allocated |= bytes > 0;
+
+			System.out.println(NAMES[i] + "," + bytes);
+		}
+
+		if (allocated)
+		{
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Create an engine in one of the modes.
+	 * 
+	 * @param mode
+	 *            the index of the mode in NAMES.
+	 * @return the engine.
+	 */
+	private static FusionEngine createEngine(int mode)
+	{
+		FusionEngine engine = new FusionEngine();
+
+		engine.setBiasEstimation(true);
+
+		switch (mode)
+		{
+		case 1:
+			engine.setGravityFromRotationMatrix(true);
+			break;
+		case 2:
+			engine.setQuaternionIntegration(true);
+			break;
+		case 3:
+			engine.setFusionAlgorithm(new MadgwickFilter());
+			break;
+		case 4:
+			engine.setFusionAlgorithm(new MahonyFilter());
+			break;
+		case 5:
+			engine.setFusionAlgorithm(new KalmanFilter());
+			break;
+		case 6:
+			engine.setRestGating(true);
+			engine.setProfiling(true);
+			break;
+		}
+
+		engine.setInitialOrientation(GRAVITY, MAGNETIC);
+
+		return engine;
+	}
+
+	/**
+	 * Warm up an engine and count the bytes it allocates for the samples.
+	 * 
+	 * @param engine
+	 *            the engine, with its initial orientation.
+	 * @param samples
+	 *            the number of samples to count the allocations of.
+	 * @return the bytes allocated, less the cost of reading the counter.
+	 * @throws Exception
+	 *             if the counter could not be read.
+	 */
+	private long run(FusionEngine engine, int samples) throws Exception
+	{
+		float[] linearAcceleration = new float[3];
+
+		// Let the compiler settle on the hot path first.
+		feed(engine, linearAcceleration, 0, samples);
+
+		long overhead = getAllocatedBytes();
+		long start = getAllocatedBytes();
+
+		overhead = start - overhead;
+
+		feed(engine, linearAcceleration, samples, samples);
+
+		return getAllocatedBytes() - start - overhead;
+	}
+
+	/**
+	 * Feed samples through the event path of an engine.
+	 * 
+	 * @param engine
+	 *            the engine.
+	 * @param linearAcceleration
+	 *            the array the linear acceleration is read into.
+	 * @param first
+	 *            the index of the first sample.
+	 * @param samples
+	 *            the number of samples.
+	 */
+	private void feed(FusionEngine engine, float[] linearAcceleration,
+			int first, int samples)
+	{
+		final int end = first + samples;
+
+		for (int i = first; i < end; i++)
+		{
+			final long timestamp = (i + 1) * SAMPLE_PERIOD;
+
+			engine.onAcceleration(accelerations[i % PATTERNS], timestamp);
+			engine.onGyroscope(gyroscopes[i % PATTERNS], timestamp);
+			engine.getLinearAcceleration(linearAcceleration);
+		}
+	}
+
+	/**
+	 * Read the bytes allocated by this thread so far.
+	 * 
+	 * @return the bytes allocated.
+	 * @throws Exception
+	 *             if the counter could not be read.
+	 */
+	private long getAllocatedBytes() throws Exception
+	{
+		return ((Long) allocatedBytes.invoke(threadBean, threadId))
+				.longValue();
+	}
+
+	/**
+	 * Generate the samples: gravity with noise for the acceleration and a
+	 * random rotation for the gyroscope, with stretches where the device is
+	 * still so rest detection and bias estimation run as well.
+	 */
+	private void generate()
+	{
+		accelerations = new float[PATTERNS][3];
+		gyroscopes = new float[PATTERNS][3];
+
+		Random random = new Random(42);
+
+		for (int i = 0; i < PATTERNS; i++)
+		{
+			final double motion = (i / 256) % 2 == 0 ? 0.3 : 0.001;
+
+			for (int j = 0; j < 3; j++)
+			{
+				accelerations[i][j] = (float) (GRAVITY[j] + motion
+						* random.nextGaussian());
+				gyroscopes[i][j] = (float) (motion * random.nextGaussian());
+			}
+		}
+	}
+}
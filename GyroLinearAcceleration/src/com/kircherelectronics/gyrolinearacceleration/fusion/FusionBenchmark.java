@@ -0,0 +1,305 @@
+package com.kircherelectronics.gyrolinearacceleration.fusion;
+
+import java.util.Random;
+
+import com.kircherelectronics.gyrolinearacceleration.filters.MeanFilter;
+
+/*
+ * Copyright (C) 2013, Kaleb Kircher - Boki Software, Kircher Engineering, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Compares the fusion algorithms on the same synthetic recording of a handheld
+ * device. The recording is generated from a known orientation and linear
+ * acceleration, the gyroscope has a constant bias and every sensor has white
+ * noise. Each algorithm is run through FusionEngine.process() and reports its
+ * cost per sample and the RMS error of its linear acceleration against the
+ * known linear acceleration, smoothed by the same mean filter as the engine.
+ * Every algorithm is run untimed for WARM_UP_SAMPLES samples first.
+ * 
+ * Run from the command line with the optional argument [seconds] of sensor
+ * time to print one CSV row per algorithm.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class FusionBenchmark
+{
+	// 200 Hz in nanoseconds.
+	private static final long SAMPLE_PERIOD = 5000000;
+
+	// The number of steps the true orientation is integrated with per sample.
+	private static final int SUB_STEPS = 10;
+
+	// The number of times each algorithm is run, the fastest run is kept.
+	private static final int RUNS = 5;
+
+	// The number of samples each algorithm is run for before it is timed, so
+	// short recordings are not timed before the compiler has settled.
+	private static final int WARM_UP_SAMPLES = 500000;
+
+	private static final String[] NAMES =
+	{ "cardan", "matrix", "quaternion", "madgwick", "mahony", "kalman" };
+
+	private long[] timestamps;
+
+	private float[] ax;
+	private float[] ay;
+	private float[] az;
+	private float[] gx;
+	private float[] gy;
+	private float[] gz;
+
+	// The true linear acceleration, smoothed by the mean filter.
+	private float[] tx;
+	private float[] ty;
+	private float[] tz;
+
+	private float[] gravity;
+	private float[] magnetic;
+
+	/**
+	 * Generate a recording.
+	 * 
+	 * @param samples
+	 *            the number of samples.
+	 */
+	public FusionBenchmark(int samples)
+	{
+		super();
+
+		generate(samples);
+	}
+
+	public static void main(String[] args)
+	{
+		long seconds = args.length > 0 ? Long.parseLong(args[0]) : 60;
+
+		FusionBenchmark benchmark = new FusionBenchmark(
+				(int) (seconds * 1000000000L / SAMPLE_PERIOD));
+
+		System.out.println("algorithm,ns/sample,rms error m/s^2");
+
+		for (int i = 0; i < NAMES.length; i++)
+		{
+			double[] result = benchmark.run(createEngine(i));
+
+			System.out.println(NAMES[i] + "," + Math.round(result[0]) + ","
+					+ (float) result[1]);
+		}
+	}
+
+	/**
+	 * Create an engine that uses one of the algorithms.
+	 * 
+	 * @param algorithm
+	 *            the index of the algorithm in NAMES.
+	 * @return the engine.
+	 */
+	private static FusionEngine createEngine(int algorithm)
+	{
+		FusionEngine engine = new FusionEngine();
+
+		switch (algorithm)
+		{
+		case 1:
+			engine.setGravityFromRotationMatrix(true);
+			break;
+		case 2:
+			engine.setQuaternionIntegration(true);
+			break;
+		case 3:
+			engine.setFusionAlgorithm(new MadgwickFilter());
+			break;
+		case 4:
+			engine.setFusionAlgorithm(new MahonyFilter());
+			break;
+		case 5:
+			engine.setFusionAlgorithm(new KalmanFilter());
+			break;
+		}
+
+		return engine;
+	}
+
+	/**
+	 * Run the recording through an engine.
+	 * 
+	 * @param engine
+	 *            the engine, with its algorithm selected.
+	 * @return the fastest cost per sample in nanoseconds and the RMS error of
+	 *         the linear acceleration in m/s^2.
+	 */
+	public double[] run(FusionEngine engine)
+	{
+		final int n = timestamps.length;
+
+		float[] lx = new float[n];
+		float[] ly = new float[n];
+		float[] lz = new float[n];
+
+		for (int i = 0; i < WARM_UP_SAMPLES; i += n)
+		{
+			engine.setInitialOrientation(gravity, magnetic);
+			engine.process(timestamps, ax, ay, az, gx, gy, gz, lx, ly, lz, 0,
+					n);
+		}
+
+		long best = Long.MAX_VALUE;
+
+		for (int r = 0; r < RUNS; r++)
+		{
+			engine.setInitialOrientation(gravity, magnetic);
+
+			long start = System.nanoTime();
+
+			engine.process(timestamps, ax, ay, az, gx, gy, gz, lx, ly, lz, 0,
+					n);
+
+			best = Math.min(best, System.nanoTime() - start);
+		}
+
+		double sum = 0;
+
+		// The engine does not output anything for the first sample.
+		for (int i = 1; i < n; i++)
+		{
+			double ex = lx[i] - tx[i];
+			double ey = ly[i] - ty[i];
+			double ez = lz[i] - tz[i];
+
+			sum += ex * ex + ey * ey + ez * ez;
+		}
+
+		return new double[]
+		{ (double) best / n, Math.sqrt(sum / (n - 1)) };
+	}
+
+	/**
+	 * Generate the recording. The true orientation is a unit quaternion (x, y,
+	 * z, w) in double precision, integrated in small steps from the
+	 * orientation the engine determines from the initial gravity and magnetic
+	 * samples.
+	 * 
+	 * @param n
+	 *            the number of samples.
+	 */
+	private void generate(int n)
+	{
+		timestamps = new long[n];
+
+		ax = new float[n];
+		ay = new float[n];
+		az = new float[n];
+		gx = new float[n];
+		gy = new float[n];
+		gz = new float[n];
+
+		tx = new float[n];
+		ty = new float[n];
+		tz = new float[n];
+
+		gravity = new float[]
+		{ 1.0f, 2.0f, 9.5f };
+
+		magnetic = new float[]
+		{ 0, 22.0f, -40.0f };
+
+		float[] r = new float[9];
+		float[] q0 = new float[4];
+
+		SensorMath.getRotationMatrix(r, null, gravity, magnetic);
+		SensorMath.matrixToQuaternion(r, q0);
+
+		double x = q0[0];
+		double y = q0[1];
+		double z = q0[2];
+		double w = q0[3];
+
+		Random random = new Random(42);
+
+		MeanFilter filter = new MeanFilter();
+		filter.setWindowSize(FusionEngine.MEAN_FILTER_WINDOW);
+
+		float[] linear = new float[3];
+
+		final double dT = SAMPLE_PERIOD / 1000000000.0;
+		final double h = dT / SUB_STEPS;
+
+		for (int i = 0; i < n; i++)
+		{
+			double t = i * dT;
+
+			// A slow handheld rotation.
+			double wx = 0.6 * Math.sin(0.5 * t);
+			double wy = 0.4 * Math.sin(0.31 * t + 1.0);
+			double wz = 0.3 * Math.cos(0.23 * t);
+
+			// The engine only starts to integrate from the second sample.
+			for (int k = 0; i > 0 && k < SUB_STEPS; k++)
+			{
+				// q = q * dq, with the exact delta rotation.
+				double omega = Math.sqrt(wx * wx + wy * wy + wz * wz);
+				double s = omega > 0 ? Math.sin(omega * h / 2) / omega : 0;
+				double c = Math.cos(omega * h / 2);
+
+				double dx = s * wx;
+				double dy = s * wy;
+				double dz = s * wz;
+
+				double nx = w * dx + x * c + y * dz - z * dy;
+				double ny = w * dy - x * dz + y * c + z * dx;
+				double nz = w * dz + x * dy - y * dx + z * c;
+				double nw = w * c - x * dx - y * dy - z * dz;
+
+				x = nx;
+				y = ny;
+				z = nz;
+				w = nw;
+			}
+
+			// A small linear acceleration in the device frame.
+			linear[0] = (float) (0.5 * Math.sin(1.3 * t));
+			linear[1] = (float) (0.4 * Math.sin(0.9 * t + 0.5));
+			linear[2] = (float) (0.3 * Math.sin(1.7 * t));
+
+			double g = SensorMath.GRAVITY_EARTH;
+
+			timestamps[i] = (i + 1) * SAMPLE_PERIOD;
+
+			ax[i] = (float) (linear[0] + g * 2 * (x * z - w * y) + 0.05 * random
+					.nextGaussian());
+			ay[i] = (float) (linear[1] + g * 2 * (y * z + w * x) + 0.05 * random
+					.nextGaussian());
+			az[i] = (float) (linear[2] + g * (1 - 2 * (x * x + y * y)) + 0.05 * random
+					.nextGaussian());
+
+			// The gyroscope has a constant bias.
+			gx[i] = (float) (wx + 0.01 + 0.005 * random.nextGaussian());
+			gy[i] = (float) (wy - 0.008 + 0.005 * random.nextGaussian());
+			gz[i] = (float) (wz + 0.005 + 0.005 * random.nextGaussian());
+
+			if (i > 0)
+			{
+				filter.filterFloat(linear, linear);
+			}
+
+			tx[i] = linear[0];
+			ty[i] = linear[1];
+			tz[i] = linear[2];
+		}
+	}
+}
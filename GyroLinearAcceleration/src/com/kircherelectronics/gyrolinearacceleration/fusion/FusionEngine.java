@@ -0,0 +1,1107 @@
+package com.kircherelectronics.gyrolinearacceleration.fusion;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.kircherelectronics.gyrolinearacceleration.filters.FilterStage;
+import com.kircherelectronics.gyrolinearacceleration.filters.MeanFilter;
+
+/*
+ * Copyright (C) 2013, Kaleb Kircher - Boki Software, Kircher Engineering, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The platform independent core of the acceleration and gyroscope sensor
+ * fusion. The engine is fed acceleration, gravity, magnetic and gyroscope
+ * samples with their time stamps (nanoseconds) and determines the linear
+ * acceleration of the device by subtracting the gravity components found by a
+ * FusionAlgorithm, by default the original Cardan angle integration. The
+ * engine has no dependencies on the Android framework so it can be run on any
+ * JVM.
+ * 
+ * The gravity and magnetic samples are only needed until the initial
+ * orientation has been determined, after that the engine only requires the
+ * acceleration and gyroscope samples. The fused state can be written to a
+ * checkpoint so a later run can warm start from it instead of waiting for
+ * the mean filters to settle. The gravity, magnetic and linear acceleration
+ * streams are smoothed by mean filters by default, each can be replaced by
+ * any FilterStage, such as a FilterPipeline.
+ * 
+ * With bias estimation, which is off unless enabled with
+ * setBiasEstimation(true) as the LinearAccelerationSensor does, the engine
+ * estimates the bias of the gyroscope while the device is lying still and
+ * subtracts it from every gyroscope sample before it is integrated, so the
+ * orientation does not drift while the device is at rest.
+ * With rest gating the engine also stops integrating while the device is at
+ * rest and holds its last output.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class FusionEngine
+{
+	public static final float EPSILON = 0.000000001f;
+
+	private static final float NS2S = 1.0f / 1000000000.0f;
+	static final int MEAN_FILTER_WINDOW = 10;
+	private static final int MIN_SAMPLE_COUNT = 30;
+
+	// The default variances, summed over the axes, of the filtered gravity
+	// (m/s^2)^2 and magnetic (uT^2) vectors below which they have settled.
+	private static final float GRAVITY_VARIANCE_THRESHOLD = 0.01f;
+	private static final float MAGNETIC_VARIANCE_THRESHOLD = 0.5f;
+
+	// Identifies a checkpoint written by writeCheckpoint(), "FUSE".
+	private static final int CHECKPOINT_MAGIC = 0x46555345;
+	private static final int CHECKPOINT_VERSION = 2;
+
+	// The number of gravity samples a checkpoint is checked against before
+	// the engine warm starts from it.
+	private static final int WARM_START_SAMPLE_COUNT = 5;
+
+	// The cosine of the largest angle (5 degrees) allowed between the
+	// measured gravity and the gravity of a checkpoint.
+	private static final float WARM_START_MIN_COS = 0.9962f;
+
+	// The number of samples the stationary detector looks at, 1 s at the
+	// fastest sensor delay. Shorter windows mistake the slow parts of a
+	// handheld rotation for rest.
+	private static final int STATIONARY_WINDOW = 200;
+
+	// The weight of each stationary gyroscope sample in the bias estimate.
+	private static final float BIAS_GAIN = 0.005f;
+
+	// The nanoseconds in an hour and the milliseconds in a nanosecond.
+	private static final double NS_PER_HOUR = 3600.0 * 1000000000.0;
+	private static final double NS2MS = 1.0 / 1000000.0;
+
+	private boolean hasInitialOrientation = false;
+	private boolean stateInitialized = false;
+
+	// A checkpoint has been read and is waiting to be checked against the
+	// first gravity samples.
+	private boolean warmStart = false;
+	private long checkpointTimestamp = 0;
+
+	private long timestampOld = 0;
+
+	// The built in algorithms selected by setQuaternionIntegration().
+	private RotationMatrixIntegration rotationMatrixIntegration =
+			new RotationMatrixIntegration();
+	private QuaternionIntegration quaternionIntegration =
+			new QuaternionIntegration();
+
+	// The algorithm that tracks the orientation of the device.
+	private FusionAlgorithm algorithm = rotationMatrixIntegration;
+
+	// Scratch space for the rotation matrix of the algorithm.
+	private float[] tempRotationMatrix = new float[9];
+
+	// The gravity components of the acceleration signal.
+	private float[] components = new float[3];
+
+	private float[] linearAcceleration = new float[]
+	{ 0, 0, 0 };
+
+	// Raw accelerometer data
+	private float[] acceleration = new float[]
+	{ 0, 0, 0 };
+
+	private float[] gravity = new float[]
+	{ 0, 0, 0 };
+
+	// Raw magnetic data
+	private float[] magnetic = new float[]
+	{ 0, 0, 0 };
+
+	private int gravitySampleCount = 0;
+	private int magneticSampleCount = 0;
+
+	// Determine the initial orientation as soon as the filtered gravity and
+	// magnetic vectors have settled instead of after MIN_SAMPLE_COUNT samples.
+	private boolean adaptiveConvergence = false;
+	private float gravityVarianceThreshold = GRAVITY_VARIANCE_THRESHOLD;
+	private float magneticVarianceThreshold = MAGNETIC_VARIANCE_THRESHOLD;
+
+	private ConvergenceDetector gravityConvergence;
+	private ConvergenceDetector magneticConvergence;
+
+	// The time stamp of the first gravity or magnetic sample and the time it
+	// took to determine the initial orientation from them.
+	private long timestampFirst = 0;
+	private long timeToLock = -1;
+
+	// Estimate the gyroscope bias while the device is at rest and subtract it
+	// from the gyroscope samples.
+	private boolean biasEstimation = false;
+	private boolean stationary = false;
+
+	private StationaryDetector stationaryDetector;
+
+	// Hold the orientation and the linear acceleration while the device is at
+	// rest instead of running the fusion.
+	private boolean restGating = false;
+
+	// The previous gyroscope sample was held by rest gating.
+	private boolean held = false;
+
+	// Measure the processing time of every sample.
+	private boolean profiling = false;
+
+	// The processing time and the sensor time spent in motion [0] and at
+	// rest [1], in nanoseconds.
+	private long[] processingTime = new long[2];
+	private long[] sensorTime = new long[2];
+
+	// The estimated gyroscope bias in rad/s.
+	private float[] bias = new float[3];
+
+	private MeanFilter mfMagnetic;
+	private MeanFilter mfGravity;
+	private MeanFilter mfLinearAcceleration;
+
+	// The filters of the gravity, magnetic and linear acceleration streams,
+	// the mean filters unless they have been replaced. Only the state of
+	// mfLinearAcceleration is checkpointed.
+	private FilterStage gravityFilter;
+	private FilterStage magneticFilter;
+	private FilterStage linearAccelerationFilter;
+
+	// The rotation matrix R transforming a vector from the device
+	// coordinate system to the world's coordinate system which is
+	// defined as a direct orthonormal basis. R is the identity
+	// matrix when the device is aligned with the world's coordinate
+	// system, that is, when the device's X axis points toward East,
+	// the Y axis points to the North Pole and the device is facing
+	// the sky. NOTE: the reference coordinate-system used by
+	// getOrientation() is different from the world
+	// coordinate-system defined for the rotation matrix R and
+	// getRotationMatrix().
+	private float[] initialRotationMatrix = new float[9];
+
+	/**
+	 * Initialize the state.
+	 */
+	public FusionEngine()
+	{
+		super();
+
+		initFilters();
+		reset();
+	}
+
+	/**
+	 * Provide a new acceleration sample.
+	 * 
+	 * @param acceleration
+	 *            the acceleration (x, y, z) in m/s^2.
+	 * @param timestamp
+	 *            the time stamp of the sample in nanoseconds.
+	 */
+	public void onAcceleration(float[] acceleration, long timestamp)
+	{
+		// Get a local copy of the raw acceleration values.
+		System.arraycopy(acceleration, 0, this.acceleration, 0,
+				acceleration.length);
+	}
+
+	/**
+	 * Provide a new gravity sample. Gravity samples are only used until the
+	 * initial orientation has been determined.
+	 * 
+	 * @param gravity
+	 *            the gravity (x, y, z) in m/s^2.
+	 * @param timestamp
+	 *            the time stamp of the sample in nanoseconds.
+	 */
+	public void onGravity(float[] gravity, long timestamp)
+	{
+		if (hasInitialOrientation)
+		{
+			return;
+		}
+
+		// Get a local copy of the raw gravity values.
+		System.arraycopy(gravity, 0, this.gravity, 0, gravity.length);
+
+		// Smooth the sensor inputs, with a mean filter by default.
+		gravityFilter.filter(this.gravity, timestamp);
+
+		// Count the number of samples received.
+		gravitySampleCount++;
+
+		gravityConvergence.add(this.gravity);
+
+		if (timestampFirst == 0)
+		{
+			timestampFirst = timestamp;
+		}
+
+		if (warmStart)
+		{
+			checkCheckpoint(timestamp);
+		}
+
+		// Only determine the initial orientation after the acceleration sensor
+		// and magnetic sensor have had enough time to be smoothed by the mean
+		// filters, either because both have settled or because the most
+		// samples we are willing to wait for have arrived. Also, only do this
+		// if the orientation hasn't already been determined since we only
+		// need it once.
+		if (!hasInitialOrientation
+				&& ((adaptiveConvergence && isConverged())
+				|| (gravitySampleCount > MIN_SAMPLE_COUNT
+						&& magneticSampleCount > MIN_SAMPLE_COUNT)))
+		{
+			calculateOrientation();
+		}
+
+		if (hasInitialOrientation)
+		{
+			timeToLock = timestamp - timestampFirst;
+		}
+	}
+
+	/**
+	 * Provide a new magnetic sample. Magnetic samples are only used until the
+	 * initial orientation has been determined.
+	 * 
+	 * @param magnetic
+	 *            the magnetic field (x, y, z) in uT.
+	 * @param timestamp
+	 *            the time stamp of the sample in nanoseconds.
+	 */
+	public void onMagnetic(float[] magnetic, long timestamp)
+	{
+		if (hasInitialOrientation)
+		{
+			return;
+		}
+
+		// Get a local copy of the raw magnetic values.
+		System.arraycopy(magnetic, 0, this.magnetic, 0, magnetic.length);
+
+		// Smooth the sensor inputs, with a mean filter by default.
+		magneticFilter.filter(this.magnetic, timestamp);
+
+		// Count the number of samples received.
+		magneticSampleCount++;
+
+		magneticConvergence.add(this.magnetic);
+
+		if (timestampFirst == 0)
+		{
+			timestampFirst = timestamp;
+		}
+	}
+
+	/**
+	 * Provide a new gyroscope sample and integrate it into the orientation of
+	 * the device.
+	 * 
+	 * @param gyroscope
+	 *            the angular velocity (x, y, z) in rad/s.
+	 * @param timestamp
+	 *            the time stamp of the sample in nanoseconds.
+	 * @return true if the linear acceleration has been updated, false if the
+	 *         initial orientation has not been determined yet.
+	 */
+	public boolean onGyroscope(float[] gyroscope, long timestamp)
+	{
+		// don't start until first accelerometer/magnetometer orientation has
+		// been acquired
+		if (!hasInitialOrientation)
+		{
+			return false;
+		}
+
+		initState();
+
+		fuse(gyroscope[0], gyroscope[1], gyroscope[2], acceleration[0],
+				acceleration[1], acceleration[2], timestamp);
+
+		return true;
+	}
+
+	/**
+	 * Fuse a batch of recorded samples in one pass. The samples are laid out
+	 * as a structure of arrays where index i holds a gyroscope sample and the
+	 * acceleration sample taken at the same time. The linear acceleration for
+	 * each sample is written to the same index of the output arrays, which may
+	 * be the acceleration arrays. The result is identical to feeding the
+	 * samples one at a time through onAcceleration() and onGyroscope(), but
+	 * without the per-sample callbacks and array copies.
+	 * 
+	 * The initial orientation must have been determined before the batch is
+	 * processed, either from gravity and magnetic samples or with
+	 * setInitialOrientation().
+	 * 
+	 * @param timestamps
+	 *            the time stamps of the samples in nanoseconds.
+	 * @param ax
+	 *            the x-axis acceleration in m/s^2.
+	 * @param ay
+	 *            the y-axis acceleration in m/s^2.
+	 * @param az
+	 *            the z-axis acceleration in m/s^2.
+	 * @param gx
+	 *            the x-axis angular velocity in rad/s.
+	 * @param gy
+	 *            the y-axis angular velocity in rad/s.
+	 * @param gz
+	 *            the z-axis angular velocity in rad/s.
+	 * @param lx
+	 *            the array the x-axis linear acceleration will be written to.
+	 * @param ly
+	 *            the array the y-axis linear acceleration will be written to.
+	 * @param lz
+	 *            the array the z-axis linear acceleration will be written to.
+	 * @param offset
+	 *            the index of the first sample.
+	 * @param length
+	 *            the number of samples.
+	 * @return the number of samples fused, 0 if the initial orientation has
+	 *         not been determined yet.
+	 */
+	public int process(long[] timestamps, float[] ax, float[] ay,
+			float[] az, float[] gx, float[] gy, float[] gz, float[] lx,
+			float[] ly, float[] lz, int offset, int length)
+	{
+		if (!hasInitialOrientation || length <= 0)
+		{
+			return 0;
+		}
+
+		initState();
+
+		final int end = offset + length;
+
+		for (int i = offset; i < end; i++)
+		{
+			fuse(gx[i], gy[i], gz[i], ax[i], ay[i], az[i], timestamps[i]);
+
+			lx[i] = linearAcceleration[0];
+			ly[i] = linearAcceleration[1];
+			lz[i] = linearAcceleration[2];
+		}
+
+		// Leave the engine in the same state as the event driven path.
+		acceleration[0] = ax[end - 1];
+		acceleration[1] = ay[end - 1];
+		acceleration[2] = az[end - 1];
+
+		return length;
+	}
+
+	/**
+	 * Determine the initial orientation directly from a gravity and magnetic
+	 * sample instead of waiting for the mean filters to settle, for instance
+	 * when the samples come from a recording that has already been smoothed.
+	 * 
+	 * @param gravity
+	 *            the gravity (x, y, z) in m/s^2.
+	 * @param magnetic
+	 *            the magnetic field (x, y, z) in uT.
+	 * @return true if the initial orientation could be determined.
+	 */
+	public boolean setInitialOrientation(float[] gravity, float[] magnetic)
+	{
+		reset();
+
+		System.arraycopy(gravity, 0, this.gravity, 0, gravity.length);
+		System.arraycopy(magnetic, 0, this.magnetic, 0, magnetic.length);
+
+		calculateOrientation();
+
+		return hasInitialOrientation;
+	}
+
+	/**
+	 * Write the fused state to a checkpoint: the current rotation, the time
+	 * stamp of the last gyroscope sample, the gyroscope bias estimate and the
+	 * linear acceleration filter window.
+	 * 
+	 * @param out
+	 *            the output the checkpoint will be written to.
+	 * @throws IOException
+	 *             if the checkpoint could not be written.
+	 * @throws IllegalStateException
+	 *             if the initial orientation has not been determined.
+	 */
+	public void writeCheckpoint(DataOutput out) throws IOException
+	{
+		if (!hasInitialOrientation)
+		{
+			throw new IllegalStateException("No orientation to checkpoint");
+		}
+
+		float[] r = initialRotationMatrix;
+
+		if (stateInitialized)
+		{
+			algorithm.getRotationMatrix(tempRotationMatrix);
+			r = tempRotationMatrix;
+		}
+
+		out.writeInt(CHECKPOINT_MAGIC);
+		out.writeInt(CHECKPOINT_VERSION);
+		out.writeLong(timestampOld);
+
+		for (int i = 0; i < 9; i++)
+		{
+			out.writeFloat(r[i]);
+		}
+
+		for (int i = 0; i < 3; i++)
+		{
+			out.writeFloat(bias[i]);
+		}
+
+		mfLinearAcceleration.writeState(out);
+	}
+
+	/**
+	 * Read a checkpoint written by writeCheckpoint() and warm start from it.
+	 * The engine is reset and the checkpoint is only used once the first few
+	 * gravity samples agree with its orientation, which takes far fewer
+	 * samples than determining the orientation from scratch and needs no
+	 * magnetic samples. If they do not agree, or the clock has restarted since
+	 * the checkpoint was written, the engine falls back to determining the
+	 * orientation from the gravity and magnetic samples.
+	 * 
+	 * Only the gravity direction of the checkpoint is checked. The azimuth may
+	 * be stale if the device was turned while the engine was stopped, which
+	 * does not affect the linear acceleration. The gyroscope bias estimate is
+	 * restored straight away, checkpoints of version 1 have none.
+	 * 
+	 * @param in
+	 *            the input the checkpoint will be read from.
+	 * @throws IOException
+	 *             if the checkpoint could not be read or is not a
+	 *             checkpoint. The engine is left reset.
+	 */
+	public void readCheckpoint(DataInput in) throws IOException
+	{
+		reset();
+
+		try
+		{
+			if (in.readInt() != CHECKPOINT_MAGIC)
+			{
+				throw new IOException("Not a fusion checkpoint");
+			}
+
+			final int version = in.readInt();
+
+			if (version < 1 || version > CHECKPOINT_VERSION)
+			{
+				throw new IOException("Unknown checkpoint version " + version);
+			}
+
+			checkpointTimestamp = in.readLong();
+
+			for (int i = 0; i < 9; i++)
+			{
+				initialRotationMatrix[i] = in.readFloat();
+			}
+
+			for (int i = 0; version > 1 && i < 3; i++)
+			{
+				bias[i] = in.readFloat();
+			}
+
+			mfLinearAcceleration.readState(in);
+		}
+		catch (IOException e)
+		{
+			reset();
+
+			throw e;
+		}
+
+		warmStart = true;
+	}
+
+	/**
+	 * Get the most recent linear acceleration.
+	 * 
+	 * @param linearAcceleration
+	 *            the array the linear acceleration (x, y, z) will be written
+	 *            to.
+	 */
+	public void getLinearAcceleration(float[] linearAcceleration)
+	{
+		System.arraycopy(this.linearAcceleration, 0, linearAcceleration, 0,
+				this.linearAcceleration.length);
+	}
+
+	/**
+	 * Get the current orientation of the device. The Cardan angles are only
+	 * computed when they are asked for, they are not needed by the fusion.
+	 * 
+	 * values[0]: azimuth, rotation around the Z axis.
+	 * values[1]: pitch, rotation around the X axis.
+	 * values[2]: roll, rotation around the Y axis.
+	 * 
+	 * @param orientation
+	 *            the array the orientation (radians) will be written to.
+	 */
+	public void getOrientation(float[] orientation)
+	{
+		if (stateInitialized)
+		{
+			algorithm.getRotationMatrix(tempRotationMatrix);
+			SensorMath.getOrientation(tempRotationMatrix, orientation);
+		}
+		else
+		{
+			SensorMath.getOrientation(initialRotationMatrix, orientation);
+		}
+	}
+
+	/**
+	 * Get the time stamp of the most recent gyroscope sample.
+	 * 
+	 * @return the time stamp in nanoseconds.
+	 */
+	public long getTimestamp()
+	{
+		return timestampOld;
+	}
+
+	/**
+	 * Get the time it took to determine the initial orientation, from the
+	 * first gravity or magnetic sample to the gravity sample that completed
+	 * it. This includes a warm start from a checkpoint.
+	 * 
+	 * @return the time to lock in nanoseconds, or -1 if the initial
+	 *         orientation has not been determined from the samples.
+	 */
+	public long getTimeToLock()
+	{
+		return timeToLock;
+	}
+
+	/**
+	 * Get the estimated gyroscope bias, which is subtracted from the gyroscope
+	 * samples before they are integrated.
+	 * 
+	 * @param bias
+	 *            the array the bias (x, y, z) in rad/s will be written to.
+	 */
+	public void getGyroscopeBias(float[] bias)
+	{
+		System.arraycopy(this.bias, 0, bias, 0, 3);
+	}
+
+	/**
+	 * Indicate if the device was at rest at the most recent gyroscope sample.
+	 * 
+	 * @return true if the device is at rest.
+	 */
+	public boolean isStationary()
+	{
+		return stationary;
+	}
+
+	/**
+	 * Select if the gyroscope bias is estimated. The magnitudes of the
+	 * acceleration and angular velocity are tracked by a StationaryDetector
+	 * and, while the device is at rest, the gyroscope samples are averaged
+	 * into a bias estimate that is subtracted from every gyroscope sample
+	 * before it is integrated. When disabled the bias estimate is kept but no
+	 * longer updated or subtracted. Off by default, so the gyroscope samples
+	 * are integrated as they are.
+	 * 
+	 * The StationaryDetector is only fed while bias estimation or rest gating
+	 * is enabled.
+	 * 
+	 * @param biasEstimation
+	 *            true to estimate and subtract the gyroscope bias.
+	 * @see StationaryDetector
+	 */
+	public void setBiasEstimation(boolean biasEstimation)
+	{
+		this.biasEstimation = biasEstimation;
+	}
+
+	/**
+	 * Select rest gating. While the device is at rest, as decided by the
+	 * StationaryDetector, the orientation is held instead of integrated and
+	 * the last linear acceleration is output again, so each gyroscope sample
+	 * only costs the detector and the bias estimate. The gyroscope may be
+	 * slowed down while the device is at rest, so the first sample that is no
+	 * longer at rest only sets the time base again instead of being
+	 * integrated over the long gap since the previous sample. Full processing
+	 * resumes with the next sample. Off by default.
+	 * 
+	 * @param restGating
+	 *            true to hold the output while the device is at rest.
+	 * @see #isStationary()
+	 */
+	public void setRestGating(boolean restGating)
+	{
+		this.restGating = restGating;
+	}
+
+	/**
+	 * Select if the processing time of every sample is measured. Off by
+	 * default since it takes two reads of the clock per sample.
+	 * 
+	 * @param profiling
+	 *            true to measure the processing time.
+	 * @see #getCpuTimePerHour(boolean)
+	 */
+	public void setProfiling(boolean profiling)
+	{
+		this.profiling = profiling;
+	}
+
+	/**
+	 * Get the processing time of the fusion per hour of sensor time, measured
+	 * while profiling since the last reset.
+	 * 
+	 * @param stationary
+	 *            true for the time spent at rest, false for the time spent in
+	 *            motion.
+	 * @return the processing time in milliseconds per hour, or -1 if no
+	 *         samples have been measured in that state.
+	 */
+	public double getCpuTimePerHour(boolean stationary)
+	{
+		final int i = stationary ? 1 : 0;
+
+		if (sensorTime[i] == 0)
+		{
+			return -1;
+		}
+
+		return processingTime[i] * NS2MS * NS_PER_HOUR / sensorTime[i];
+	}
+
+	/**
+	 * Indicate if the initial orientation has been determined from the gravity
+	 * and magnetic samples.
+	 * 
+	 * @return true if the initial orientation is known.
+	 */
+	public boolean hasInitialOrientation()
+	{
+		return hasInitialOrientation;
+	}
+
+	/**
+	 * Select how the gyroscope measurements are integrated. By default the
+	 * orientation is kept as a rotation matrix and the gravity components are
+	 * found from the Cardan angles of the matrix. With quaternion integration
+	 * the orientation is kept as a unit quaternion that is updated with a
+	 * single quaternion product per sample and the gravity components are
+	 * taken directly from the quaternion, so no Euler angles or
+	 * transcendental functions are evaluated. Both produce the same linear
+	 * acceleration to within 1e-3 m/s^2 over the first 10^4 samples of
+	 * aggressive rotation. Over longer runs the float rounding of the two
+	 * paths accumulates differently, and the rotation matrix, which is never
+	 * re-orthonormalized, drifts further than the quaternion.
+	 * 
+	 * @param quaternionIntegration
+	 *            true to integrate with a unit quaternion.
+	 * @see QuaternionIntegration
+	 * @see RotationMatrixIntegration
+	 */
+	public void setQuaternionIntegration(boolean quaternionIntegration)
+	{
+		setFusionAlgorithm(quaternionIntegration ? this.quaternionIntegration
+				: rotationMatrixIntegration);
+	}
+
+	/**
+	 * Select how the gravity components are found when the gyroscope is
+	 * integrated with a rotation matrix.
+	 * 
+	 * @param gravityFromRotationMatrix
+	 *            true to take the gravity components from the rotation
+	 *            matrix.
+	 * @see RotationMatrixIntegration#setGravityFromRotationMatrix(boolean)
+	 */
+	public void setGravityFromRotationMatrix(boolean gravityFromRotationMatrix)
+	{
+		rotationMatrixIntegration
+				.setGravityFromRotationMatrix(gravityFromRotationMatrix);
+	}
+
+	/**
+	 * Replace the filter of the gravity samples, a mean filter by default. The
+	 * initial orientation is determined from the filtered samples.
+	 * 
+	 * @param filter
+	 *            the filter.
+	 */
+	public void setGravityFilter(FilterStage filter)
+	{
+		filter.reset();
+
+		this.gravityFilter = filter;
+	}
+
+	/**
+	 * Replace the filter of the magnetic samples, a mean filter by default.
+	 * The initial orientation is determined from the filtered samples.
+	 * 
+	 * @param filter
+	 *            the filter.
+	 */
+	public void setMagneticFilter(FilterStage filter)
+	{
+		filter.reset();
+
+		this.magneticFilter = filter;
+	}
+
+	/**
+	 * Replace the filter of the linear acceleration, a mean filter by default.
+	 * Only the state of the default filter is written to a checkpoint, any
+	 * other filter starts empty after a warm start.
+	 * 
+	 * @param filter
+	 *            the filter.
+	 */
+	public void setLinearAccelerationFilter(FilterStage filter)
+	{
+		filter.reset();
+
+		this.linearAccelerationFilter = filter;
+	}
+
+	/**
+	 * Select the algorithm that tracks the orientation of the device. Can be
+	 * changed at any time, the current orientation is carried over to the new
+	 * algorithm.
+	 * 
+	 * @param algorithm
+	 *            the algorithm.
+	 */
+	public void setFusionAlgorithm(FusionAlgorithm algorithm)
+	{
+		// Carry the current orientation over to the new algorithm.
+		if (stateInitialized && algorithm != this.algorithm)
+		{
+			this.algorithm.getRotationMatrix(tempRotationMatrix);
+			algorithm.setRotationMatrix(tempRotationMatrix);
+		}
+
+		this.algorithm = algorithm;
+	}
+
+	/**
+	 * Get the algorithm that tracks the orientation of the device.
+	 * 
+	 * @return the algorithm.
+	 */
+	public FusionAlgorithm getFusionAlgorithm()
+	{
+		return algorithm;
+	}
+
+	/**
+	 * Select when the initial orientation is determined. With adaptive
+	 * convergence the variance of the filtered gravity and magnetic vectors is
+	 * tracked over the last MEAN_FILTER_WINDOW samples and the orientation is
+	 * determined as soon as both are below their thresholds. A device lying
+	 * still locks as soon as the filter windows are full. Either way the
+	 * orientation is determined after at most MIN_SAMPLE_COUNT samples of
+	 * each. Off by default, so the engine waits for MIN_SAMPLE_COUNT samples
+	 * like it always has.
+	 * 
+	 * @param adaptiveConvergence
+	 *            true to determine the orientation once the vectors have
+	 *            settled, false to always wait for MIN_SAMPLE_COUNT samples.
+	 */
+	public void setAdaptiveConvergence(boolean adaptiveConvergence)
+	{
+		this.adaptiveConvergence = adaptiveConvergence;
+	}
+
+	/**
+	 * Set the variances, summed over the axes, below which the filtered
+	 * gravity and magnetic vectors are considered settled.
+	 * 
+	 * @param gravityVariance
+	 *            the gravity variance in (m/s^2)^2.
+	 * @param magneticVariance
+	 *            the magnetic variance in uT^2.
+	 */
+	public void setConvergenceThresholds(float gravityVariance,
+			float magneticVariance)
+	{
+		this.gravityVarianceThreshold = gravityVariance;
+		this.magneticVarianceThreshold = magneticVariance;
+	}
+
+	/**
+	 * Reset the engine to the initial state. The initial orientation will be
+	 * determined again from new gravity and magnetic samples.
+	 */
+	public void reset()
+	{
+		initMaths();
+
+		gravityFilter.reset();
+		magneticFilter.reset();
+		linearAccelerationFilter.reset();
+		mfLinearAcceleration.reset();
+
+		gravitySampleCount = 0;
+		magneticSampleCount = 0;
+
+		gravityConvergence.reset();
+		magneticConvergence.reset();
+
+		timestampFirst = 0;
+		timeToLock = -1;
+
+		stationaryDetector.reset();
+		stationary = false;
+		held = false;
+
+		processingTime[0] = 0;
+		processingTime[1] = 0;
+		sensorTime[0] = 0;
+		sensorTime[1] = 0;
+
+		bias[0] = 0;
+		bias[1] = 0;
+		bias[2] = 0;
+
+		timestampOld = 0;
+
+		hasInitialOrientation = false;
+		stateInitialized = false;
+		warmStart = false;
+	}
+
+	/**
+	 * Check a checkpoint against the filtered gravity once enough gravity
+	 * samples have arrived. The orientation of the checkpoint is used if its
+	 * gravity direction agrees with the measured gravity, otherwise it is
+	 * discarded.
+	 * 
+	 * @param timestamp
+	 *            the time stamp of the gravity sample in nanoseconds.
+	 */
+	private void checkCheckpoint(long timestamp)
+	{
+		// The clock starts again when the device reboots.
+		boolean valid = timestamp >= checkpointTimestamp;
+
+		if (valid && gravitySampleCount < WARM_START_SAMPLE_COUNT)
+		{
+			return;
+		}
+
+		warmStart = false;
+
+		if (valid)
+		{
+			final float norm = (float) Math.sqrt(gravity[0] * gravity[0]
+					+ gravity[1] * gravity[1] + gravity[2] * gravity[2]);
+
+			// The gravity direction of the checkpoint is the last row of its
+			// rotation matrix.
+			final float cos = (gravity[0] * initialRotationMatrix[6]
+					+ gravity[1] * initialRotationMatrix[7] + gravity[2]
+					* initialRotationMatrix[8])
+					/ norm;
+
+			valid = norm > EPSILON && cos > WARM_START_MIN_COS;
+		}
+
+		if (valid)
+		{
+			hasInitialOrientation = true;
+		}
+		else
+		{
+			mfLinearAcceleration.reset();
+		}
+	}
+
+	/**
+	 * Indicate if both the filtered gravity and magnetic vectors have settled.
+	 * 
+	 * @return true if both have settled.
+	 */
+	private boolean isConverged()
+	{
+		return gravityConvergence.isConverged(gravityVarianceThreshold)
+				&& magneticConvergence.isConverged(magneticVarianceThreshold);
+	}
+
+	/**
+	 * Initialize the gyroscope based rotation from the initial orientation the
+	 * first time a gyroscope sample arrives.
+	 */
+	private void initState()
+	{
+		if (!stateInitialized)
+		{
+			algorithm.setRotationMatrix(initialRotationMatrix);
+
+			stateInitialized = true;
+		}
+	}
+
+	/**
+	 * Integrate a gyroscope sample, less the gyroscope bias, and subtract the
+	 * gravity components from the acceleration sample taken at the same time.
+	 * With rest gating nothing is integrated while the device is at rest, nor
+	 * for the first sample after it.
+	 * 
+	 * @param wx
+	 *            the x-axis angular velocity in rad/s.
+	 * @param wy
+	 *            the y-axis angular velocity in rad/s.
+	 * @param wz
+	 *            the z-axis angular velocity in rad/s.
+	 * @param ax
+	 *            the x-axis acceleration in m/s^2.
+	 * @param ay
+	 *            the y-axis acceleration in m/s^2.
+	 * @param az
+	 *            the z-axis acceleration in m/s^2.
+	 * @param timestamp
+	 *            the time stamp of the samples in nanoseconds.
+	 */
+	private void fuse(float wx, float wy, float wz, float ax, float ay,
+			float az, long timestamp)
+	{
+		final long start = profiling ? System.nanoTime() : 0;
+
+		if (biasEstimation || restGating)
+		{
+			stationaryDetector.add(ax, ay, az, wx, wy, wz);
+
+			stationary = stationaryDetector.isStationary();
+		}
+		else
+		{
+			stationary = false;
+		}
+
+		if (biasEstimation)
+		{
+			// At rest the gyroscope only measures its bias and noise.
+			if (stationary)
+			{
+				bias[0] += BIAS_GAIN * (wx - bias[0]);
+				bias[1] += BIAS_GAIN * (wy - bias[1]);
+				bias[2] += BIAS_GAIN * (wz - bias[2]);
+			}
+
+			wx -= bias[0];
+			wy -= bias[1];
+			wz -= bias[2];
+		}
+
+		final boolean hold = restGating && stationary;
+
+		// At rest the orientation and the linear acceleration are held, and
+		// the first sample after rest only sets the time base since the time
+		// step back to the last sample at the rest rate is too long for the
+		// integration. Otherwise this timestep's delta rotation to be
+		// multiplied by the current rotation after computing it from the gyro
+		// sample data.
+		if (timestampOld != 0 && !hold && !held)
+		{
+			final float dT = (timestamp - timestampOld) * NS2S;
+
+			algorithm.update(wx, wy, wz, ax, ay, az, dT, components);
+
+			// Subtract the gravity component of the signal
+			// from the input acceleration signal to get the
+			// tilt compensated output.
+			linearAcceleration[0] = (ax - components[0]);
+			linearAcceleration[1] = (ay - components[1]);
+			linearAcceleration[2] = (az - components[2]);
+
+			linearAccelerationFilter.filter(linearAcceleration, timestamp);
+		}
+
+		if (profiling && timestampOld != 0)
+		{
+			final int i = stationary ? 1 : 0;
+
+			processingTime[i] += System.nanoTime() - start;
+			sensorTime[i] += timestamp - timestampOld;
+		}
+
+		held = hold;
+		timestampOld = timestamp;
+	}
+
+	/**
+	 * Calculates orientation angles from accelerometer and magnetometer output.
+	 * Note that we only use this *once* at the beginning to orient the
+	 * gyroscope to earth frame. If you do not call this, the gyroscope will
+	 * orient itself to whatever the relative orientation the device is in at
+	 * the time of initialization.
+	 */
+	private void calculateOrientation()
+	{
+		hasInitialOrientation = SensorMath.getRotationMatrix(
+				initialRotationMatrix, null, gravity, magnetic);
+	}
+
+	/**
+	 * Initialize the mean filters.
+	 */
+	private void initFilters()
+	{
+		mfGravity = new MeanFilter();
+		mfGravity.setWindowSize(MEAN_FILTER_WINDOW);
+
+		mfLinearAcceleration = new MeanFilter();
+		mfLinearAcceleration.setWindowSize(MEAN_FILTER_WINDOW);
+
+		mfMagnetic = new MeanFilter();
+		mfMagnetic.setWindowSize(MEAN_FILTER_WINDOW);
+
+		gravityFilter = mfGravity;
+		magneticFilter = mfMagnetic;
+		linearAccelerationFilter = mfLinearAcceleration;
+
+		gravityConvergence = new ConvergenceDetector(MEAN_FILTER_WINDOW);
+		magneticConvergence = new ConvergenceDetector(MEAN_FILTER_WINDOW);
+
+		stationaryDetector = new StationaryDetector(STATIONARY_WINDOW);
+	}
+
+	/**
+	 * Clear the data structures required for the maths in place.
+	 */
+	private void initMaths()
+	{
+		Arrays.fill(acceleration, 0);
+		Arrays.fill(gravity, 0);
+		Arrays.fill(magnetic, 0);
+		Arrays.fill(components, 0);
+		Arrays.fill(linearAcceleration, 0);
+
+		Arrays.fill(initialRotationMatrix, 0);
+		Arrays.fill(tempRotationMatrix, 0);
+	}
+}
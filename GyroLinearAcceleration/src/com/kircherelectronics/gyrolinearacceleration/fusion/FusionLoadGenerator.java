@@ -0,0 +1,210 @@
+package com.kircherelectronics.gyrolinearacceleration.fusion;
+
+/*
+ * Copyright (C) 2013, Kaleb Kircher - Boki Software, Kircher Engineering, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Drives a FusionServer with synthetic sessions and reports the sustained
+ * number of samples per second it can fuse. Each session behaves like a
+ * handset that is slowly rotated: it first sends the gravity and magnetic
+ * samples needed for the initial orientation and then alternating
+ * acceleration and gyroscope samples at 400 Hz of sensor time. The producers
+ * back off and retry whenever the server rejects a sample because the inbox
+ * of a worker is full.
+ * 
+ * Run from the command line with the optional arguments [seconds] [max
+ * workers] to print samples/second for a range of session and worker counts.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class FusionLoadGenerator
+{
+	// 400 Hz in nanoseconds.
+	private static final long SAMPLE_PERIOD = 2500000;
+
+	// The number of gravity and magnetic samples sent before the fusion.
+	private static final int INIT_SAMPLE_COUNT = 40;
+
+	private FusionLoadGenerator()
+	{
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		long seconds = args.length > 0 ? Long.parseLong(args[0]) : 5;
+		int maxWorkers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime
+				.getRuntime().availableProcessors();
+
+		int[] sessionCounts =
+		{ 10, 100, 1000 };
+
+		System.out.println("sessions,workers,samples/s");
+
+		for (int s = 0; s < sessionCounts.length; s++)
+		{
+			for (int workers = 1; workers <= maxWorkers; workers *= 2)
+			{
+				double rate = run(sessionCounts[s], workers, seconds * 1000);
+
+				System.out.println(sessionCounts[s] + "," + workers + ","
+						+ Math.round(rate));
+			}
+		}
+	}
+
+	/**
+	 * Run the load against a new server.
+	 * 
+	 * @param sessions
+	 *            the number of concurrent sessions.
+	 * @param workers
+	 *            the number of worker threads of the server.
+	 * @param durationMillis
+	 *            how long to measure for, after a warm up of the same length.
+	 * @return the sustained samples per second fused by the server.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the threads.
+	 */
+	public static double run(int sessions, int workers, long durationMillis)
+			throws InterruptedException
+	{
+		final FusionServer server = new FusionServer(workers, null);
+		server.start();
+
+		final String[] ids = new String[sessions];
+
+		for (int i = 0; i < sessions; i++)
+		{
+			ids[i] = "device-" + i;
+		}
+
+		// Use as many producers as workers so ingestion is not the limit.
+		Producer[] producers = new Producer[workers];
+
+		for (int i = 0; i < workers; i++)
+		{
+			producers[i] = new Producer(server, ids, i, workers);
+			producers[i].start();
+		}
+
+		// Warm up.
+		Thread.sleep(durationMillis);
+
+		long startCount = server.getProcessedCount();
+		long startTime = System.nanoTime();
+
+		Thread.sleep(durationMillis);
+
+		long endCount = server.getProcessedCount();
+		long endTime = System.nanoTime();
+
+		for (int i = 0; i < workers; i++)
+		{
+			producers[i].running = false;
+			producers[i].join();
+		}
+
+		server.stop();
+
+		return (endCount - startCount) * 1000000000.0 / (endTime - startTime);
+	}
+
+	/**
+	 * Generates the samples for every n-th session.
+	 */
+	private static class Producer extends Thread
+	{
+		final FusionServer server;
+		final String[] ids;
+		final int first;
+		final int stride;
+
+		volatile boolean running = true;
+
+		Producer(FusionServer server, String[] ids, int first, int stride)
+		{
+			super("FusionLoadGenerator-" + first);
+
+			this.server = server;
+			this.ids = ids;
+			this.first = first;
+			this.stride = stride;
+
+			setDaemon(true);
+		}
+
+		@Override
+		public void run()
+		{
+			long step = 0;
+
+			while (running)
+			{
+				long timestamp = (step + 1) * SAMPLE_PERIOD;
+				float angle = step * 0.001f;
+
+				for (int i = first; i < ids.length; i += stride)
+				{
+					if (step < INIT_SAMPLE_COUNT)
+					{
+						submit(ids[i], FusionServer.TYPE_GRAVITY, 0, 0,
+								SensorMath.GRAVITY_EARTH, timestamp);
+						submit(ids[i], FusionServer.TYPE_MAGNETIC, 0, 22.0f,
+								-40.0f, timestamp);
+					}
+					else
+					{
+						submit(ids[i], FusionServer.TYPE_ACCELERATION,
+								(float) Math.sin(angle), 0,
+								SensorMath.GRAVITY_EARTH, timestamp);
+						submit(ids[i], FusionServer.TYPE_GYROSCOPE, 0.1f,
+								0.05f * i / ids.length, 0.2f, timestamp);
+					}
+				}
+
+				step++;
+			}
+		}
+
+		/**
+		 * Submit a sample, backing off while the server rejects it.
+		 * 
+		 * @param sessionId
+		 *            the id of the device.
+		 * @param type
+		 *            the type of the sample.
+		 * @param x
+		 *            the x-axis value.
+		 * @param y
+		 *            the y-axis value.
+		 * @param z
+		 *            the z-axis value.
+		 * @param timestamp
+		 *            the time stamp of the sample in nanoseconds.
+		 */
+		private void submit(String sessionId, int type, float x, float y,
+				float z, long timestamp)
+		{
+			while (!server.submit(sessionId, type, x, y, z, timestamp)
+					&& running)
+			{
+				Thread.yield();
+			}
+		}
+	}
+}
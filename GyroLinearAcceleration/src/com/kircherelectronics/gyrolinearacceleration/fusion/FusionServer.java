@@ -0,0 +1,533 @@
+package com.kircherelectronics.gyrolinearacceleration.fusion;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Copyright (C) 2013, Kaleb Kircher - Boki Software, Kircher Engineering, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Runs one FusionEngine per device for many devices at once. Sessions are
+ * sharded across a fixed pool of worker threads by their device id so a
+ * session is always processed by the same thread and its state never needs to
+ * be locked. Each worker owns its own session table and a bounded lock-free
+ * inbox of preallocated slots, so submitting a sample never blocks the caller
+ * and never allocates. When the inbox of a worker is full the sample is
+ * rejected and counted, the caller decides whether to retry or drop it.
+ * 
+ * The linear acceleration of each session is delivered to the
+ * FusionSessionObserver on the worker thread that owns the session.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class FusionServer
+{
+	public static final int TYPE_ACCELERATION = 0;
+	public static final int TYPE_GRAVITY = 1;
+	public static final int TYPE_MAGNETIC = 2;
+	public static final int TYPE_GYROSCOPE = 3;
+
+	// Removes the session from its shard.
+	private static final int TYPE_CLOSE = 4;
+
+	// How long an idle worker sleeps before checking its inbox again if it
+	// has not been woken up by a new sample.
+	private static final long IDLE_PARK_NANOS = 1000000;
+
+	// The number of samples each worker can hold by default.
+	private static final int DEFAULT_CAPACITY = 4096;
+
+	private FusionSessionObserver observer;
+
+	private Shard[] shards;
+
+	private boolean quaternionIntegration = false;
+
+	private FusionAlgorithmFactory algorithmFactory;
+
+	/**
+	 * Initialize the state with inboxes of the default capacity.
+	 * 
+	 * @param workers
+	 *            the number of worker threads, usually the number of cores.
+	 * @param observer
+	 *            the observer of the sessions, may be null.
+	 */
+	public FusionServer(int workers, FusionSessionObserver observer)
+	{
+		this(workers, DEFAULT_CAPACITY, observer);
+	}
+
+	/**
+	 * Initialize the state.
+	 * 
+	 * @param workers
+	 *            the number of worker threads, usually the number of cores.
+	 * @param capacity
+	 *            the number of samples the inbox of each worker can hold,
+	 *            rounded up to a power of two.
+	 * @param observer
+	 *            the observer of the sessions, may be null.
+	 */
+	public FusionServer(int workers, int capacity,
+			FusionSessionObserver observer)
+	{
+		super();
+
+		if (workers < 1)
+		{
+			throw new IllegalArgumentException("workers must be positive: "
+					+ workers);
+		}
+
+		if (capacity < 1 || capacity > 1 << 30)
+		{
+			throw new IllegalArgumentException("invalid capacity: "
+					+ capacity);
+		}
+
+		this.observer = observer;
+
+		int size = Integer.highestOneBit(capacity);
+
+		if (size < capacity)
+		{
+			size <<= 1;
+		}
+
+		shards = new Shard[workers];
+
+		for (int i = 0; i < workers; i++)
+		{
+			shards[i] = new Shard(i, size);
+		}
+	}
+
+	/**
+	 * Start the worker threads.
+	 */
+	public void start()
+	{
+		for (int i = 0; i < shards.length; i++)
+		{
+			shards[i].thread.start();
+		}
+	}
+
+	/**
+	 * Stop the worker threads after they have processed the samples already
+	 * submitted and wait for them to finish.
+	 * 
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the workers.
+	 */
+	public void stop() throws InterruptedException
+	{
+		for (int i = 0; i < shards.length; i++)
+		{
+			shards[i].running = false;
+			LockSupport.unpark(shards[i].thread);
+		}
+
+		for (int i = 0; i < shards.length; i++)
+		{
+			shards[i].thread.join();
+		}
+	}
+
+	/**
+	 * Submit a sample for a session. Sessions are created the first time a
+	 * device id is seen. Never blocks and never allocates.
+	 * 
+	 * @param sessionId
+	 *            the id of the device.
+	 * @param type
+	 *            one of TYPE_ACCELERATION, TYPE_GRAVITY, TYPE_MAGNETIC or
+	 *            TYPE_GYROSCOPE.
+	 * @param x
+	 *            the x-axis value.
+	 * @param y
+	 *            the y-axis value.
+	 * @param z
+	 *            the z-axis value.
+	 * @param timestamp
+	 *            the time stamp of the sample in nanoseconds.
+	 * @return true if the sample was accepted, false if the inbox of the
+	 *         worker that owns the session is full.
+	 * @throws IllegalArgumentException
+	 *             if the type is not one of the TYPE_ constants.
+	 */
+	public boolean submit(String sessionId, int type, float x, float y,
+			float z, long timestamp)
+	{
+		if (type < TYPE_ACCELERATION || type > TYPE_GYROSCOPE)
+		{
+			throw new IllegalArgumentException("invalid sample type: " + type);
+		}
+
+		return getShard(sessionId).offer(sessionId, type, x, y, z, timestamp);
+	}
+
+	/**
+	 * Close a session and discard its state once the samples already
+	 * submitted for it have been processed.
+	 * 
+	 * @param sessionId
+	 *            the id of the device.
+	 * @return true if the request was accepted, false if the inbox of the
+	 *         worker that owns the session is full and it must be retried.
+	 */
+	public boolean close(String sessionId)
+	{
+		return getShard(sessionId).offer(sessionId, TYPE_CLOSE, 0, 0, 0, 0);
+	}
+
+	/**
+	 * Get the number of samples processed by all of the workers.
+	 * 
+	 * @return the number of samples processed.
+	 */
+	public long getProcessedCount()
+	{
+		long count = 0;
+
+		for (int i = 0; i < shards.length; i++)
+		{
+			count += shards[i].processed;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Get the number of samples rejected because the inbox of their worker
+	 * was full.
+	 * 
+	 * @return the number of samples rejected.
+	 */
+	public long getRejectedCount()
+	{
+		long count = 0;
+
+		for (int i = 0; i < shards.length; i++)
+		{
+			count += shards[i].rejected.get();
+		}
+
+		return count;
+	}
+
+	/**
+	 * Get the number of sessions currently open on all of the workers.
+	 * 
+	 * @return the number of sessions.
+	 */
+	public int getSessionCount()
+	{
+		int count = 0;
+
+		for (int i = 0; i < shards.length; i++)
+		{
+			count += shards[i].sessionCount;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Select how the gyroscope measurements of new sessions are integrated.
+	 * Must be called before the server is started.
+	 * 
+	 * @param quaternionIntegration
+	 *            true to integrate with a unit quaternion.
+	 * @see FusionEngine#setQuaternionIntegration(boolean)
+	 */
+	public void setQuaternionIntegration(boolean quaternionIntegration)
+	{
+		this.quaternionIntegration = quaternionIntegration;
+	}
+
+	/**
+	 * Select the algorithm new sessions track their orientation with. Each
+	 * session gets its own algorithm from the factory. Must be called before
+	 * the server is started.
+	 * 
+	 * @param algorithmFactory
+	 *            the factory of the algorithms, or null to use the built in
+	 *            integration selected by setQuaternionIntegration().
+	 * @see FusionEngine#setFusionAlgorithm(FusionAlgorithm)
+	 */
+	public void setFusionAlgorithm(FusionAlgorithmFactory algorithmFactory)
+	{
+		this.algorithmFactory = algorithmFactory;
+	}
+
+	/**
+	 * Find the shard that owns a session.
+	 * 
+	 * @param sessionId
+	 *            the id of the device.
+	 * @return the shard.
+	 */
+	private Shard getShard(String sessionId)
+	{
+		return shards[(sessionId.hashCode() & 0x7fffffff) % shards.length];
+	}
+
+	/**
+	 * A worker thread and the sessions it owns. The session table is only
+	 * touched by the worker thread.
+	 * 
+	 * The inbox is a bounded ring of preallocated slots that any number of
+	 * threads may offer to and only the worker takes from. Each slot has a
+	 * sequence number: a producer claims the slot at the tail position p once
+	 * its sequence is p, fills it and publishes it by setting the sequence to
+	 * p + 1. The worker takes the slot at the head position h once its
+	 * sequence is h + 1 and frees it for the next lap by setting the sequence
+	 * to h + capacity.
+	 */
+	private class Shard implements Runnable
+	{
+		final int mask;
+
+		final AtomicLongArray sequences;
+		final AtomicLong tail = new AtomicLong();
+		final AtomicLong rejected = new AtomicLong();
+
+		// The slots of the inbox, sample i is at index i & mask, its values
+		// start at 3 * (i & mask).
+		final String[] sessionIds;
+		final int[] types;
+		final float[] values;
+		final long[] timestamps;
+
+		// Only touched by the worker thread.
+		long head = 0;
+
+		final HashMap<String, FusionEngine> sessions;
+		final Thread thread;
+
+		final float[] sample = new float[3];
+		final float[] linearAcceleration = new float[3];
+
+		volatile boolean running = true;
+		volatile boolean idle = false;
+		volatile long processed = 0;
+		volatile int sessionCount = 0;
+
+		Shard(int index, int capacity)
+		{
+			mask = capacity - 1;
+
+			sequences = new AtomicLongArray(capacity);
+
+			for (int i = 0; i < capacity; i++)
+			{
+				sequences.set(i, i);
+			}
+
+			sessionIds = new String[capacity];
+			types = new int[capacity];
+			values = new float[3 * capacity];
+			timestamps = new long[capacity];
+
+			sessions = new HashMap<String, FusionEngine>();
+
+			thread = new Thread(this, "FusionServer-" + index);
+			thread.setDaemon(true);
+		}
+
+		boolean offer(String sessionId, int type, float x, float y, float z,
+				long timestamp)
+		{
+			long position = tail.get();
+			int slot;
+
+			// Claim the slot at the tail.
+			while (true)
+			{
+				slot = (int) position & mask;
+
+				long difference = sequences.get(slot) - position;
+
+				if (difference == 0)
+				{
+					if (tail.compareAndSet(position, position + 1))
+					{
+						break;
+					}
+				}
+				else if (difference < 0)
+				{
+					// The worker has not freed the slot yet, the ring is full.
+					rejected.incrementAndGet();
+
+					return false;
+				}
+
+				position = tail.get();
+			}
+
+			sessionIds[slot] = sessionId;
+			types[slot] = type;
+			values[3 * slot] = x;
+			values[3 * slot + 1] = y;
+			values[3 * slot + 2] = z;
+			timestamps[slot] = timestamp;
+
+			// Publish the sample to the worker.
+			sequences.lazySet(slot, position + 1);
+
+			// Wake the worker if it is waiting for samples.
+			if (idle)
+			{
+				LockSupport.unpark(thread);
+			}
+
+			return true;
+		}
+
+		/**
+		 * Indicate if the slot at the head holds a published sample.
+		 * 
+		 * @return true if a sample can be taken.
+		 */
+		boolean hasSample()
+		{
+			return sequences.get((int) head & mask) == head + 1;
+		}
+
+		@Override
+		public void run()
+		{
+			long count = 0;
+
+			while (running || hasSample())
+			{
+				if (!hasSample())
+				{
+					processed = count;
+
+					idle = true;
+
+					// Check again, a sample may have arrived before the idle
+					// flag was visible to the producer.
+					if (!hasSample() && running)
+					{
+						LockSupport.parkNanos(IDLE_PARK_NANOS);
+					}
+
+					idle = false;
+
+					continue;
+				}
+
+				final int slot = (int) head & mask;
+
+				process(slot);
+
+				// Drop the reference to the session id and free the slot for
+				// the next lap of the ring.
+				sessionIds[slot] = null;
+				sequences.lazySet(slot, head + mask + 1);
+				head++;
+
+				// Only publish the count every so often, it is a volatile
+				// write.
+				if ((++count & 0xff) == 0)
+				{
+					processed = count;
+				}
+			}
+
+			processed = count;
+		}
+
+		/**
+		 * Process the sample in a slot of the inbox.
+		 * 
+		 * @param slot
+		 *            the index of the slot.
+		 */
+		private void process(int slot)
+		{
+			final String sessionId = sessionIds[slot];
+			final int type = types[slot];
+			final long timestamp = timestamps[slot];
+
+			FusionEngine engine = sessions.get(sessionId);
+
+			if (type == TYPE_CLOSE)
+			{
+				if (engine != null)
+				{
+					sessions.remove(sessionId);
+					sessionCount = sessions.size();
+				}
+
+				return;
+			}
+
+			if (engine == null)
+			{
+				engine = new FusionEngine();
+				engine.setQuaternionIntegration(quaternionIntegration);
+
+				if (algorithmFactory != null)
+				{
+					engine.setFusionAlgorithm(algorithmFactory
+							.createFusionAlgorithm());
+				}
+
+				sessions.put(sessionId, engine);
+				sessionCount = sessions.size();
+			}
+
+			sample[0] = values[3 * slot];
+			sample[1] = values[3 * slot + 1];
+			sample[2] = values[3 * slot + 2];
+
+			switch (type)
+			{
+			case TYPE_ACCELERATION:
+				engine.onAcceleration(sample, timestamp);
+				break;
+			case TYPE_GRAVITY:
+				engine.onGravity(sample, timestamp);
+				break;
+			case TYPE_MAGNETIC:
+				engine.onMagnetic(sample, timestamp);
+				break;
+			case TYPE_GYROSCOPE:
+				if (engine.onGyroscope(sample, timestamp) && observer != null)
+				{
+					engine.getLinearAcceleration(linearAcceleration);
+
+					observer.onLinearAccelerationChanged(sessionId,
+							linearAcceleration, timestamp);
+				}
+				break;
+			default:
+				// submit() only accepts the types above.
+				break;
+			}
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package com.kircherelectronics.gyrolinearacceleration.fusion;
+
+/*
+ * Copyright (C) 2013, Kaleb Kircher - Boki Software, Kircher Engineering, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A fusion session observer interface. Classes that need to observe the linear
+ * acceleration of the sessions in a FusionServer should do so with this
+ * interface.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public interface FusionSessionObserver
+{
+	/**
+	 * Notify observers when a new linear acceleration is available for a
+	 * session. Called on the worker thread that owns the session, the array is
+	 * reused for the next sample.
+	 * 
+	 * @param sessionId
+	 *            the id of the device the session belongs to.
+	 * @param linearAcceleration
+	 *            the linear acceleration values (x, y, z)
+	 * @param timeStamp
+	 *            the time of the sensor update.
+	 */
+	public void onLinearAccelerationChanged(String sessionId,
+			float[] linearAcceleration, long timeStamp);
+}
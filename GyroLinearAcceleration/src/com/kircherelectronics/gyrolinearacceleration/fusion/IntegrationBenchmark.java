@@ -0,0 +1,211 @@
+package com.kircherelectronics.gyrolinearacceleration.fusion;
+
+/*
+ * Copyright (C) 2013, Kaleb Kircher - Boki Software, Kircher Engineering, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Compares the gyroscope integrators on the same synthetic rotation. Each
+ * integrator starts from the same orientation and its update() is called for
+ * every sample, which reports the cost per sample of the integration and the
+ * gravity components. The gravity components of every sample are compared
+ * with those of the original rotation matrix path with Cardan angles, after
+ * the first 100 samples and over the whole rotation.
+ * 
+ * The matrix row integrates exactly like the Cardan row and only takes the
+ * gravity components from the last row of the rotation matrix, so the
+ * difference in their cost is the cost of the Cardan angles and the
+ * difference in their output is the equivalence of the two gravity
+ * formulas on the same matrix.
+ * 
+ * Run from the command line with the optional argument [samples] to print one
+ * CSV row per integrator.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class IntegrationBenchmark
+{
+	// 200 Hz in seconds.
+	private static final float DT = 0.005f;
+
+	// The number of samples of the short comparison.
+	private static final int SHORT_SAMPLES = 100;
+
+	// The number of times each integrator is run, the fastest run is kept.
+	private static final int RUNS = 9;
+
+	private static final String[] NAMES =
+	{ "cardan", "matrix", "quaternion" };
+
+	private float[] wx;
+	private float[] wy;
+	private float[] wz;
+
+	private float[] initialRotationMatrix;
+
+	/**
+	 * Generate the rotation.
+	 * 
+	 * @param samples
+	 *            the number of samples.
+	 */
+	public IntegrationBenchmark(int samples)
+	{
+		super();
+
+		generate(samples);
+	}
+
+	public static void main(String[] args)
+	{
+		int samples = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+
+		IntegrationBenchmark benchmark = new IntegrationBenchmark(samples);
+
+		float[] reference = new float[3 * samples];
+		float[] gravity = new float[3 * samples];
+
+		System.out
+				.println("integrator,ns/sample,max difference first "
+						+ SHORT_SAMPLES + " samples m/s^2,max difference m/s^2");
+
+		for (int i = 0; i < NAMES.length; i++)
+		{
+			long best = Long.MAX_VALUE;
+
+			for (int r = 0; r < RUNS; r++)
+			{
+				best = Math.min(best, benchmark.run(createAlgorithm(i),
+						i == 0 ? reference : gravity));
+			}
+
+			float[] output = i == 0 ? reference : gravity;
+
+			System.out.println(NAMES[i] + "," + Math.round((double) best
+					/ samples) + ","
+					+ getMaxDifference(reference, output, SHORT_SAMPLES) + ","
+					+ getMaxDifference(reference, output, samples));
+		}
+	}
+
+	/**
+	 * Create one of the integrators.
+	 * 
+	 * @param algorithm
+	 *            the index of the integrator in NAMES.
+	 * @return the integrator.
+	 */
+	private static FusionAlgorithm createAlgorithm(int algorithm)
+	{
+		switch (algorithm)
+		{
+		case 1:
+			RotationMatrixIntegration integration =
+					new RotationMatrixIntegration();
+			integration.setGravityFromRotationMatrix(true);
+			return integration;
+		case 2:
+			return new QuaternionIntegration();
+		default:
+			return new RotationMatrixIntegration();
+		}
+	}
+
+	/**
+	 * Find the largest difference between two sets of gravity components.
+	 * 
+	 * @param a
+	 *            the gravity components (x, y, z) of each sample.
+	 * @param b
+	 *            the gravity components (x, y, z) of each sample.
+	 * @param samples
+	 *            the number of samples to compare.
+	 * @return the largest difference of any component in m/s^2.
+	 */
+	private static float getMaxDifference(float[] a, float[] b, int samples)
+	{
+		float max = 0;
+
+		for (int i = 0; i < 3 * Math.min(samples, a.length / 3); i++)
+		{
+			max = Math.max(max, Math.abs(a[i] - b[i]));
+		}
+
+		return max;
+	}
+
+	/**
+	 * Run the rotation through an integrator.
+	 * 
+	 * @param algorithm
+	 *            the integrator.
+	 * @param gravity
+	 *            the array the gravity components (x, y, z) of each sample
+	 *            will be written to.
+	 * @return the time it took in nanoseconds.
+	 */
+	private long run(FusionAlgorithm algorithm, float[] gravity)
+	{
+		final int n = wx.length;
+
+		float[] components = new float[3];
+
+		algorithm.setRotationMatrix(initialRotationMatrix);
+
+		final long start = System.nanoTime();
+
+		for (int i = 0; i < n; i++)
+		{
+			algorithm.update(wx[i], wy[i], wz[i], 0, 0, 0, DT, components);
+
+			gravity[3 * i] = components[0];
+			gravity[3 * i + 1] = components[1];
+			gravity[3 * i + 2] = components[2];
+		}
+
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Generate an aggressive rotation, of up to several rad/s around every
+	 * axis, starting from a tilted orientation.
+	 * 
+	 * @param n
+	 *            the number of samples.
+	 */
+	private void generate(int n)
+	{
+		wx = new float[n];
+		wy = new float[n];
+		wz = new float[n];
+
+		for (int i = 0; i < n; i++)
+		{
+			double t = i * DT;
+
+			wx[i] = (float) (3.0 * Math.sin(2.1 * t));
+			wy[i] = (float) (2.0 * Math.sin(1.3 * t + 1.0));
+			wz[i] = (float) (4.0 * Math.cos(0.7 * t));
+		}
+
+		initialRotationMatrix = new float[9];
+
+		SensorMath.getRotationMatrix(initialRotationMatrix, null, new float[]
+		{ 1.0f, 2.0f, 9.5f }, new float[]
+		{ 0, 22.0f, -40.0f });
+	}
+}
@@ -0,0 +1,470 @@
+package com.kircherelectronics.gyrolinearacceleration.fusion;
+
+/*
+ * Copyright (C) 2013, Kaleb Kircher - Boki Software, Kircher Engineering, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * An error-state Kalman filter for a gyroscope and an accelerometer. The
+ * nominal state is the orientation as a unit quaternion (x, y, z, w) and the
+ * gyroscope bias. The filter tracks the covariance of a 6 element error state,
+ * the attitude error in the device frame and the bias error, and corrects the
+ * nominal state with the direction of the measured acceleration after every
+ * gyroscope sample.
+ * 
+ * Unlike the fixed gains of the MadgwickFilter and MahonyFilter, the weight of
+ * each accelerometer sample is reduced as the magnitude of the acceleration
+ * moves away from gravity, so linear acceleration is less likely to be taken
+ * for tilt. The azimuth is not observable without a magnetometer and is not
+ * corrected.
+ * 
+ * All of the matrix maths are written out for the fixed 3x3 and 6x6 sizes over
+ * preallocated arrays, the filter does not allocate after construction. The
+ * covariance is kept in double precision since its entries span many orders
+ * of magnitude.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class KalmanFilter implements FusionAlgorithm
+{
+	// The default standard deviation of the gyroscope noise in rad/s.
+	private static final float DEFAULT_GYROSCOPE_NOISE = 0.01f;
+
+	// The default random walk of the gyroscope bias in rad/s/sqrt(s).
+	private static final float DEFAULT_BIAS_DRIFT = 0.0001f;
+
+	// The default standard deviation of the direction of the acceleration,
+	// which includes the small linear accelerations of a handheld device.
+	private static final float DEFAULT_ACCELERATION_NOISE = 0.2f;
+
+	// How strongly a magnitude of the acceleration different from gravity
+	// increases the variance of the measurement.
+	private static final float LINEAR_ACCELERATION_WEIGHT = 10.0f;
+
+	// The initial standard deviations of the attitude error in rad and the
+	// bias error in rad/s.
+	private static final double INITIAL_ATTITUDE_SIGMA = 0.05;
+	private static final double INITIAL_BIAS_SIGMA = 0.02;
+
+	private float gyroscopeNoise = DEFAULT_GYROSCOPE_NOISE;
+	private float biasDrift = DEFAULT_BIAS_DRIFT;
+	private float accelerationNoise = DEFAULT_ACCELERATION_NOISE;
+
+	// The current rotation as a unit quaternion (x, y, z, w).
+	private float[] q = new float[]
+	{ 0, 0, 0, 1 };
+
+	// The estimated gyroscope bias in rad/s.
+	private float[] bias = new float[3];
+
+	// The 6x6 covariance of the error state, row major.
+	private final double[] p = new double[36];
+
+	// Scratch space for the covariance prediction, 3x3 row major.
+	private final double[] a = new double[9];
+	private final double[] x = new double[9];
+	private final double[] y = new double[9];
+
+	// Scratch space for the measurement update.
+	private final double[] pHt = new double[18];
+	private final double[] s = new double[9];
+	private final double[] sInv = new double[9];
+	private final double[] k = new double[18];
+	private final double[] dx = new double[6];
+
+	/**
+	 * Initialize the state.
+	 */
+	public KalmanFilter()
+	{
+		super();
+
+		resetCovariance();
+	}
+
+	/**
+	 * Set the noise model of the filter.
+	 * 
+	 * @param gyroscopeNoise
+	 *            the standard deviation of the gyroscope noise in rad/s.
+	 * @param biasDrift
+	 *            the random walk of the gyroscope bias in rad/s/sqrt(s).
+	 * @param accelerationNoise
+	 *            the standard deviation of the direction of the acceleration
+	 *            while the device is not accelerating.
+	 */
+	public void setNoise(float gyroscopeNoise, float biasDrift,
+			float accelerationNoise)
+	{
+		this.gyroscopeNoise = gyroscopeNoise;
+		this.biasDrift = biasDrift;
+		this.accelerationNoise = accelerationNoise;
+	}
+
+	/**
+	 * Get the estimated gyroscope bias.
+	 * 
+	 * @param bias
+	 *            the array the bias (x, y, z) in rad/s will be written to.
+	 */
+	public void getBias(float[] bias)
+	{
+		System.arraycopy(this.bias, 0, bias, 0, 3);
+	}
+
+	@Override
+	public void setRotationMatrix(float[] rotationMatrix)
+	{
+		SensorMath.matrixToQuaternion(rotationMatrix, q);
+
+		bias[0] = 0;
+		bias[1] = 0;
+		bias[2] = 0;
+
+		resetCovariance();
+	}
+
+	@Override
+	public void getRotationMatrix(float[] rotationMatrix)
+	{
+		SensorMath.getRotationMatrixFromVector(rotationMatrix, q);
+	}
+
+	@Override
+	public void update(float wx, float wy, float wz, float ax, float ay,
+			float az, float dT, float[] gravity)
+	{
+		// Remove the estimated bias.
+		wx -= bias[0];
+		wy -= bias[1];
+		wz -= bias[2];
+
+		integrate(wx, wy, wz, dT);
+		predictCovariance(wx, wy, wz, dT);
+
+		final float norm = (float) Math.sqrt(ax * ax + ay * ay + az * az);
+
+		// Skip the correction when the acceleration is invalid, it can not be
+		// normalized.
+		if (norm > FusionEngine.EPSILON)
+		{
+			correct(ax / norm, ay / norm, az / norm, norm);
+		}
+
+		// The gravity vector in the device frame is the last row of the
+		// rotation matrix of the quaternion.
+		gravity[0] = SensorMath.GRAVITY_EARTH * 2.0f
+				* (q[0] * q[2] - q[3] * q[1]);
+		gravity[1] = SensorMath.GRAVITY_EARTH * 2.0f
+				* (q[1] * q[2] + q[3] * q[0]);
+		gravity[2] = SensorMath.GRAVITY_EARTH
+				* (1.0f - 2.0f * (q[0] * q[0] + q[1] * q[1]));
+	}
+
+	/**
+	 * Integrate the unbiased angular velocity into the nominal quaternion, the
+	 * same maths as the QuaternionIntegration.
+	 * 
+	 * @param wx
+	 *            the x-axis angular velocity in rad/s.
+	 * @param wy
+	 *            the y-axis angular velocity in rad/s.
+	 * @param wz
+	 *            the z-axis angular velocity in rad/s.
+	 * @param dT
+	 *            the time step in seconds.
+	 */
+	private void integrate(float wx, float wy, float wz, float dT)
+	{
+		final float halfDT = dT / 2.0f;
+
+		final float thetaOverTwoSq = (wx * wx + wy * wy + wz * wz) * halfDT
+				* halfDT;
+
+		final float sn = halfDT * (1.0f - thetaOverTwoSq / 6.0f);
+		final float c = 1.0f - thetaOverTwoSq / 2.0f + thetaOverTwoSq
+				* thetaOverTwoSq / 24.0f;
+
+		rotate(sn * wx, sn * wy, sn * wz, c);
+	}
+
+	/**
+	 * Post-multiply the nominal quaternion by a small rotation and keep it at
+	 * unit length.
+	 * 
+	 * @param dx
+	 *            the x component of the rotation.
+	 * @param dy
+	 *            the y component of the rotation.
+	 * @param dz
+	 *            the z component of the rotation.
+	 * @param dw
+	 *            the w component of the rotation.
+	 */
+	private void rotate(float dx, float dy, float dz, float dw)
+	{
+		final float[] q = this.q;
+
+		float x = q[3] * dx + q[0] * dw + q[1] * dz - q[2] * dy;
+		float y = q[3] * dy - q[0] * dz + q[1] * dw + q[2] * dx;
+		float z = q[3] * dz + q[0] * dy - q[1] * dx + q[2] * dw;
+		float w = q[3] * dw - q[0] * dx - q[1] * dy - q[2] * dz;
+
+		final float n = 1.0f / (float) Math.sqrt(x * x + y * y + z * z + w
+				* w);
+
+		q[0] = x * n;
+		q[1] = y * n;
+		q[2] = z * n;
+		q[3] = w * n;
+	}
+
+	/**
+	 * Propagate the covariance over a time step. The transition of the error
+	 * state is F = [A, -I dT; 0, I] with A = I - [w x] dT, so F P F^T is found
+	 * block by block: X = A Ptt - dT Pbt and Y = A Ptb - dT Pbb give Ptt' = X
+	 * A^T - dT Y, Ptb' = Y and Pbb' = Pbb.
+	 * 
+	 * @param wx
+	 *            the x-axis unbiased angular velocity in rad/s.
+	 * @param wy
+	 *            the y-axis unbiased angular velocity in rad/s.
+	 * @param wz
+	 *            the z-axis unbiased angular velocity in rad/s.
+	 * @param dT
+	 *            the time step in seconds.
+	 */
+	private void predictCovariance(float wx, float wy, float wz, float dT)
+	{
+		final double[] p = this.p;
+		final double[] a = this.a;
+		final double[] x = this.x;
+		final double[] y = this.y;
+
+		a[0] = 1;
+		a[1] = wz * dT;
+		a[2] = -wy * dT;
+		a[3] = -wz * dT;
+		a[4] = 1;
+		a[5] = wx * dT;
+		a[6] = wy * dT;
+		a[7] = -wx * dT;
+		a[8] = 1;
+
+		for (int i = 0; i < 3; i++)
+		{
+			final double a0 = a[3 * i];
+			final double a1 = a[3 * i + 1];
+			final double a2 = a[3 * i + 2];
+
+			for (int j = 0; j < 3; j++)
+			{
+				// Column j of Ptt and Ptb, rows 0-2 of P.
+				x[3 * i + j] = a0 * p[j] + a1 * p[6 + j] + a2 * p[12 + j] - dT
+						* p[18 + 6 * i + j];
+				y[3 * i + j] = a0 * p[3 + j] + a1 * p[9 + j] + a2 * p[15 + j]
+						- dT * p[21 + 6 * i + j];
+			}
+		}
+
+		final double qt = (double) gyroscopeNoise * gyroscopeNoise * dT * dT;
+		final double qb = (double) biasDrift * biasDrift * dT;
+
+		for (int i = 0; i < 3; i++)
+		{
+			for (int j = 0; j < 3; j++)
+			{
+				final double ptt = x[3 * i] * a[3 * j] + x[3 * i + 1]
+						* a[3 * j + 1] + x[3 * i + 2] * a[3 * j + 2] - dT
+						* y[3 * i + j];
+
+				p[6 * i + j] = ptt;
+				p[6 * i + 3 + j] = y[3 * i + j];
+				p[6 * (3 + j) + i] = y[3 * i + j];
+			}
+
+			p[7 * i] += qt;
+			p[7 * (3 + i)] += qb;
+		}
+	}
+
+	/**
+	 * Correct the state with the direction of the measured acceleration. The
+	 * measurement is the direction of gravity in the device frame, the last
+	 * row v of the rotation matrix, and its Jacobian with respect to the error
+	 * state is H = [[v x], 0].
+	 * 
+	 * @param ux
+	 *            the x component of the direction of the acceleration.
+	 * @param uy
+	 *            the y component of the direction of the acceleration.
+	 * @param uz
+	 *            the z component of the direction of the acceleration.
+	 * @param norm
+	 *            the magnitude of the acceleration in m/s^2.
+	 */
+	private void correct(float ux, float uy, float uz, float norm)
+	{
+		final double[] p = this.p;
+		final double[] pHt = this.pHt;
+		final double[] s = this.s;
+		final double[] k = this.k;
+		final double[] dx = this.dx;
+
+		final float vx = 2.0f * (q[0] * q[2] - q[3] * q[1]);
+		final float vy = 2.0f * (q[1] * q[2] + q[3] * q[0]);
+		final float vz = 1.0f - 2.0f * (q[0] * q[0] + q[1] * q[1]);
+
+		// The measurement variance grows with the linear acceleration.
+		final double e = norm / SensorMath.GRAVITY_EARTH - 1.0;
+		final double r = (double) accelerationNoise * accelerationNoise
+				+ LINEAR_ACCELERATION_WEIGHT * e * e;
+
+		// P H^T, where row j of H is row j of [v x]: (0, -vz, vy), (vz, 0,
+		// -vx), (-vy, vx, 0).
+		for (int i = 0; i < 6; i++)
+		{
+			final double p0 = p[6 * i];
+			final double p1 = p[6 * i + 1];
+			final double p2 = p[6 * i + 2];
+
+			pHt[3 * i] = -vz * p1 + vy * p2;
+			pHt[3 * i + 1] = vz * p0 - vx * p2;
+			pHt[3 * i + 2] = -vy * p0 + vx * p1;
+		}
+
+		// S = H P H^T + R, from the first three rows of P H^T.
+		for (int j = 0; j < 3; j++)
+		{
+			final double h0 = pHt[j];
+			final double h1 = pHt[3 + j];
+			final double h2 = pHt[6 + j];
+
+			s[j] = -vz * h1 + vy * h2;
+			s[3 + j] = vz * h0 - vx * h2;
+			s[6 + j] = -vy * h0 + vx * h1;
+		}
+
+		s[0] += r;
+		s[4] += r;
+		s[8] += r;
+
+		if (!invert(s, sInv))
+		{
+			return;
+		}
+
+		// K = P H^T S^-1 and the correction of the error state.
+		final double yx = ux - vx;
+		final double yy = uy - vy;
+		final double yz = uz - vz;
+
+		for (int i = 0; i < 6; i++)
+		{
+			final double h0 = pHt[3 * i];
+			final double h1 = pHt[3 * i + 1];
+			final double h2 = pHt[3 * i + 2];
+
+			final double k0 = h0 * sInv[0] + h1 * sInv[3] + h2 * sInv[6];
+			final double k1 = h0 * sInv[1] + h1 * sInv[4] + h2 * sInv[7];
+			final double k2 = h0 * sInv[2] + h1 * sInv[5] + h2 * sInv[8];
+
+			k[3 * i] = k0;
+			k[3 * i + 1] = k1;
+			k[3 * i + 2] = k2;
+
+			dx[i] = k0 * yx + k1 * yy + k2 * yz;
+		}
+
+		// P = P - K (P H^T)^T, kept symmetric.
+		for (int i = 0; i < 6; i++)
+		{
+			for (int j = i; j < 6; j++)
+			{
+				final double kh = k[3 * i] * pHt[3 * j] + k[3 * i + 1]
+						* pHt[3 * j + 1] + k[3 * i + 2] * pHt[3 * j + 2];
+
+				final double v = (p[6 * i + j] + p[6 * j + i]) / 2 - kh;
+
+				p[6 * i + j] = v;
+				p[6 * j + i] = v;
+			}
+		}
+
+		// Inject the error into the nominal state.
+		rotate((float) (dx[0] / 2), (float) (dx[1] / 2), (float) (dx[2] / 2),
+				1.0f);
+
+		bias[0] += (float) dx[3];
+		bias[1] += (float) dx[4];
+		bias[2] += (float) dx[5];
+	}
+
+	/**
+	 * Invert a 3x3 matrix with its adjugate.
+	 * 
+	 * @param m
+	 *            the matrix, row major.
+	 * @param inverse
+	 *            the array the inverse will be written to.
+	 * @return false if the matrix is singular.
+	 */
+	private static boolean invert(double[] m, double[] inverse)
+	{
+		final double c0 = m[4] * m[8] - m[5] * m[7];
+		final double c1 = m[5] * m[6] - m[3] * m[8];
+		final double c2 = m[3] * m[7] - m[4] * m[6];
+
+		final double det = m[0] * c0 + m[1] * c1 + m[2] * c2;
+
+		if (Math.abs(det) < 1e-30)
+		{
+			return false;
+		}
+
+		final double invDet = 1.0 / det;
+
+		inverse[0] = c0 * invDet;
+		inverse[1] = (m[2] * m[7] - m[1] * m[8]) * invDet;
+		inverse[2] = (m[1] * m[5] - m[2] * m[4]) * invDet;
+		inverse[3] = c1 * invDet;
+		inverse[4] = (m[0] * m[8] - m[2] * m[6]) * invDet;
+		inverse[5] = (m[2] * m[3] - m[0] * m[5]) * invDet;
+		inverse[6] = c2 * invDet;
+		inverse[7] = (m[1] * m[6] - m[0] * m[7]) * invDet;
+		inverse[8] = (m[0] * m[4] - m[1] * m[3]) * invDet;
+
+		return true;
+	}
+
+	/**
+	 * Reset the covariance to its initial uncertainty.
+	 */
+	private void resetCovariance()
+	{
+		for (int i = 0; i < 36; i++)
+		{
+			p[i] = 0;
+		}
+
+		for (int i = 0; i < 3; i++)
+		{
+			p[7 * i] = INITIAL_ATTITUDE_SIGMA * INITIAL_ATTITUDE_SIGMA;
+			p[7 * (3 + i)] = INITIAL_BIAS_SIGMA * INITIAL_BIAS_SIGMA;
+		}
+	}
+}
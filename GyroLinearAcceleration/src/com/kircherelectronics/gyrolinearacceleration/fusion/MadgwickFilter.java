@@ -0,0 +1,154 @@
+package com.kircherelectronics.gyrolinearacceleration.fusion;
+
+/*
+ * Copyright (C) 2013, Kaleb Kircher - Boki Software, Kircher Engineering, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Madgwick's gradient descent orientation filter for a gyroscope and an
+ * accelerometer. The gyroscope is integrated into a unit quaternion and one
+ * gradient descent step per sample pulls the orientation towards the one
+ * where gravity points along the measured acceleration, so tilt drift from
+ * gyroscope bias is corrected. The azimuth is not corrected.
+ * 
+ * The gain beta trades gyroscope drift correction against the sensitivity to
+ * linear acceleration, which the filter can not tell apart from tilt.
+ * 
+ * @author Kaleb
+ * @see http://www.x-io.co.uk/open-source-imu-and-ahrs-algorithms/
+ * @version %I%, %G%
+ */
+public class MadgwickFilter implements FusionAlgorithm
+{
+	private static final float DEFAULT_BETA = 0.033f;
+
+	private float beta = DEFAULT_BETA;
+
+	// The current rotation as a unit quaternion (x, y, z, w).
+	private float[] q = new float[]
+	{ 0, 0, 0, 1 };
+
+	/**
+	 * Set the gain of the gradient descent step.
+	 * 
+	 * @param beta
+	 *            the gain in rad/s, the default is 0.033.
+	 */
+	public void setBeta(float beta)
+	{
+		this.beta = beta;
+	}
+
+	@Override
+	public void setRotationMatrix(float[] rotationMatrix)
+	{
+		SensorMath.matrixToQuaternion(rotationMatrix, q);
+	}
+
+	@Override
+	public void getRotationMatrix(float[] rotationMatrix)
+	{
+		SensorMath.getRotationMatrixFromVector(rotationMatrix, q);
+	}
+
+	@Override
+	public void update(float wx, float wy, float wz, float ax, float ay,
+			float az, float dT, float[] gravity)
+	{
+		float q0 = q[3];
+		float q1 = q[0];
+		float q2 = q[1];
+		float q3 = q[2];
+
+		// The rate of change of the quaternion from the gyroscope.
+		float qDot0 = 0.5f * (-q1 * wx - q2 * wy - q3 * wz);
+		float qDot1 = 0.5f * (q0 * wx + q2 * wz - q3 * wy);
+		float qDot2 = 0.5f * (q0 * wy - q1 * wz + q3 * wx);
+		float qDot3 = 0.5f * (q0 * wz + q1 * wy - q2 * wx);
+
+		final float aNorm = ax * ax + ay * ay + az * az;
+
+		// Skip the correction when the acceleration is invalid, it can not be
+		// normalized.
+		if (aNorm > FusionEngine.EPSILON)
+		{
+			final float recipNorm = 1.0f / (float) Math.sqrt(aNorm);
+
+			ax *= recipNorm;
+			ay *= recipNorm;
+			az *= recipNorm;
+
+			final float _2q0 = 2.0f * q0;
+			final float _2q1 = 2.0f * q1;
+			final float _2q2 = 2.0f * q2;
+			final float _2q3 = 2.0f * q3;
+			final float _4q0 = 4.0f * q0;
+			final float _4q1 = 4.0f * q1;
+			final float _4q2 = 4.0f * q2;
+			final float _8q1 = 8.0f * q1;
+			final float _8q2 = 8.0f * q2;
+			final float q0q0 = q0 * q0;
+			final float q1q1 = q1 * q1;
+			final float q2q2 = q2 * q2;
+			final float q3q3 = q3 * q3;
+
+			// The gradient of the objective function, the difference between
+			// the estimated and the measured direction of gravity.
+			float s0 = _4q0 * q2q2 + _2q2 * ax + _4q0 * q1q1 - _2q1 * ay;
+			float s1 = _4q1 * q3q3 - _2q3 * ax + 4.0f * q0q0 * q1 - _2q0 * ay
+					- _4q1 + _8q1 * q1q1 + _8q1 * q2q2 + _4q1 * az;
+			float s2 = 4.0f * q0q0 * q2 + _2q0 * ax + _4q2 * q3q3 - _2q3 * ay
+					- _4q2 + _8q2 * q1q1 + _8q2 * q2q2 + _4q2 * az;
+			float s3 = 4.0f * q1q1 * q3 - _2q1 * ax + 4.0f * q2q2 * q3 - _2q2
+					* ay;
+
+			final float sNorm = s0 * s0 + s1 * s1 + s2 * s2 + s3 * s3;
+
+			// The gradient vanishes when the estimate matches exactly.
+			if (sNorm > FusionEngine.EPSILON)
+			{
+				final float step = beta / (float) Math.sqrt(sNorm);
+
+				qDot0 -= step * s0;
+				qDot1 -= step * s1;
+				qDot2 -= step * s2;
+				qDot3 -= step * s3;
+			}
+		}
+
+		q0 += qDot0 * dT;
+		q1 += qDot1 * dT;
+		q2 += qDot2 * dT;
+		q3 += qDot3 * dT;
+
+		final float recipNorm = 1.0f / (float) Math.sqrt(q0 * q0 + q1 * q1
+				+ q2 * q2 + q3 * q3);
+
+		q[0] = q1 * recipNorm;
+		q[1] = q2 * recipNorm;
+		q[2] = q3 * recipNorm;
+		q[3] = q0 * recipNorm;
+
+		// The gravity vector in the device frame is the last row of the
+		// rotation matrix of the quaternion.
+		gravity[0] = SensorMath.GRAVITY_EARTH * 2.0f
+				* (q[0] * q[2] - q[3] * q[1]);
+		gravity[1] = SensorMath.GRAVITY_EARTH * 2.0f
+				* (q[1] * q[2] + q[3] * q[0]);
+		gravity[2] = SensorMath.GRAVITY_EARTH
+				* (1.0f - 2.0f * (q[0] * q[0] + q[1] * q[1]));
+	}
+}
@@ -0,0 +1,161 @@
+package com.kircherelectronics.gyrolinearacceleration.fusion;
+
+/*
+ * Copyright (C) 2013, Kaleb Kircher - Boki Software, Kircher Engineering, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Mahony's complementary filter for a gyroscope and an accelerometer. The
+ * error between the estimated and the measured direction of gravity is fed
+ * back into the angular velocity through a proportional and an integral term
+ * before the gyroscope is integrated into a unit quaternion. The integral term
+ * learns a constant gyroscope bias. The azimuth is not corrected.
+ * 
+ * @author Kaleb
+ * @see http://www.x-io.co.uk/open-source-imu-and-ahrs-algorithms/
+ * @version %I%, %G%
+ */
+public class MahonyFilter implements FusionAlgorithm
+{
+	private static final float DEFAULT_KP = 0.5f;
+	private static final float DEFAULT_KI = 0.01f;
+
+	private float kp = DEFAULT_KP;
+	private float ki = DEFAULT_KI;
+
+	// The integral of the error, the estimated gyroscope bias in rad/s.
+	private float integralX;
+	private float integralY;
+	private float integralZ;
+
+	// The current rotation as a unit quaternion (x, y, z, w).
+	private float[] q = new float[]
+	{ 0, 0, 0, 1 };
+
+	/**
+	 * Set the gains of the feedback.
+	 * 
+	 * @param kp
+	 *            the proportional gain, the default is 0.5.
+	 * @param ki
+	 *            the integral gain, the default is 0.01. Zero disables the
+	 *            bias estimate.
+	 */
+	public void setGains(float kp, float ki)
+	{
+		this.kp = kp;
+		this.ki = ki;
+	}
+
+	@Override
+	public void setRotationMatrix(float[] rotationMatrix)
+	{
+		SensorMath.matrixToQuaternion(rotationMatrix, q);
+
+		integralX = 0;
+		integralY = 0;
+		integralZ = 0;
+	}
+
+	@Override
+	public void getRotationMatrix(float[] rotationMatrix)
+	{
+		SensorMath.getRotationMatrixFromVector(rotationMatrix, q);
+	}
+
+	@Override
+	public void update(float wx, float wy, float wz, float ax, float ay,
+			float az, float dT, float[] gravity)
+	{
+		float q0 = q[3];
+		float q1 = q[0];
+		float q2 = q[1];
+		float q3 = q[2];
+
+		final float aNorm = ax * ax + ay * ay + az * az;
+
+		// Skip the feedback when the acceleration is invalid, it can not be
+		// normalized.
+		if (aNorm > FusionEngine.EPSILON)
+		{
+			final float recipNorm = 1.0f / (float) Math.sqrt(aNorm);
+
+			ax *= recipNorm;
+			ay *= recipNorm;
+			az *= recipNorm;
+
+			// The estimated direction of gravity, half of the last row of the
+			// rotation matrix.
+			final float halfVx = q1 * q3 - q0 * q2;
+			final float halfVy = q0 * q1 + q2 * q3;
+			final float halfVz = q0 * q0 - 0.5f + q3 * q3;
+
+			// The error is the cross product of the measured and the
+			// estimated direction of gravity.
+			final float halfEx = ay * halfVz - az * halfVy;
+			final float halfEy = az * halfVx - ax * halfVz;
+			final float halfEz = ax * halfVy - ay * halfVx;
+
+			if (ki > 0)
+			{
+				integralX += 2.0f * ki * halfEx * dT;
+				integralY += 2.0f * ki * halfEy * dT;
+				integralZ += 2.0f * ki * halfEz * dT;
+
+				wx += integralX;
+				wy += integralY;
+				wz += integralZ;
+			}
+
+			wx += 2.0f * kp * halfEx;
+			wy += 2.0f * kp * halfEy;
+			wz += 2.0f * kp * halfEz;
+		}
+
+		// Integrate the rate of change of the quaternion.
+		final float halfDT = 0.5f * dT;
+
+		wx *= halfDT;
+		wy *= halfDT;
+		wz *= halfDT;
+
+		final float qa = q0;
+		final float qb = q1;
+		final float qc = q2;
+
+		q0 += -qb * wx - qc * wy - q3 * wz;
+		q1 += qa * wx + qc * wz - q3 * wy;
+		q2 += qa * wy - qb * wz + q3 * wx;
+		q3 += qa * wz + qb * wy - qc * wx;
+
+		final float recipNorm = 1.0f / (float) Math.sqrt(q0 * q0 + q1 * q1
+				+ q2 * q2 + q3 * q3);
+
+		q[0] = q1 * recipNorm;
+		q[1] = q2 * recipNorm;
+		q[2] = q3 * recipNorm;
+		q[3] = q0 * recipNorm;
+
+		// The gravity vector in the device frame is the last row of the
+		// rotation matrix of the quaternion.
+		gravity[0] = SensorMath.GRAVITY_EARTH * 2.0f
+				* (q[0] * q[2] - q[3] * q[1]);
+		gravity[1] = SensorMath.GRAVITY_EARTH * 2.0f
+				* (q[1] * q[2] + q[3] * q[0]);
+		gravity[2] = SensorMath.GRAVITY_EARTH
+				* (1.0f - 2.0f * (q[0] * q[0] + q[1] * q[1]));
+	}
+}
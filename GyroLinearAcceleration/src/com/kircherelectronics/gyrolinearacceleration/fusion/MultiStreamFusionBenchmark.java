@@ -0,0 +1,274 @@
+package com.kircherelectronics.gyrolinearacceleration.fusion;
+
+import java.util.Random;
+
+/*
+ * Copyright (C) 2013, Kaleb Kircher - Boki Software, Kircher Engineering, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Compares the MultiStreamFusion with one FusionEngine per stream, each
+ * configured the same way: quaternion integration, the default mean filters
+ * and no gyroscope bias estimation. Every time step gives each stream one
+ * acceleration and gyroscope sample, the engines are fed them one stream at a
+ * time through onAcceleration() and onGyroscope() like independent sensors.
+ * For each number of streams the cost per stream and sample of both is
+ * reported, with whether their output of the last step is bit-identical.
+ * 
+ * Run from the command line with the optional argument [samples], the number
+ * of stream samples per run, to print one CSV row per number of streams.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class MultiStreamFusionBenchmark
+{
+	// 200 Hz in nanoseconds.
+	private static final long SAMPLE_PERIOD = 5000000;
+
+	// The number of time steps of samples generated, reused in turn.
+	private static final int PATTERNS = 64;
+
+	private static final int[] STREAMS =
+	{ 100, 1000, 10000 };
+
+	// The number of times each engine is run, the fastest run is kept.
+	private static final int RUNS = 9;
+
+	private static final float[] GRAVITY =
+	{ 1.0f, 2.0f, 9.5f };
+
+	private static final float[] MAGNETIC =
+	{ 0, 22.0f, -40.0f };
+
+	private final int streams;
+
+	private final int steps;
+
+	// The samples of each pattern, by the index of the stream.
+	private float[][] ax;
+	private float[][] ay;
+	private float[][] az;
+	private float[][] gx;
+	private float[][] gy;
+	private float[][] gz;
+
+	private long[] timestamps;
+
+	// The linear acceleration of the last step of each engine.
+	private float[] mx;
+	private float[] my;
+	private float[] mz;
+	private float[] ex;
+	private float[] ey;
+	private float[] ez;
+
+	/**
+	 * Generate the samples.
+	 * 
+	 * @param streams
+	 *            the number of streams.
+	 * @param steps
+	 *            the number of time steps of a run.
+	 */
+	public MultiStreamFusionBenchmark(int streams, int steps)
+	{
+		super();
+
+		this.streams = streams;
+		this.steps = steps;
+
+		generate();
+	}
+
+	public static void main(String[] args)
+	{
+		long samples = args.length > 0 ? Long.parseLong(args[0]) : 2000000;
+
+		System.out
+				.println("streams,multi-stream ns/sample,engines ns/sample,speedup,bit-identical");
+
+		for (int i = 0; i < STREAMS.length; i++)
+		{
+			final int streams = STREAMS[i];
+
+			MultiStreamFusionBenchmark benchmark = new MultiStreamFusionBenchmark(
+					streams, (int) Math.max(1, samples / streams));
+
+			long bestMultiStream = Long.MAX_VALUE;
+			long bestEngines = Long.MAX_VALUE;
+
+			for (int r = 0; r < RUNS; r++)
+			{
+				bestMultiStream = Math.min(bestMultiStream,
+						benchmark.runMultiStream());
+				bestEngines = Math.min(bestEngines, benchmark.runEngines());
+			}
+
+			final double n = (double) streams * benchmark.steps;
+
+			System.out.println(streams + "," + (float) (bestMultiStream / n)
+					+ "," + (float) (bestEngines / n) + ","
+					+ (float) bestEngines / bestMultiStream + ","
+					+ benchmark.identical());
+		}
+	}
+
+	/**
+	 * Run the samples through a MultiStreamFusion.
+	 * 
+	 * @return the time it took in nanoseconds.
+	 */
+	private long runMultiStream()
+	{
+		MultiStreamFusion fusion = new MultiStreamFusion(streams);
+
+		for (int i = 0; i < streams; i++)
+		{
+			fusion.setInitialOrientation(i, GRAVITY, MAGNETIC);
+		}
+
+		final long start = System.nanoTime();
+
+		for (int s = 0; s < steps; s++)
+		{
+			final int p = s % PATTERNS;
+			final long timestamp = (s + 1) * SAMPLE_PERIOD;
+
+			for (int i = 0; i < streams; i++)
+			{
+				timestamps[i] = timestamp;
+			}
+
+			fusion.step(timestamps, ax[p], ay[p], az[p], gx[p], gy[p], gz[p],
+					mx, my, mz);
+		}
+
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Run the samples through one FusionEngine per stream.
+	 * 
+	 * @return the time it took in nanoseconds.
+	 */
+	private long runEngines()
+	{
+		FusionEngine[] engines = new FusionEngine[streams];
+
+		for (int i = 0; i < streams; i++)
+		{
+			engines[i] = new FusionEngine();
+			engines[i].setQuaternionIntegration(true);
+			engines[i].setBiasEstimation(false);
+			engines[i].setInitialOrientation(GRAVITY, MAGNETIC);
+		}
+
+		float[] acceleration = new float[3];
+		float[] gyroscope = new float[3];
+		float[] linearAcceleration = new float[3];
+
+		final long start = System.nanoTime();
+
+		for (int s = 0; s < steps; s++)
+		{
+			final int p = s % PATTERNS;
+			final long timestamp = (s + 1) * SAMPLE_PERIOD;
+
+			for (int i = 0; i < streams; i++)
+			{
+				acceleration[0] = ax[p][i];
+				acceleration[1] = ay[p][i];
+				acceleration[2] = az[p][i];
+
+				gyroscope[0] = gx[p][i];
+				gyroscope[1] = gy[p][i];
+				gyroscope[2] = gz[p][i];
+
+				engines[i].onAcceleration(acceleration, timestamp);
+				engines[i].onGyroscope(gyroscope, timestamp);
+				engines[i].getLinearAcceleration(linearAcceleration);
+
+				ex[i] = linearAcceleration[0];
+				ey[i] = linearAcceleration[1];
+				ez[i] = linearAcceleration[2];
+			}
+		}
+
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Compare the output of the last step of both engines bit for bit.
+	 * 
+	 * @return true if every value has the same bits.
+	 */
+	private boolean identical()
+	{
+		for (int i = 0; i < streams; i++)
+		{
+			if (Float.floatToRawIntBits(mx[i]) != Float.floatToRawIntBits(ex[i])
+					|| Float.floatToRawIntBits(my[i]) != Float
+							.floatToRawIntBits(ey[i])
+					|| Float.floatToRawIntBits(mz[i]) != Float
+							.floatToRawIntBits(ez[i]))
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Generate the samples of the patterns: gravity with noise for the
+	 * acceleration and a random rotation for the gyroscope.
+	 */
+	private void generate()
+	{
+		ax = new float[PATTERNS][streams];
+		ay = new float[PATTERNS][streams];
+		az = new float[PATTERNS][streams];
+		gx = new float[PATTERNS][streams];
+		gy = new float[PATTERNS][streams];
+		gz = new float[PATTERNS][streams];
+
+		Random random = new Random(42);
+
+		for (int p = 0; p < PATTERNS; p++)
+		{
+			for (int i = 0; i < streams; i++)
+			{
+				ax[p][i] = (float) (GRAVITY[0] + 0.5 * random.nextGaussian());
+				ay[p][i] = (float) (GRAVITY[1] + 0.5 * random.nextGaussian());
+				az[p][i] = (float) (GRAVITY[2] + 0.5 * random.nextGaussian());
+
+				gx[p][i] = (float) (0.3 * random.nextGaussian());
+				gy[p][i] = (float) (0.3 * random.nextGaussian());
+				gz[p][i] = (float) (0.3 * random.nextGaussian());
+			}
+		}
+
+		timestamps = new long[streams];
+
+		mx = new float[streams];
+		my = new float[streams];
+		mz = new float[streams];
+		ex = new float[streams];
+		ey = new float[streams];
+		ez = new float[streams];
+	}
+}
@@ -0,0 +1,142 @@
+package com.kircherelectronics.gyrolinearacceleration.fusion;
+
+/*
+ * Copyright (C) 2013, Kaleb Kircher - Boki Software, Kircher Engineering, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Integrates the gyroscope into a unit quaternion (x, y, z, w) that is updated
+ * with a single quaternion product per sample. The gravity components are
+ * taken directly from the quaternion, so no Euler angles or transcendental
+ * functions are evaluated. The accelerometer is not used to correct the
+ * orientation.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class QuaternionIntegration implements FusionAlgorithm
+{
+	// The current rotation as a unit quaternion (x, y, z, w).
+	private float[] q = new float[]
+	{ 0, 0, 0, 1 };
+
+	@Override
+	public void setRotationMatrix(float[] rotationMatrix)
+	{
+		SensorMath.matrixToQuaternion(rotationMatrix, q);
+	}
+
+	@Override
+	public void getRotationMatrix(float[] rotationMatrix)
+	{
+		SensorMath.getRotationMatrixFromVector(rotationMatrix, q);
+	}
+
+	/**
+	 * Integrate the gyroscope sample into the current rotation quaternion and
+	 * find the gravity components directly from the quaternion.
+	 */
+	@Override
+	public void update(float wx, float wy, float wz, float ax, float ay,
+			float az, float dT, float[] gravity)
+	{
+		integrate(q, 0, wx, wy, wz, dT);
+		getGravity(q, 0, gravity);
+	}
+
+	/**
+	 * Integrate a gyroscope sample into a unit quaternion (x, y, z, w) held
+	 * in an array, shared with MultiStreamFusion which keeps the quaternions
+	 * of all of its streams in one array. The delta rotation uses the series
+	 * expansion of sin and cos of the half angle, which is accurate to better
+	 * than 1e-8 for the rotations seen between two gyroscope samples, and
+	 * avoids normalizing the rotation axis.
+	 * 
+	 * @param q
+	 *            the array holding the quaternion.
+	 * @param offset
+	 *            the index of the x component of the quaternion.
+	 * @param wx
+	 *            the x-axis angular velocity in rad/s.
+	 * @param wy
+	 *            the y-axis angular velocity in rad/s.
+	 * @param wz
+	 *            the z-axis angular velocity in rad/s.
+	 * @param dT
+	 *            the time step in seconds.
+	 */
+	static void integrate(float[] q, int offset, float wx, float wy,
+			float wz, float dT)
+	{
+		final float halfDT = dT / 2.0f;
+
+		// The square of the half angle of the rotation over the time step.
+		final float thetaOverTwoSq = (wx * wx + wy * wy + wz * wz) * halfDT
+				* halfDT;
+
+		// sin(theta/2)/omega and cos(theta/2).
+		final float s = halfDT * (1.0f - thetaOverTwoSq / 6.0f);
+		final float c = 1.0f - thetaOverTwoSq / 2.0f + thetaOverTwoSq
+				* thetaOverTwoSq / 24.0f;
+
+		final float dx = s * wx;
+		final float dy = s * wy;
+		final float dz = s * wz;
+
+		final float x0 = q[offset];
+		final float y0 = q[offset + 1];
+		final float z0 = q[offset + 2];
+		final float w0 = q[offset + 3];
+
+		// q = q * dq
+		float x = w0 * dx + x0 * c + y0 * dz - z0 * dy;
+		float y = w0 * dy - x0 * dz + y0 * c + z0 * dx;
+		float z = w0 * dz + x0 * dy - y0 * dx + z0 * c;
+		float w = w0 * c - x0 * dx - y0 * dy - z0 * dz;
+
+		// Keep the quaternion at unit length. The norm is always very close
+		// to one so a first order correction is enough and avoids a sqrt.
+		final float n = (3.0f - (x * x + y * y + z * z + w * w)) / 2.0f;
+
+		q[offset] = x * n;
+		q[offset + 1] = y * n;
+		q[offset + 2] = z * n;
+		q[offset + 3] = w * n;
+	}
+
+	/**
+	 * Find the gravity vector in the device frame from a unit quaternion held
+	 * in an array, the last row of the rotation matrix of the quaternion.
+	 * 
+	 * @param q
+	 *            the array holding the quaternion.
+	 * @param offset
+	 *            the index of the x component of the quaternion.
+	 * @param gravity
+	 *            the array the gravity (x, y, z) in m/s^2 will be written to.
+	 */
+	static void getGravity(float[] q, int offset, float[] gravity)
+	{
+		final float x = q[offset];
+		final float y = q[offset + 1];
+		final float z = q[offset + 2];
+		final float w = q[offset + 3];
+
+		gravity[0] = SensorMath.GRAVITY_EARTH * 2.0f * (x * z - w * y);
+		gravity[1] = SensorMath.GRAVITY_EARTH * 2.0f * (y * z + w * x);
+		gravity[2] = SensorMath.GRAVITY_EARTH * (1.0f - 2.0f * (x * x + y * y));
+	}
+}
@@ -0,0 +1,185 @@
+package com.kircherelectronics.gyrolinearacceleration.fusion;
+
+/*
+ * Copyright (C) 2013, Kaleb Kircher - Boki Software, Kircher Engineering, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The original fusion of the FusionEngine. The gyroscope is integrated into a
+ * rotation matrix and the gravity components are found from the Cardan angles
+ * of the rotation. The accelerometer is not used to correct the orientation.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class RotationMatrixIntegration implements FusionAlgorithm
+{
+	private float[] currentRotationMatrix = new float[9];
+	private float[] deltaRotationMatrix = new float[9];
+	// Scratch space for the matrix products so the gyroscope integration does
+	// not allocate a new matrix for every sample.
+	private float[] tempRotationMatrix = new float[9];
+	private float[] deltaRotationVector = new float[4];
+	private float[] gyroscopeOrientation = new float[3];
+
+	// Take the gravity components directly from the rotation matrix instead
+	// of from its Cardan angles.
+	private boolean gravityFromRotationMatrix = false;
+
+	/**
+	 * Initialize the state.
+	 */
+	public RotationMatrixIntegration()
+	{
+		super();
+
+		// Initialize the current rotation matrix as an identity matrix...
+		currentRotationMatrix[0] = 1.0f;
+		currentRotationMatrix[4] = 1.0f;
+		currentRotationMatrix[8] = 1.0f;
+	}
+
+	/**
+	 * Select how the gravity components are found. By default the Cardan
+	 * angles of the rotation matrix are found with getOrientation() and the
+	 * gravity components are rebuilt from them with sin and cos. The gravity
+	 * vector in the device frame is simply GRAVITY_EARTH times the last row of
+	 * the rotation matrix, which gives the same result without any
+	 * trigonometry. The two only agree exactly while the rotation matrix is
+	 * orthonormal, as the integrated matrix slowly drifts they can differ by a
+	 * few mm/s^2.
+	 * 
+	 * @param gravityFromRotationMatrix
+	 *            true to take the gravity components from the rotation
+	 *            matrix.
+	 */
+	public void setGravityFromRotationMatrix(boolean gravityFromRotationMatrix)
+	{
+		this.gravityFromRotationMatrix = gravityFromRotationMatrix;
+	}
+
+	@Override
+	public void setRotationMatrix(float[] rotationMatrix)
+	{
+		System.arraycopy(rotationMatrix, 0, currentRotationMatrix, 0, 9);
+	}
+
+	@Override
+	public void getRotationMatrix(float[] rotationMatrix)
+	{
+		System.arraycopy(currentRotationMatrix, 0, rotationMatrix, 0, 9);
+	}
+
+	/**
+	 * Integrate the gyroscope sample into the current rotation matrix and find
+	 * the gravity components from the Cardan angles of the rotation, or from
+	 * the rotation matrix directly.
+	 */
+	@Override
+	public void update(float wx, float wy, float wz, float ax, float ay,
+			float az, float dT, float[] gravity)
+	{
+		// Axis of the rotation sample, not normalized yet.
+		float axisX = wx;
+		float axisY = wy;
+		float axisZ = wz;
+
+		// Calculate the angular speed of the sample
+		float omegaMagnitude = (float) Math.sqrt(axisX * axisX + axisY * axisY
+				+ axisZ * axisZ);
+
+		// Normalize the rotation vector if it's big enough to get the axis
+		if (omegaMagnitude > FusionEngine.EPSILON)
+		{
+			axisX /= omegaMagnitude;
+			axisY /= omegaMagnitude;
+			axisZ /= omegaMagnitude;
+		}
+
+		// Integrate around this axis with the angular speed by the timestep
+		// in order to get a delta rotation from this sample over the
+		// timestep. We will convert this axis-angle representation of the
+		// delta rotation into a quaternion before turning it into the
+		// rotation matrix.
+		float thetaOverTwo = omegaMagnitude * dT / 2.0f;
+
+		float sinThetaOverTwo = (float) Math.sin(thetaOverTwo);
+		float cosThetaOverTwo = (float) Math.cos(thetaOverTwo);
+
+		deltaRotationVector[0] = sinThetaOverTwo * axisX;
+		deltaRotationVector[1] = sinThetaOverTwo * axisY;
+		deltaRotationVector[2] = sinThetaOverTwo * axisZ;
+		deltaRotationVector[3] = cosThetaOverTwo;
+
+		SensorMath.getRotationMatrixFromVector(deltaRotationMatrix,
+				deltaRotationVector);
+
+		updateRotationMatrix(deltaRotationMatrix);
+
+		if (gravityFromRotationMatrix)
+		{
+			// The gravity vector in the device frame is the last row of the
+			// rotation matrix, the same result as the Cardan angles below
+			// without the atan2, asin, sin and cos.
+			gravity[0] = SensorMath.GRAVITY_EARTH * currentRotationMatrix[6];
+			gravity[1] = SensorMath.GRAVITY_EARTH * currentRotationMatrix[7];
+			gravity[2] = SensorMath.GRAVITY_EARTH * currentRotationMatrix[8];
+
+			return;
+		}
+
+		SensorMath.getOrientation(currentRotationMatrix, gyroscopeOrientation);
+
+		// values[0]: azimuth, rotation around the Z axis.
+		// values[1]: pitch, rotation around the X axis.
+		// values[2]: roll, rotation around the Y axis.
+
+		// Find the gravity component of the X-axis
+		// = g*-cos(pitch)*sin(roll);
+		gravity[0] = (float) (SensorMath.GRAVITY_EARTH
+				* -Math.cos(gyroscopeOrientation[1]) * Math
+				.sin(gyroscopeOrientation[2]));
+
+		// Find the gravity component of the Y-axis
+		// = g*-sin(pitch);
+		gravity[1] = (float) (SensorMath.GRAVITY_EARTH * -Math
+				.sin(gyroscopeOrientation[1]));
+
+		// Find the gravity component of the Z-axis
+		// = g*cos(pitch)*cos(roll);
+		gravity[2] = (float) (SensorMath.GRAVITY_EARTH
+				* Math.cos(gyroscopeOrientation[1]) * Math
+				.cos(gyroscopeOrientation[2]));
+	}
+
+	/**
+	 * Post-multiply the current rotation matrix by the rotation matrix r
+	 * without allocating. The product is written into the scratch matrix which
+	 * then becomes the current rotation matrix.
+	 * 
+	 * @param r
+	 *            the rotation to apply to the current rotation matrix.
+	 */
+	private void updateRotationMatrix(float[] r)
+	{
+		SensorMath.matrixMultiplication(currentRotationMatrix, r,
+				tempRotationMatrix);
+
+		float[] swap = currentRotationMatrix;
+		currentRotationMatrix = tempRotationMatrix;
+		tempRotationMatrix = swap;
+	}
+}
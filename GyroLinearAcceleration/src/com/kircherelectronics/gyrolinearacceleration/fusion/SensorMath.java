@@ -0,0 +1,295 @@
+package com.kircherelectronics.gyrolinearacceleration.fusion;
+
+/*
+ * Copyright (C) 2013, Kaleb Kircher - Boki Software, Kircher Engineering, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Pure Java implementations of the rotation routines the fusion needs from
+ * android.hardware.SensorManager. The routines follow the Android
+ * implementations and conventions exactly so the fusion produces the same
+ * results on and off of a device. Rotation matrices are 3x3 and stored in
+ * row-major one-dimensional arrays, rotation vectors and quaternions are
+ * stored as (x, y, z, w).
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public final class SensorMath
+{
+	/**
+	 * Standard gravity (g) on Earth. This value is equivalent to
+	 * SensorManager.GRAVITY_EARTH.
+	 */
+	public static final float GRAVITY_EARTH = 9.80665f;
+
+	private SensorMath()
+	{
+	}
+
+	/**
+	 * Computes the inclination matrix I as well as the rotation matrix R
+	 * transforming a vector from the device coordinate system to the world's
+	 * coordinate system. Equivalent to SensorManager.getRotationMatrix().
+	 * 
+	 * @param R
+	 *            the rotation matrix, may be null.
+	 * @param I
+	 *            the inclination matrix, may be null.
+	 * @param gravity
+	 *            the gravity vector (x, y, z) in the device coordinate system.
+	 * @param geomagnetic
+	 *            the geomagnetic vector (x, y, z) in the device coordinate
+	 *            system.
+	 * @return true on success, false on failure (for instance, if the device
+	 *         is in free fall or close to magnetic north).
+	 */
+	public static boolean getRotationMatrix(float[] R, float[] I,
+			float[] gravity, float[] geomagnetic)
+	{
+		float Ax = gravity[0];
+		float Ay = gravity[1];
+		float Az = gravity[2];
+
+		final float normsqA = (Ax * Ax + Ay * Ay + Az * Az);
+		final float g = 9.81f;
+		final float freeFallGravitySquared = 0.01f * g * g;
+
+		// The gravity is less than 10% of normal, the device is in free fall.
+		if (normsqA < freeFallGravitySquared)
+		{
+			return false;
+		}
+
+		final float Ex = geomagnetic[0];
+		final float Ey = geomagnetic[1];
+		final float Ez = geomagnetic[2];
+
+		float Hx = Ey * Az - Ez * Ay;
+		float Hy = Ez * Ax - Ex * Az;
+		float Hz = Ex * Ay - Ey * Ax;
+
+		final float normH = (float) Math.sqrt(Hx * Hx + Hy * Hy + Hz * Hz);
+
+		// The device is close to free fall, in space, or close to magnetic
+		// north.
+		if (normH < 0.1f)
+		{
+			return false;
+		}
+
+		final float invH = 1.0f / normH;
+		Hx *= invH;
+		Hy *= invH;
+		Hz *= invH;
+
+		final float invA = 1.0f / (float) Math.sqrt(Ax * Ax + Ay * Ay + Az
+				* Az);
+		Ax *= invA;
+		Ay *= invA;
+		Az *= invA;
+
+		final float Mx = Ay * Hz - Az * Hy;
+		final float My = Az * Hx - Ax * Hz;
+		final float Mz = Ax * Hy - Ay * Hx;
+
+		if (R != null)
+		{
+			R[0] = Hx;
+			R[1] = Hy;
+			R[2] = Hz;
+			R[3] = Mx;
+			R[4] = My;
+			R[5] = Mz;
+			R[6] = Ax;
+			R[7] = Ay;
+			R[8] = Az;
+		}
+
+		if (I != null)
+		{
+			// Compute the inclination matrix by projecting the geomagnetic
+			// vector onto the Z (gravity) and X (horizontal component of
+			// geomagnetic vector) axes.
+			final float invE = 1.0f / (float) Math.sqrt(Ex * Ex + Ey * Ey + Ez
+					* Ez);
+			final float c = (Ex * Mx + Ey * My + Ez * Mz) * invE;
+			final float s = (Ex * Ax + Ey * Ay + Ez * Az) * invE;
+
+			I[0] = 1;
+			I[1] = 0;
+			I[2] = 0;
+			I[3] = 0;
+			I[4] = c;
+			I[5] = s;
+			I[6] = 0;
+			I[7] = -s;
+			I[8] = c;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Convert a rotation vector to a rotation matrix. Equivalent to
+	 * SensorManager.getRotationMatrixFromVector() for a 3x3 matrix.
+	 * 
+	 * @param R
+	 *            the array the rotation matrix will be written to.
+	 * @param rotationVector
+	 *            the rotation vector (x, y, z) or unit quaternion (x, y, z,
+	 *            w).
+	 */
+	public static void getRotationMatrixFromVector(float[] R,
+			float[] rotationVector)
+	{
+		float q0;
+		float q1 = rotationVector[0];
+		float q2 = rotationVector[1];
+		float q3 = rotationVector[2];
+
+		if (rotationVector.length >= 4)
+		{
+			q0 = rotationVector[3];
+		}
+		else
+		{
+			q0 = 1 - q1 * q1 - q2 * q2 - q3 * q3;
+			q0 = (q0 > 0) ? (float) Math.sqrt(q0) : 0;
+		}
+
+		float sq_q1 = 2 * q1 * q1;
+		float sq_q2 = 2 * q2 * q2;
+		float sq_q3 = 2 * q3 * q3;
+		float q1_q2 = 2 * q1 * q2;
+		float q3_q0 = 2 * q3 * q0;
+		float q1_q3 = 2 * q1 * q3;
+		float q2_q0 = 2 * q2 * q0;
+		float q2_q3 = 2 * q2 * q3;
+		float q1_q0 = 2 * q1 * q0;
+
+		R[0] = 1 - sq_q2 - sq_q3;
+		R[1] = q1_q2 - q3_q0;
+		R[2] = q1_q3 + q2_q0;
+
+		R[3] = q1_q2 + q3_q0;
+		R[4] = 1 - sq_q1 - sq_q3;
+		R[5] = q2_q3 - q1_q0;
+
+		R[6] = q1_q3 - q2_q0;
+		R[7] = q2_q3 + q1_q0;
+		R[8] = 1 - sq_q1 - sq_q2;
+	}
+
+	/**
+	 * Computes the device's orientation based on the rotation matrix.
+	 * Equivalent to SensorManager.getOrientation().
+	 * 
+	 * values[0]: azimuth, rotation around the Z axis.
+	 * values[1]: pitch, rotation around the X axis.
+	 * values[2]: roll, rotation around the Y axis.
+	 * 
+	 * @param R
+	 *            the rotation matrix.
+	 * @param values
+	 *            the array the orientation (radians) will be written to.
+	 * @return values.
+	 */
+	public static float[] getOrientation(float[] R, float[] values)
+	{
+		values[0] = (float) Math.atan2(R[1], R[4]);
+		values[1] = (float) Math.asin(-R[7]);
+		values[2] = (float) Math.atan2(-R[6], R[8]);
+
+		return values;
+	}
+
+	/**
+	 * Multiply matrix a by b. Android gives us matrices results in
+	 * one-dimensional arrays instead of two, so instead of using some (O)2 to
+	 * transfer to a two-dimensional array and then an (O)3 algorithm to
+	 * multiply, we just use a static linear time method. The result must not
+	 * be the same array as a or b.
+	 * 
+	 * @param a
+	 * @param b
+	 * @param result
+	 *            the array a*b will be written to.
+	 */
+	public static void matrixMultiplication(float[] a, float[] b,
+			float[] result)
+	{
+		result[0] = a[0] * b[0] + a[1] * b[3] + a[2] * b[6];
+		result[1] = a[0] * b[1] + a[1] * b[4] + a[2] * b[7];
+		result[2] = a[0] * b[2] + a[1] * b[5] + a[2] * b[8];
+
+		result[3] = a[3] * b[0] + a[4] * b[3] + a[5] * b[6];
+		result[4] = a[3] * b[1] + a[4] * b[4] + a[5] * b[7];
+		result[5] = a[3] * b[2] + a[4] * b[5] + a[5] * b[8];
+
+		result[6] = a[6] * b[0] + a[7] * b[3] + a[8] * b[6];
+		result[7] = a[6] * b[1] + a[7] * b[4] + a[8] * b[7];
+		result[8] = a[6] * b[2] + a[7] * b[5] + a[8] * b[8];
+	}
+
+	/**
+	 * Convert a rotation matrix to a unit quaternion (x, y, z, w), the inverse
+	 * of getRotationMatrixFromVector().
+	 * 
+	 * @param r
+	 *            the rotation matrix.
+	 * @param q
+	 *            the array the quaternion will be written to.
+	 */
+	public static void matrixToQuaternion(float[] r, float[] q)
+	{
+		final float trace = r[0] + r[4] + r[8];
+
+		// Pick the largest component first to keep the division stable.
+		if (trace > 0)
+		{
+			float s = (float) Math.sqrt(trace + 1.0f) * 2.0f;
+			q[3] = 0.25f * s;
+			q[0] = (r[7] - r[5]) / s;
+			q[1] = (r[2] - r[6]) / s;
+			q[2] = (r[3] - r[1]) / s;
+		}
+		else if (r[0] > r[4] && r[0] > r[8])
+		{
+			float s = (float) Math.sqrt(1.0f + r[0] - r[4] - r[8]) * 2.0f;
+			q[3] = (r[7] - r[5]) / s;
+			q[0] = 0.25f * s;
+			q[1] = (r[1] + r[3]) / s;
+			q[2] = (r[2] + r[6]) / s;
+		}
+		else if (r[4] > r[8])
+		{
+			float s = (float) Math.sqrt(1.0f + r[4] - r[0] - r[8]) * 2.0f;
+			q[3] = (r[2] - r[6]) / s;
+			q[0] = (r[1] + r[3]) / s;
+			q[1] = 0.25f * s;
+			q[2] = (r[5] + r[7]) / s;
+		}
+		else
+		{
+			float s = (float) Math.sqrt(1.0f + r[8] - r[0] - r[4]) * 2.0f;
+			q[3] = (r[3] - r[1]) / s;
+			q[0] = (r[2] + r[6]) / s;
+			q[1] = (r[5] + r[7]) / s;
+			q[2] = 0.25f * s;
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package com.kircherelectronics.gyrolinearacceleration.fusion;
+
+/*
+ * Copyright (C) 2013, Kaleb Kircher - Boki Software, Kircher Engineering, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Decides if the device is lying still from the magnitudes of the
+ * acceleration and the angular velocity. The mean and variance of both
+ * magnitudes are kept over the most recent samples with running sums over
+ * primitive ring buffers, so adding a sample is O(1) and does not allocate.
+ * 
+ * The device is stationary when the window is full, both magnitudes barely
+ * vary and the angular velocity is small enough to be gyroscope bias rather
+ * than a slow rotation.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class StationaryDetector
+{
+	// The default largest variance of the acceleration magnitude in
+	// (m/s^2)^2, the angular velocity magnitude in (rad/s)^2 and the largest
+	// mean angular velocity magnitude in rad/s of a device at rest.
+	private static final float ACCELERATION_VARIANCE = 0.01f;
+	private static final float ANGULAR_VELOCITY_VARIANCE = 0.0004f;
+	private static final float ANGULAR_VELOCITY_MAX = 0.1f;
+
+	private final int window;
+
+	private final float[] accelerationHistory;
+	private final float[] angularVelocityHistory;
+
+	private int head = 0;
+	private int count = 0;
+
+	private double accelerationSum;
+	private double accelerationSumSq;
+	private double angularVelocitySum;
+	private double angularVelocitySumSq;
+
+	private float accelerationVariance = ACCELERATION_VARIANCE;
+	private float angularVelocityVariance = ANGULAR_VELOCITY_VARIANCE;
+	private float angularVelocityMax = ANGULAR_VELOCITY_MAX;
+
+	/**
+	 * Initialize the state.
+	 * 
+	 * @param window
+	 *            the number of samples the magnitudes are tracked over.
+	 */
+	public StationaryDetector(int window)
+	{
+		super();
+
+		this.window = window;
+
+		accelerationHistory = new float[window];
+		angularVelocityHistory = new float[window];
+	}
+
+	/**
+	 * Set the thresholds of a device at rest.
+	 * 
+	 * @param accelerationVariance
+	 *            the largest variance of the acceleration magnitude in
+	 *            (m/s^2)^2.
+	 * @param angularVelocityVariance
+	 *            the largest variance of the angular velocity magnitude in
+	 *            (rad/s)^2.
+	 * @param angularVelocityMax
+	 *            the largest mean angular velocity magnitude in rad/s.
+	 */
+	public void setThresholds(float accelerationVariance,
+			float angularVelocityVariance, float angularVelocityMax)
+	{
+		this.accelerationVariance = accelerationVariance;
+		this.angularVelocityVariance = angularVelocityVariance;
+		this.angularVelocityMax = angularVelocityMax;
+	}
+
+	/**
+	 * Add a sample, replacing the oldest sample once the window is full.
+	 * 
+	 * @param ax
+	 *            the x-axis acceleration in m/s^2.
+	 * @param ay
+	 *            the y-axis acceleration in m/s^2.
+	 * @param az
+	 *            the z-axis acceleration in m/s^2.
+	 * @param wx
+	 *            the x-axis angular velocity in rad/s.
+	 * @param wy
+	 *            the y-axis angular velocity in rad/s.
+	 * @param wz
+	 *            the z-axis angular velocity in rad/s.
+	 */
+	public void add(float ax, float ay, float az, float wx, float wy, float wz)
+	{
+		final float a = (float) Math.sqrt(ax * ax + ay * ay + az * az);
+		final float w = (float) Math.sqrt(wx * wx + wy * wy + wz * wz);
+
+		if (count == window)
+		{
+			final float aOld = accelerationHistory[head];
+			final float wOld = angularVelocityHistory[head];
+
+			accelerationSum -= aOld;
+			accelerationSumSq -= (double) aOld * aOld;
+			angularVelocitySum -= wOld;
+			angularVelocitySumSq -= (double) wOld * wOld;
+		}
+		else
+		{
+			count++;
+		}
+
+		accelerationHistory[head] = a;
+		angularVelocityHistory[head] = w;
+
+		accelerationSum += a;
+		accelerationSumSq += (double) a * a;
+		angularVelocitySum += w;
+		angularVelocitySumSq += (double) w * w;
+
+		head = (head + 1) % window;
+	}
+
+	/**
+	 * Indicate if the device is at rest.
+	 * 
+	 * @return true if the device is at rest.
+	 */
+	public boolean isStationary()
+	{
+		if (count < window)
+		{
+			return false;
+		}
+
+		final double angularVelocityMean = angularVelocitySum / count;
+
+		return angularVelocityMean < angularVelocityMax
+				&& variance(angularVelocitySum, angularVelocitySumSq) < angularVelocityVariance
+				&& variance(accelerationSum, accelerationSumSq) < accelerationVariance;
+	}
+
+	/**
+	 * Clear the window.
+	 */
+	public void reset()
+	{
+		head = 0;
+		count = 0;
+
+		accelerationSum = 0;
+		accelerationSumSq = 0;
+		angularVelocitySum = 0;
+		angularVelocitySumSq = 0;
+	}
+
+	/**
+	 * Find the variance of the window from its running sums.
+	 * 
+	 * @param sum
+	 *            the sum of the samples.
+	 * @param sumSq
+	 *            the sum of the squares of the samples.
+	 * @return the variance.
+	 */
+	private double variance(double sum, double sumSq)
+	{
+		final double mean = sum / count;
+
+		// The running sums can round slightly below zero.
+		return Math.max(0, sumSq / count - mean * mean);
+	}
+}
@@ -0,0 +1,297 @@
+package com.kircherelectronics.gyrolinearacceleration.fusion;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+ * Copyright (C) 2013, Kaleb Kircher - Boki Software, Kircher Engineering, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Measures the time to the first fused sample of a FusionEngine after a cold
+ * start and after a warm start from a checkpoint, in sensor time. The sensors
+ * of a device lying still are simulated with noise: gravity, acceleration and
+ * gyroscope at 200 Hz and the magnetometer at 100 Hz. A first engine runs long
+ * enough to estimate its gyroscope bias and writes a checkpoint, which later
+ * engines are started from:
+ * 
+ * cold: no checkpoint.
+ * 
+ * warm: the device has not moved since the checkpoint.
+ * 
+ * tilted: the device was tilted 30 degrees while stopped, the checkpoint must
+ * be discarded.
+ * 
+ * rebooted: the clock has restarted since the checkpoint, the checkpoint must
+ * be discarded.
+ * 
+ * It also checks that a checkpoint survives a write and read round trip: once
+ * a warm started engine has accepted the checkpoint it writes the same
+ * rotation, gyroscope bias and filter window it was started from.
+ * 
+ * Run from the command line to print one CSV row per start.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class WarmStartBenchmark
+{
+	// 200 Hz in nanoseconds.
+	private static final long SAMPLE_PERIOD = 5000000;
+
+	// How long the first engine runs before its checkpoint is written.
+	private static final long CHECKPOINT_AFTER = 10000000000L;
+
+	// How long the engine is stopped between the checkpoint and the restart.
+	private static final long STOPPED = 60000000000L;
+
+	// The most sensor time a start may take.
+	private static final long TIMEOUT = 10000000000L;
+
+	// The bytes of a checkpoint before the rotation: magic, version and the
+	// time stamp of the last gyroscope sample.
+	private static final int CHECKPOINT_HEADER = 16;
+
+	private static final String[] NAMES =
+	{ "cold", "warm", "tilted", "rebooted" };
+
+	private static final float[] GRAVITY =
+	{ 1.0f, 2.0f, 9.5f };
+
+	private static final float[] MAGNETIC =
+	{ 0, 22.0f, -40.0f };
+
+	// The gyroscope bias in rad/s.
+	private static final float[] BIAS =
+	{ 0.01f, -0.008f, 0.005f };
+
+	private final Random random = new Random(42);
+
+	private final float[] acceleration = new float[3];
+	private final float[] magnetic = new float[3];
+	private final float[] gyroscope = new float[3];
+
+	// The gravity of the device, tilted or not.
+	private final float[] gravity = new float[3];
+
+	private WarmStartBenchmark()
+	{
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		WarmStartBenchmark benchmark = new WarmStartBenchmark();
+
+		FusionEngine engine = new FusionEngine();
+		engine.setBiasEstimation(true);
+
+		long end = benchmark.run(engine, 0, 0, CHECKPOINT_AFTER);
+
+		byte[] checkpoint = write(engine);
+
+		System.out.println("start,time to first fused sample ms");
+
+		for (int i = 0; i < NAMES.length; i++)
+		{
+			engine = new FusionEngine();
+
+			if (i > 0)
+			{
+				read(engine, checkpoint);
+			}
+
+			// The reboot restarts the clock, the others continue it.
+			long start = i == 3 ? SAMPLE_PERIOD : end + STOPPED;
+
+			long time = benchmark.run(engine, i == 2 ? 30 : 0, start, 0)
+					- start;
+
+			System.out.println(NAMES[i] + "," + time / 1000000.0);
+		}
+
+		System.out.println("checkpoint round trip,"
+				+ (benchmark.checkRoundTrip(checkpoint, end + STOPPED) ? "ok"
+						: "failed"));
+	}
+
+	/**
+	 * Write the checkpoint of an engine.
+	 * 
+	 * @param engine
+	 *            the engine.
+	 * @return the checkpoint.
+	 * @throws IOException
+	 *             if the checkpoint could not be written.
+	 */
+	private static byte[] write(FusionEngine engine) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		engine.writeCheckpoint(new DataOutputStream(bytes));
+
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Warm start an engine from a checkpoint.
+	 * 
+	 * @param engine
+	 *            the engine.
+	 * @param checkpoint
+	 *            the checkpoint.
+	 * @throws IOException
+	 *             if the checkpoint could not be read.
+	 */
+	private static void read(FusionEngine engine, byte[] checkpoint)
+			throws IOException
+	{
+		engine.readCheckpoint(new DataInputStream(new ByteArrayInputStream(
+				checkpoint)));
+	}
+
+	/**
+	 * Warm start an engine from a checkpoint, feed it gravity samples until it
+	 * accepts the checkpoint and compare the checkpoint it writes with the
+	 * original. The time stamp of the last gyroscope sample is not compared
+	 * since no gyroscope sample has arrived yet.
+	 * 
+	 * @param checkpoint
+	 *            the checkpoint.
+	 * @param start
+	 *            the sensor time of the first sample in nanoseconds.
+	 * @return true if the rotation, bias and filter window are unchanged.
+	 * @throws IOException
+	 *             if the checkpoint could not be read or written.
+	 */
+	private boolean checkRoundTrip(byte[] checkpoint, long start)
+			throws IOException
+	{
+		FusionEngine engine = new FusionEngine();
+
+		read(engine, checkpoint);
+
+		setGravity(0);
+
+		for (long t = start; !engine.hasInitialOrientation(); t +=
+				SAMPLE_PERIOD)
+		{
+			if (t - start > TIMEOUT)
+			{
+				return false;
+			}
+
+			sample(gravity, acceleration);
+
+			engine.onGravity(acceleration, t);
+		}
+
+		byte[] copy = write(engine);
+
+		return copy.length == checkpoint.length
+				&& Arrays.equals(Arrays.copyOfRange(copy, CHECKPOINT_HEADER,
+						copy.length), Arrays.copyOfRange(checkpoint,
+						CHECKPOINT_HEADER, checkpoint.length));
+	}
+
+	/**
+	 * Feed the simulated sensors to an engine, either for a given time or
+	 * until the first fused sample.
+	 * 
+	 * @param engine
+	 *            the engine.
+	 * @param tilt
+	 *            the tilt of the device around its x-axis in degrees.
+	 * @param start
+	 *            the sensor time of the first sample in nanoseconds.
+	 * @param duration
+	 *            how long to run in nanoseconds, or 0 to stop at the first
+	 *            fused sample.
+	 * @return the sensor time of the last sample in nanoseconds.
+	 */
+	private long run(FusionEngine engine, float tilt, long start,
+			long duration)
+	{
+		setGravity(tilt);
+
+		for (long i = 0;; i++)
+		{
+			final long t = start + i * SAMPLE_PERIOD;
+
+			if ((duration > 0 && t - start >= duration)
+					|| t - start > TIMEOUT)
+			{
+				return t;
+			}
+
+			sample(gravity, acceleration);
+			engine.onGravity(acceleration, t);
+
+			if (i % 2 == 0)
+			{
+				sample(MAGNETIC, magnetic);
+				engine.onMagnetic(magnetic, t);
+			}
+
+			sample(gravity, acceleration);
+			engine.onAcceleration(acceleration, t);
+
+			sample(BIAS, gyroscope);
+
+			if (engine.onGyroscope(gyroscope, t) && duration == 0)
+			{
+				return t;
+			}
+		}
+	}
+
+	/**
+	 * Tilt the gravity of the device around its x-axis.
+	 * 
+	 * @param tilt
+	 *            the tilt in degrees.
+	 */
+	private void setGravity(float tilt)
+	{
+		final double angle = Math.toRadians(tilt);
+
+		gravity[0] = GRAVITY[0];
+		gravity[1] = (float) (GRAVITY[1] * Math.cos(angle) - GRAVITY[2]
+				* Math.sin(angle));
+		gravity[2] = (float) (GRAVITY[1] * Math.sin(angle) + GRAVITY[2]
+				* Math.cos(angle));
+	}
+
+	/**
+	 * Add the noise of a sensor to a value.
+	 * 
+	 * @param value
+	 *            the true value (x, y, z).
+	 * @param sample
+	 *            the array the sample will be written to.
+	 */
+	private void sample(float[] value, float[] sample)
+	{
+		for (int i = 0; i < 3; i++)
+		{
+			sample[i] = (float) (value[i] + 0.005 * random.nextGaussian());
+		}
+	}
+}
@@ -2,13 +2,8 @@ package com.kircherelectronics.gyrolinearacceleration.sensor;
 
 import java.util.ArrayList;
 
-import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
-import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
-
 import android.content.Context;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 
 import com.kircherelectronics.gyrolinearacceleration.sensor.observer.AccelerationSensorObserver;
@@ -38,12 +33,11 @@ import com.kircherelectronics.gyrolinearacceleration.sensor.observer.Acceleratio
  * @author Kaleb
  * @version %I%, %G%
  */
-public class AccelerationSensor implements SensorEventListener
+public class AccelerationSensor implements SensorSink
 {
 	/*
-	 * Developer Note: Quaternions are used for the internal representations of
-	 * the rotations which prevents the polar anomalies associated with Gimbal
-	 * lock when using Euler angles for the rotations.
+	 * Developer Note: The rotation of vehicle mode is a fixed remap of the
+	 * axes that is applied in place, see VehicleMode.
 	 */
 	
 	private static final String tag = AccelerationSensor.class.getSimpleName();
@@ -66,22 +60,11 @@ public class AccelerationSensor implements SensorEventListener
 	// The time stamp of the most recent Sensor Event.
 	private long timeStamp = 0;
 
-	// Quaternion data structures to rotate a matrix from the absolute Android
-	// orientation to the orientation that the device is actually in. This is
-	// needed because the the device sensors orientation is fixed in hardware.
-	// Also remember the many algorithms require a NED orientation which is not
-	// the same as the absolute Android orientation. Do not confuse this
-	// rotation with a rotation into absolute earth frame!
-	private Rotation yQuaternion;
-	private Rotation xQuaternion;
-	private Rotation rotationQuaternion;
-
-	// We need the SensorManager to register for Sensor Events.
-	private SensorManager sensorManager;
+	// The hub the sensor is registered with.
+	private SensorHub sensorHub;
 
-	// The vectors that will be rotated when the application is in Vehicle Mode.
-	private Vector3D vIn;
-	private Vector3D vOut;
+	// The rate the sensor is registered at.
+	private int sensorDelay = SensorManager.SENSOR_DELAY_FASTEST;
 
 	/**
 	 * Initialize the state.
@@ -95,13 +78,9 @@ public class AccelerationSensor implements SensorEventListener
 
 		this.context = context;
 
-		// initEulerRotations();
-		initQuaternionRotations();
-
 		observersAcceleration = new ArrayList<AccelerationSensorObserver>();
 
-		sensorManager = (SensorManager) this.context
-				.getSystemService(Context.SENSOR_SERVICE);
+		sensorHub = SensorHub.getInstance();
 	}
 
 	/**
@@ -116,9 +95,7 @@ public class AccelerationSensor implements SensorEventListener
 		// registered, register to listen for sensor events from the device.
 		if (observersAcceleration.size() == 0)
 		{
-			sensorManager.registerListener(this,
-					sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER),
-					SensorManager.SENSOR_DELAY_FASTEST);
+			sensorHub.register(Sensor.TYPE_ACCELEROMETER, this, sensorDelay);
 		}
 
 		// Only register the observer if it is not already registered.
@@ -147,33 +124,46 @@ public class AccelerationSensor implements SensorEventListener
 		// If there are no observers, then don't listen for Sensor Events.
 		if (observersAcceleration.size() == 0)
 		{
-			sensorManager.unregisterListener(this);
+			sensorHub.unregister(Sensor.TYPE_ACCELEROMETER, this);
 		}
 	}
 
-	@Override
-	public void onAccuracyChanged(Sensor sensor, int accuracy)
+	/**
+	 * Set the rate Sensor.TYPE_ACCELEROMETER measurements are delivered at, for
+	 * instance a slower rate while the device is at rest. The sensor is
+	 * registered again if it is already in use.
+	 * 
+	 * @param sensorDelay
+	 *            the rate, one of the SensorManager.SENSOR_DELAY_ constants.
+	 */
+	public void setSensorDelay(int sensorDelay)
 	{
-		// Do nothing.
+		if (sensorDelay == this.sensorDelay)
+		{
+			return;
+		}
+
+		this.sensorDelay = sensorDelay;
+
+		if (observersAcceleration.size() > 0)
+		{
+			sensorHub.register(Sensor.TYPE_ACCELEROMETER, this, sensorDelay);
+		}
 	}
 
 	@Override
-	public void onSensorChanged(SensorEvent event)
+	public void onSensorChanged(float[] values, long timestamp)
 	{
-		if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER)
-		{
-			System.arraycopy(event.values, 0, acceleration, 0,
-					event.values.length);
+		System.arraycopy(values, 0, acceleration, 0, values.length);
 
-			timeStamp = event.timestamp;
+		timeStamp = timestamp;
 
-			if (vehicleMode)
-			{
-				acceleration = quaternionToDeviceVehicleMode(acceleration);
-			}
-
-			notifyAccelerationObserver();
+		if (vehicleMode)
+		{
+			VehicleMode.remap(acceleration);
 		}
+
+		notifyAccelerationObserver();
 	}
 
 	/**
@@ -190,63 +180,15 @@ public class AccelerationSensor implements SensorEventListener
 		this.vehicleMode = vehicleMode;
 	}
 
-	/**
-	 * To avoid anomalies at the poles with Euler angles and Gimbal lock,
-	 * quaternions are used instead.
-	 */
-	private void initQuaternionRotations()
-	{
-		// Rotate by 90 degrees or pi/2 radians.
-		double rotation = Math.PI / 2;
-
-		// Create the rotation around the x-axis
-		Vector3D xV = new Vector3D(1, 0, 0);
-		xQuaternion = new Rotation(xV, rotation);
-
-		// Create the rotation around the y-axis
-		Vector3D yV = new Vector3D(0, 1, 0);
-		yQuaternion = new Rotation(yV, -rotation);
-
-		// Create the composite rotation.
-		rotationQuaternion = yQuaternion.applyTo(xQuaternion);
-	}
-
 	/**
 	 * Notify observers with new measurements.
 	 */
 	private void notifyAccelerationObserver()
 	{
-		for (AccelerationSensorObserver a : observersAcceleration)
+		for (int i = 0; i < observersAcceleration.size(); i++)
 		{
-			a.onAccelerationSensorChanged(this.acceleration, this.timeStamp);
+			observersAcceleration.get(i).onAccelerationSensorChanged(
+					this.acceleration, this.timeStamp);
 		}
 	}
-
-	/**
-	 * Orient the measurements from the absolute Android device rotation into
-	 * the current device orientation. Note that the rotation is different based
-	 * on the current rotation of the device relative to the absolute Android
-	 * rotation. Do not confuse this with a rotation into absolute earth frame,
-	 * or the NED orientation that the algorithm assumes.
-	 * 
-	 * @param measurements
-	 *            the measurements referenced to the absolute Android
-	 *            orientation.
-	 * @return the measurements referenced to the current device rotation.
-	 * 
-	 * @see http 
-	 *      ://developer.android.com/reference/android/hardware/SensorEvent.html
-	 *      #values
-	 */
-	private float[] quaternionToDeviceVehicleMode(float[] matrix)
-	{
-
-		vIn = new Vector3D(matrix[0], matrix[1], matrix[2]);
-		vOut = rotationQuaternion.applyTo(vIn);
-
-		float[] rotation =
-		{ (float) vOut.getX(), (float) vOut.getY(), (float) vOut.getZ() };
-
-		return rotation;
-	}
 }
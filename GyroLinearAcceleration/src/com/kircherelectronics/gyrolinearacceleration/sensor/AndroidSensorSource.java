@@ -0,0 +1,180 @@
+package com.kircherelectronics.gyrolinearacceleration.sensor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+/*
+ * Copyright 2013, Kaleb Kircher - Boki Software, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Delivers the measurements of the sensors of the device. The sensors are
+ * registered with a Handler on a HandlerThread, so the measurements and the
+ * fusion run on that thread instead of the main thread, where they would
+ * compete with the drawing of the UI. The thread is started with the source
+ * and runs as long as the application.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class AndroidSensorSource implements SensorSource
+{
+	private static final String tag = AndroidSensorSource.class
+			.getSimpleName();
+
+	// The name of the processing thread.
+	private static final String THREAD_NAME = "SensorProcessing";
+
+	// The initial size of the table, large enough for the types the
+	// application uses.
+	private static final int TABLE_SIZE = 16;
+
+	private SensorManager sensorManager;
+
+	// The handler of the processing thread.
+	private Handler handler;
+
+	private Executor executor;
+
+	// The listener of each registered sensor type, by the type.
+	private SensorEventListener[] listeners =
+			new SensorEventListener[TABLE_SIZE];
+
+	/**
+	 * Install the hub of the application with a source for the sensors of the
+	 * device, unless a hub has already been installed. Call before any sensor
+	 * is created.
+	 * 
+	 * @param context
+	 *            any context of the application.
+	 * @return the hub of the application.
+	 */
+	public static SensorHub install(Context context)
+	{
+		synchronized (SensorHub.class)
+		{
+			if (!SensorHub.hasInstance())
+			{
+				SensorHub.setInstance(new SensorHub(new AndroidSensorSource(
+						context.getApplicationContext())));
+			}
+
+			return SensorHub.getInstance();
+		}
+	}
+
+	/**
+	 * Initialize the state and start the processing thread.
+	 * 
+	 * @param context
+	 *            any context of the application.
+	 */
+	public AndroidSensorSource(Context context)
+	{
+		super();
+
+		sensorManager = (SensorManager) context
+				.getSystemService(Context.SENSOR_SERVICE);
+
+		// Slightly above the default priority, the measurements should not
+		// wait for background work.
+		HandlerThread thread = new HandlerThread(THREAD_NAME,
+				Process.THREAD_PRIORITY_MORE_FAVORABLE);
+		thread.start();
+
+		handler = new Handler(thread.getLooper());
+
+		executor = new Executor()
+		{
+			@Override
+			public void execute(Runnable command)
+			{
+				if (!handler.post(command))
+				{
+					throw new RejectedExecutionException(THREAD_NAME
+							+ " has quit");
+				}
+			}
+		};
+	}
+
+	@Override
+	public boolean register(int type, final SensorSink sink,
+			int delay)
+	{
+		Sensor sensor = sensorManager.getDefaultSensor(type);
+
+		if (sensor == null)
+		{
+			Log.w(tag, "The device has no sensor of type " + type);
+
+			return false;
+		}
+
+		if (type >= listeners.length)
+		{
+			SensorEventListener[] table = new SensorEventListener[Math.max(
+					type + 1, listeners.length * 2)];
+			System.arraycopy(listeners, 0, table, 0, listeners.length);
+			listeners = table;
+		}
+
+		unregister(type);
+
+		listeners[type] = new SensorEventListener()
+		{
+			@Override
+			public void onAccuracyChanged(Sensor sensor, int accuracy)
+			{
+				// Do nothing.
+			}
+
+			@Override
+			public void onSensorChanged(SensorEvent event)
+			{
+				sink.onSensorChanged(event.values, event.timestamp);
+			}
+		};
+
+		return sensorManager.registerListener(listeners[type], sensor, delay,
+				handler);
+	}
+
+	@Override
+	public void unregister(int type)
+	{
+		if (type < listeners.length && listeners[type] != null)
+		{
+			sensorManager.unregisterListener(listeners[type]);
+			listeners[type] = null;
+		}
+	}
+
+	@Override
+	public Executor getExecutor()
+	{
+		return executor;
+	}
+}
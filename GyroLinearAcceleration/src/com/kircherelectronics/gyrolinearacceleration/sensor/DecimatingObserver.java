@@ -0,0 +1,147 @@
+package com.kircherelectronics.gyrolinearacceleration.sensor;
+
+import com.kircherelectronics.gyrolinearacceleration.filters.FirDecimator;
+import com.kircherelectronics.gyrolinearacceleration.filters.FirKernels;
+import com.kircherelectronics.gyrolinearacceleration.sensor.observer.AccelerationSensorObserver;
+import com.kircherelectronics.gyrolinearacceleration.sensor.observer.LinearAccelerationSensorObserver;
+
+/*
+ * Copyright 2013, Kaleb Kircher - Boki Software, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Delivers the measurements of a sensor to another observer at a lower rate,
+ * filtered by a FirDecimator so the motion above the new Nyquist frequency
+ * does not alias into the output like it does with
+ * OutputRate.everyNthSample(). Register it with the AccelerationSensor or the
+ * LinearAccelerationSensor in place of the observer it wraps. An instance
+ * should only observe one sensor.
+ * 
+ * The output is delivered with the time stamp of the measurement it was
+ * produced on, it lags that measurement by the delay of the decimator.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class DecimatingObserver implements AccelerationSensorObserver,
+		LinearAccelerationSensorObserver
+{
+	// The number of taps of the default kernel per output sample.
+	private static final int TAPS_PER_PHASE = 8;
+
+	private AccelerationSensorObserver accelerationObserver;
+	private LinearAccelerationSensorObserver linearAccelerationObserver;
+
+	private FirDecimator decimator;
+
+	// The frame being decimated, the measurements of the sensor are not
+	// modified.
+	private float[] frame = new float[3];
+
+	/**
+	 * Wrap an acceleration observer with the default anti-aliasing kernel.
+	 * 
+	 * @param observer
+	 *            the observer the decimated measurements are delivered to.
+	 * @param factor
+	 *            the number of measurements per delivery.
+	 * @throws IllegalArgumentException
+	 *             if the factor is smaller than 1.
+	 */
+	public DecimatingObserver(AccelerationSensorObserver observer, int factor)
+	{
+		this(new FirDecimator(FirKernels.decimation(factor, TAPS_PER_PHASE),
+				factor));
+
+		this.accelerationObserver = observer;
+	}
+
+	/**
+	 * Wrap a linear acceleration observer with the default anti-aliasing
+	 * kernel.
+	 * 
+	 * @param observer
+	 *            the observer the decimated measurements are delivered to.
+	 * @param factor
+	 *            the number of measurements per delivery.
+	 * @throws IllegalArgumentException
+	 *             if the factor is smaller than 1.
+	 */
+	public DecimatingObserver(LinearAccelerationSensorObserver observer,
+			int factor)
+	{
+		this(new FirDecimator(FirKernels.decimation(factor, TAPS_PER_PHASE),
+				factor));
+
+		this.linearAccelerationObserver = observer;
+	}
+
+	/**
+	 * Initialize the state.
+	 * 
+	 * @param decimator
+	 *            the decimator.
+	 */
+	private DecimatingObserver(FirDecimator decimator)
+	{
+		super();
+
+		this.decimator = decimator;
+	}
+
+	/**
+	 * Clear the history of the decimator, for instance after the sensor was
+	 * paused.
+	 */
+	public void reset()
+	{
+		decimator.reset();
+	}
+
+	@Override
+	public void onAccelerationSensorChanged(float[] acceleration,
+			long timeStamp)
+	{
+		if (accelerationObserver != null && decimate(acceleration))
+		{
+			accelerationObserver.onAccelerationSensorChanged(frame, timeStamp);
+		}
+	}
+
+	@Override
+	public void onLinearAccelerationSensorChanged(float[] linearAcceleration,
+			long timeStamp)
+	{
+		if (linearAccelerationObserver != null && decimate(linearAcceleration))
+		{
+			linearAccelerationObserver.onLinearAccelerationSensorChanged(
+					frame, timeStamp);
+		}
+	}
+
+	/**
+	 * Add a measurement to the decimator.
+	 * 
+	 * @param values
+	 *            the measurement (x, y, z).
+	 * @return true if the frame holds a decimated measurement.
+	 */
+	private boolean decimate(float[] values)
+	{
+		System.arraycopy(values, 0, frame, 0, frame.length);
+
+		return decimator.decimate(frame);
+	}
+}
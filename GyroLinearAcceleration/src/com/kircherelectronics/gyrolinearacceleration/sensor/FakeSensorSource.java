@@ -0,0 +1,160 @@
+package com.kircherelectronics.gyrolinearacceleration.sensor;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+/*
+ * Copyright 2013, Kaleb Kircher - Boki Software, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Delivers measurements posted by the caller instead of the sensors of the
+ * device, so the sensors and the fusion can be driven from a recording or a
+ * synthetic signal on a plain JVM. The measurements are delivered on the
+ * executor the source is created with, which plays the part of the
+ * processing thread. Install the source before any sensor is created with
+ * SensorHub.setInstance(new SensorHub(source)).
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class FakeSensorSource implements SensorSource
+{
+	// The delay of a type without a registration.
+	private static final int NOT_REGISTERED = -1;
+
+	// The initial size of the table, large enough for the types the
+	// application uses.
+	private static final int TABLE_SIZE = 16;
+
+	private final Executor executor;
+
+	// The sink and the delay of each registered sensor type, by the type,
+	// guarded by the lock of the source.
+	private SensorSink[] sinks = new SensorSink[TABLE_SIZE];
+	private int[] delays = new int[TABLE_SIZE];
+
+	/**
+	 * Initialize the state.
+	 * 
+	 * @param executor
+	 *            the executor the measurements are delivered on, a single
+	 *            thread executor to stand in for the processing thread.
+	 */
+	public FakeSensorSource(Executor executor)
+	{
+		super();
+
+		this.executor = executor;
+
+		Arrays.fill(delays, NOT_REGISTERED);
+	}
+
+	/**
+	 * Post a measurement. It is delivered on the executor if a sink is
+	 * registered for the type by then. The values are copied, so the caller
+	 * may reuse the array.
+	 * 
+	 * @param type
+	 *            the sensor type, one of the Sensor.TYPE_ constants.
+	 * @param values
+	 *            the values of the measurement.
+	 * @param timestamp
+	 *            the time stamp of the measurement in nanoseconds.
+	 */
+	public void post(final int type, float[] values, final long timestamp)
+	{
+		final float[] copy = values.clone();
+
+		executor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				SensorSink sink = getSink(type);
+
+				if (sink != null)
+				{
+					sink.onSensorChanged(copy, timestamp);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Get the rate a sensor type is registered at.
+	 * 
+	 * @param type
+	 *            the sensor type, one of the Sensor.TYPE_ constants.
+	 * @return the rate, one of the SensorManager.SENSOR_DELAY_ constants, or
+	 *         -1 if the type is not registered.
+	 */
+	public synchronized int getDelay(int type)
+	{
+		return type < delays.length ? delays[type] : NOT_REGISTERED;
+	}
+
+	@Override
+	public synchronized boolean register(int type, SensorSink sink, int delay)
+	{
+		if (type >= sinks.length)
+		{
+			final int size = Math.max(type + 1, sinks.length * 2);
+
+			SensorSink[] table = new SensorSink[size];
+			System.arraycopy(sinks, 0, table, 0, sinks.length);
+
+			int[] delayTable = new int[size];
+			Arrays.fill(delayTable, NOT_REGISTERED);
+			System.arraycopy(delays, 0, delayTable, 0, delays.length);
+
+			sinks = table;
+			delays = delayTable;
+		}
+
+		sinks[type] = sink;
+		delays[type] = delay;
+
+		return true;
+	}
+
+	@Override
+	public synchronized void unregister(int type)
+	{
+		if (type < sinks.length)
+		{
+			sinks[type] = null;
+			delays[type] = NOT_REGISTERED;
+		}
+	}
+
+	@Override
+	public Executor getExecutor()
+	{
+		return executor;
+	}
+
+	/**
+	 * Get the sink registered for a sensor type.
+	 * 
+	 * @param type
+	 *            the sensor type.
+	 * @return the sink, or null if the type is not registered.
+	 */
+	private synchronized SensorSink getSink(int type)
+	{
+		return type < sinks.length ? sinks[type] : null;
+	}
+}
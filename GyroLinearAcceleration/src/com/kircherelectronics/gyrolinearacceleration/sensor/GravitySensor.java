@@ -2,13 +2,8 @@ package com.kircherelectronics.gyrolinearacceleration.sensor;
 
 import java.util.ArrayList;
 
-import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
-import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
-
 import android.content.Context;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 
 import com.kircherelectronics.gyrolinearacceleration.sensor.observer.AccelerationSensorObserver;
@@ -34,12 +29,11 @@ import com.kircherelectronics.gyrolinearacceleration.sensor.observer.GravitySens
  * @author Kaleb
  * @version %I%, %G%
  */
-public class GravitySensor implements SensorEventListener
+public class GravitySensor implements SensorSink
 {
 	/*
-	 * Developer Note: Quaternions are used for the internal representations of
-	 * the rotations which prevents the polar anomalies associated with Gimbal
-	 * lock when using Euler angles for the rotations.
+	 * Developer Note: The rotation of vehicle mode is a fixed remap of the
+	 * axes that is applied in place, see VehicleMode.
 	 */
 	
 	private static final String tag = GravitySensor.class.getSimpleName();
@@ -62,22 +56,8 @@ public class GravitySensor implements SensorEventListener
 	// The time stamp of the most recent Sensor Event.
 	private long timeStamp = 0;
 
-	// Quaternion data structures to rotate a matrix from the absolute Android
-	// orientation to the orientation that the device is actually in. This is
-	// needed because the the device sensors orientation is fixed in hardware.
-	// Also remember the many algorithms require a NED orientation which is not
-	// the same as the absolute Android orientation. Do not confuse this
-	// rotation with a rotation into absolute earth frame!
-	private Rotation yQuaternion;
-	private Rotation xQuaternion;
-	private Rotation rotationQuaternion;
-
-	// We need the SensorManager to register for Sensor Events.
-	private SensorManager sensorManager;
-
-	// The vectors that will be rotated when the application is in Vehicle Mode.
-	private Vector3D vIn;
-	private Vector3D vOut;
+	// The hub the sensor is registered with.
+	private SensorHub sensorHub;
 
 	/**
 	 * Initialize the state.
@@ -91,12 +71,9 @@ public class GravitySensor implements SensorEventListener
 
 		this.context = context;
 
-		initQuaternionRotations();
-
 		observersAcceleration = new ArrayList<GravitySensorObserver>();
 
-		sensorManager = (SensorManager) this.context
-				.getSystemService(Context.SENSOR_SERVICE);
+		sensorHub = SensorHub.getInstance();
 
 	}
 
@@ -112,8 +89,7 @@ public class GravitySensor implements SensorEventListener
 		// registered, register to listen for sensor events from the device.
 		if (observersAcceleration.size() == 0)
 		{
-			sensorManager.registerListener(this,
-					sensorManager.getDefaultSensor(Sensor.TYPE_GRAVITY),
+			sensorHub.register(Sensor.TYPE_GRAVITY, this,
 					SensorManager.SENSOR_DELAY_FASTEST);
 		}
 
@@ -142,33 +118,23 @@ public class GravitySensor implements SensorEventListener
 		// If there are no observers, then don't listen for Sensor Events.
 		if (observersAcceleration.size() == 0)
 		{
-			sensorManager.unregisterListener(this);
+			sensorHub.unregister(Sensor.TYPE_GRAVITY, this);
 		}
 	}
 
 	@Override
-	public void onAccuracyChanged(Sensor sensor, int accuracy)
+	public void onSensorChanged(float[] values, long timestamp)
 	{
-		// Do nothing.
-	}
+		System.arraycopy(values, 0, gravity, 0, values.length);
 
-	@Override
-	public void onSensorChanged(SensorEvent event)
-	{
-		if (event.sensor.getType() == Sensor.TYPE_GRAVITY)
-		{
-			System.arraycopy(event.values, 0, gravity, 0,
-					event.values.length);
+		timeStamp = timestamp;
 
-			timeStamp = event.timestamp;
-
-			if (vehicleMode)
-			{
-				gravity = quaternionToDeviceVehicleMode(gravity);
-			}
-
-			notifyGravityObserver();
+		if (vehicleMode)
+		{
+			VehicleMode.remap(gravity);
 		}
+
+		notifyGravityObserver();
 	}
 
 	/**
@@ -185,63 +151,15 @@ public class GravitySensor implements SensorEventListener
 		this.vehicleMode = vehicleMode;
 	}
 
-	/**
-	 * To avoid anomalies at the poles with Euler angles and Gimbal lock,
-	 * quaternions are used instead.
-	 */
-	private void initQuaternionRotations()
-	{
-		// Rotate by 90 degrees or pi/2 radians.
-		double rotation = Math.PI / 2;
-
-		// Create the rotation around the x-axis
-		Vector3D xV = new Vector3D(1, 0, 0);
-		xQuaternion = new Rotation(xV, rotation);
-
-		// Create the rotation around the y-axis
-		Vector3D yV = new Vector3D(0, 1, 0);
-		yQuaternion = new Rotation(yV, -rotation);
-
-		// Create the composite rotation.
-		rotationQuaternion = yQuaternion.applyTo(xQuaternion);
-	}
-
 	/**
 	 * Notify observers with new measurements.
 	 */
 	private void notifyGravityObserver()
 	{
-		for (GravitySensorObserver a : observersAcceleration)
+		for (int i = 0; i < observersAcceleration.size(); i++)
 		{
-			a.onGravitySensorChanged(this.gravity, this.timeStamp);
+			observersAcceleration.get(i).onGravitySensorChanged(
+					this.gravity, this.timeStamp);
 		}
 	}
-
-	/**
-	 * Orient the measurements from the absolute Android device rotation into
-	 * the current device orientation. Note that the rotation is different based
-	 * on the current rotation of the device relative to the absolute Android
-	 * rotation. Do not confuse this with a rotation into absolute earth frame,
-	 * or the NED orientation that the algorithm assumes.
-	 * 
-	 * @param measurements
-	 *            the measurements referenced to the absolute Android
-	 *            orientation.
-	 * @return the measurements referenced to the current device rotation.
-	 * 
-	 * @see http 
-	 *      ://developer.android.com/reference/android/hardware/SensorEvent.html
-	 *      #values
-	 */
-	private float[] quaternionToDeviceVehicleMode(float[] matrix)
-	{
-
-		vIn = new Vector3D(matrix[0], matrix[1], matrix[2]);
-		vOut = rotationQuaternion.applyTo(vIn);
-
-		float[] rotation =
-		{ (float) vOut.getX(), (float) vOut.getY(), (float) vOut.getZ() };
-
-		return rotation;
-	}
 }
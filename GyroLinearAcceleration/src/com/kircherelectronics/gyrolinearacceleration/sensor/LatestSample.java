@@ -0,0 +1,122 @@
+package com.kircherelectronics.gyrolinearacceleration.sensor;
+
+/*
+ * Copyright 2013, Kaleb Kircher - Boki Software, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Hands the newest sample of a stream from the processing thread to the UI
+ * thread. The processing thread publishes every sample, the UI thread reads
+ * the newest one when it draws a frame and skips the ones in between, so the
+ * UI never waits for the fusion and the fusion never waits for a frame. Both
+ * sides copy the values under the lock of the sample, which is only held for
+ * the copy.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class LatestSample
+{
+	private final float[] values;
+
+	private long timestamp = 0;
+
+	// The time the newest sample was published, from System.nanoTime().
+	private long publishTime = 0;
+
+	// The newest sample has not been read yet.
+	private boolean fresh = false;
+
+	/**
+	 * Initialize the state.
+	 * 
+	 * @param channels
+	 *            the number of values of a sample.
+	 * @throws IllegalArgumentException
+	 *             if there are no channels.
+	 */
+	public LatestSample(int channels)
+	{
+		super();
+
+		if (channels < 1)
+		{
+			throw new IllegalArgumentException("channels must be at least 1: "
+					+ channels);
+		}
+
+		values = new float[channels];
+	}
+
+	/**
+	 * Publish a sample, replacing the previous one. Called on the processing
+	 * thread.
+	 * 
+	 * @param values
+	 *            the values of the sample, copied.
+	 * @param timestamp
+	 *            the time stamp of the sample in nanoseconds.
+	 */
+	public synchronized void publish(float[] values, long timestamp)
+	{
+		System.arraycopy(values, 0, this.values, 0,
+				Math.min(values.length, this.values.length));
+
+		this.timestamp = timestamp;
+
+		publishTime = System.nanoTime();
+		fresh = true;
+	}
+
+	/**
+	 * Copy the newest sample. Called on the UI thread.
+	 * 
+	 * @param values
+	 *            the array the values are copied to.
+	 * @return true if the sample was published since the previous read.
+	 */
+	public synchronized boolean read(float[] values)
+	{
+		System.arraycopy(this.values, 0, values, 0,
+				Math.min(values.length, this.values.length));
+
+		final boolean read = fresh;
+
+		fresh = false;
+
+		return read;
+	}
+
+	/**
+	 * Get the time stamp of the newest sample.
+	 * 
+	 * @return the time stamp in nanoseconds.
+	 */
+	public synchronized long getTimestamp()
+	{
+		return timestamp;
+	}
+
+	/**
+	 * Get how long ago the newest sample was published, the time it has
+	 * waited for the UI.
+	 * 
+	 * @return the age in nanoseconds.
+	 */
+	public synchronized long getAge()
+	{
+		return System.nanoTime() - publishTime;
+	}
+}
@@ -1,14 +1,23 @@
 package com.kircherelectronics.gyrolinearacceleration.sensor;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 
 import android.content.Context;
-import android.hardware.Sensor;
 import android.hardware.SensorManager;
 import android.util.Log;
 
-import com.kircherelectronics.gyrolinearacceleration.filters.MeanFilter;
+import com.kircherelectronics.gyrolinearacceleration.filters.FilterStage;
+import com.kircherelectronics.gyrolinearacceleration.fusion.FusionAlgorithm;
+import com.kircherelectronics.gyrolinearacceleration.fusion.FusionEngine;
 import com.kircherelectronics.gyrolinearacceleration.sensor.observer.AccelerationSensorObserver;
 import com.kircherelectronics.gyrolinearacceleration.sensor.observer.GravitySensorObserver;
 import com.kircherelectronics.gyrolinearacceleration.sensor.observer.GyroscopeSensorObserver;
@@ -35,7 +44,17 @@ import com.kircherelectronics.gyrolinearacceleration.sensor.observer.MagneticSen
 /**
  * An implementation of an acceleration and gyroscope sensor fusion. The
  * algorithm determines the linear acceleration of the device by using Cardan
- * angles.
+ * angles. The maths are implemented by the platform independent FusionEngine,
+ * this class connects the engine to the Android sensors and observers. The
+ * fused state is saved to a checkpoint when the sensor is paused so it can
+ * warm start when it is started again. With rest gating the fusion is held
+ * while the device is at rest and the gyroscope can be slowed down.
+ * 
+ * The fusion runs on the processing thread of the SensorHub and the observers
+ * are notified on that thread. The constructor does not touch the hub, the
+ * fusion is only started by onStart(). Apart from the constructor, the
+ * methods must be called on the processing thread, through
+ * SensorHub.getExecutor().
  * 
  * @author Kaleb
  * @see http://en.wikipedia.org/wiki/Low-pass_filter
@@ -44,66 +63,35 @@ import com.kircherelectronics.gyrolinearacceleration.sensor.observer.MagneticSen
 public class LinearAccelerationSensor implements GyroscopeSensorObserver,
 		AccelerationSensorObserver, MagneticSensorObserver, GravitySensorObserver
 {
-	public static final float EPSILON = 0.000000001f;
+	public static final float EPSILON = FusionEngine.EPSILON;
 
 	private static final String tag = LinearAccelerationSensor.class
 			.getSimpleName();
-	private static final float NS2S = 1.0f / 1000000000.0f;
-	private static final int MEAN_FILTER_WINDOW = 10;
-	private static final int MIN_SAMPLE_COUNT = 30;
+
+	// The name of the checkpoint file in the private files directory.
+	private static final String CHECKPOINT_FILE = "fusion.checkpoint";
 
 	// Keep track of observers.
 	private ArrayList<LinearAccelerationSensorObserver> observersAcceleration;
 
-	private boolean hasInitialOrientation = false;
-	private boolean stateInitialized = false;
+	// The output rate of each observer, by the index of the observer.
+	private ArrayList<OutputRate> observerRates;
 
 	private Context context;
 
 	private long timestampOld = 0;
 
-	// Calibrated maths.
-	private float[] currentRotationMatrix;
-	private float[] deltaRotationMatrix;
-	private float[] deltaRotationVector;
-	private float[] gyroscopeOrientation;
-
-	// The gravity components of the acceleration signal.
-	private float[] components = new float[3];
+	// Hold the fusion while the device is at rest, the gyroscope is then
+	// registered at the rest sensor delay.
+	private boolean restGating = false;
+	private boolean stationary = false;
+	private int restSensorDelay = SensorManager.SENSOR_DELAY_FASTEST;
 
 	private float[] linearAcceleration = new float[]
 	{ 0, 0, 0 };
 
-	// Raw accelerometer data
-	private float[] acceleration = new float[]
-	{ 0, 0, 0 };
-	
-	private float[] gravity = new float[]
-			{ 0, 0, 0 };
-
-	// Raw accelerometer data
-	private float[] magnetic = new float[]
-	{ 0, 0, 0 };
-
-	private int gravitySampleCount = 0;
-	private int magneticSampleCount = 0;
-
-	private MeanFilter mfAcceleration;
-	private MeanFilter mfMagnetic;
-	private MeanFilter mfGravity;
-	private MeanFilter mfLinearAcceleration;
-
-	// The rotation matrix R transforming a vector from the device
-	// coordinate system to the world's coordinate system which is
-	// defined as a direct orthonormal basis. R is the identity
-	// matrix when the device is aligned with the world's coordinate
-	// system, that is, when the device's X axis points toward East,
-	// the Y axis points to the North Pole and the device is facing
-	// the sky. NOTE: the reference coordinate-system used by
-	// getOrientation() is different from the world
-	// coordinate-system defined for the rotation matrix R and
-	// getRotationMatrix().
-	private float[] initialRotationMatrix;
+	// The sensor fusion.
+	private FusionEngine fusionEngine;
 
 	private GravitySensor gravitySensor;
 	private GyroscopeSensor gyroscopeSensor;
@@ -115,201 +103,341 @@ public class LinearAccelerationSensor implements GyroscopeSensorObserver,
 
 		this.context = context;
 		observersAcceleration = new ArrayList<LinearAccelerationSensorObserver>();
+		observerRates = new ArrayList<OutputRate>();
+
+		fusionEngine = new FusionEngine();
+
+		// Lock the initial orientation as soon as the sensors settle and
+		// remove the gyroscope bias while the device is at rest.
+		fusionEngine.setAdaptiveConvergence(true);
+		fusionEngine.setBiasEstimation(true);
 
-		initFilters();
+		// The sensors are registered by onStart() on the processing thread.
 		initSensors();
-		reset();
-		restart();
 	}
 
 	public void onStart()
 	{
+		restoreCheckpoint();
 		restart();
 	}
 
 	public void onPause()
 	{
+		saveCheckpoint();
 		reset();
 	}
 
+	/**
+	 * Delete the saved checkpoint so the next start determines the
+	 * orientation from scratch.
+	 */
+	public void clearCheckpoint()
+	{
+		getCheckpointFile().delete();
+	}
+
 	@Override
 	public void onAccelerationSensorChanged(float[] acceleration, long timeStamp)
 	{
-		// Get a local copy of the raw magnetic values from the device sensor.
-		System.arraycopy(acceleration, 0, this.acceleration, 0,
-				acceleration.length);
+		fusionEngine.onAcceleration(acceleration, timeStamp);
 	}
-	
+
 	@Override
 	public void onGravitySensorChanged(float[] gravity, long timeStamp)
 	{
-		// Get a local copy of the raw magnetic values from the device sensor.
-		System.arraycopy(gravity, 0, this.gravity, 0,
-				gravity.length);
-
-		// Use a mean filter to smooth the sensor inputs
-		this.gravity = mfGravity.filterFloat(this.gravity);
+		fusionEngine.onGravity(gravity, timeStamp);
 
-		// Count the number of samples received.
-		gravitySampleCount++;
-
-		// Only determine the initial orientation after the acceleration sensor
-		// and magnetic sensor have had enough time to be smoothed by the mean
-		// filters. Also, only do this if the orientation hasn't already been
-		// determined since we only need it once.
-		if (gravitySampleCount > MIN_SAMPLE_COUNT
-				&& magneticSampleCount > MIN_SAMPLE_COUNT
-				&& !hasInitialOrientation)
+		// Remove the sensor observers since they are no longer required.
+		if (fusionEngine.hasInitialOrientation())
 		{
-			calculateOrientation();
+			gravitySensor.removeGravityObserver(this);
+			magneticSensor.removeMagneticObserver(this);
 		}
-		
 	}
 
 	@Override
 	public void onGyroscopeSensorChanged(float[] gyroscope, long timestamp)
 	{
-		// don't start until first accelerometer/magnetometer orientation has
-		// been acquired
-		if (!hasInitialOrientation)
+		if (fusionEngine.onGyroscope(gyroscope, timestamp))
 		{
-			return;
-		}
+			fusionEngine.getLinearAcceleration(linearAcceleration);
+			timestampOld = fusionEngine.getTimestamp();
 
-		// Initialization of the gyroscope based rotation matrix
-		if (!stateInitialized)
-		{
-			currentRotationMatrix = matrixMultiplication(currentRotationMatrix,
-					initialRotationMatrix);
+			if (restGating && fusionEngine.isStationary() != stationary)
+			{
+				stationary = !stationary;
 
-			stateInitialized = true;
+				gyroscopeSensor.setSensorDelay(stationary ? restSensorDelay
+						: SensorManager.SENSOR_DELAY_FASTEST);
+			}
+
+			notifyLinearAccelerationObserver();
 		}
+	}
 
-		// This timestep's delta rotation to be multiplied by the current
-		// rotation after computing it from the gyro sample data.
-		if (timestampOld != 0 && stateInitialized)
-		{
-			final float dT = (timestamp - timestampOld) * NS2S;
+	@Override
+	public void onMagneticSensorChanged(float[] magnetic, long timeStamp)
+	{
+		fusionEngine.onMagnetic(magnetic, timeStamp);
+	}
 
-			// Axis of the rotation sample, not normalized yet.
-			float axisX = gyroscope[0];
-			float axisY = gyroscope[1];
-			float axisZ = gyroscope[2];
+	/**
+	 * Select how the gyroscope measurements are integrated.
+	 * 
+	 * @param quaternionIntegration
+	 *            true to integrate with a unit quaternion.
+	 * @see FusionEngine#setQuaternionIntegration(boolean)
+	 */
+	public void setQuaternionIntegration(boolean quaternionIntegration)
+	{
+		fusionEngine.setQuaternionIntegration(quaternionIntegration);
+	}
 
-			// Calculate the angular speed of the sample
-			float omegaMagnitude = (float) Math.sqrt(axisX * axisX + axisY
-					* axisY + axisZ * axisZ);
+	/**
+	 * Select the algorithm that tracks the orientation of the device, for
+	 * instance a MadgwickFilter or a MahonyFilter on low-end devices. Can be
+	 * changed at any time.
+	 * 
+	 * @param algorithm
+	 *            the algorithm.
+	 * @see FusionEngine#setFusionAlgorithm(FusionAlgorithm)
+	 */
+	public void setFusionAlgorithm(FusionAlgorithm algorithm)
+	{
+		fusionEngine.setFusionAlgorithm(algorithm);
+	}
 
-			// Normalize the rotation vector if it's big enough to get the axis
-			if (omegaMagnitude > EPSILON)
-			{
-				axisX /= omegaMagnitude;
-				axisY /= omegaMagnitude;
-				axisZ /= omegaMagnitude;
-			}
+	/**
+	 * Replace the filter of the gravity samples, for instance with a
+	 * FilterPipeline.
+	 * 
+	 * @param filter
+	 *            the filter.
+	 * @see FusionEngine#setGravityFilter(FilterStage)
+	 */
+	public void setGravityFilter(FilterStage filter)
+	{
+		fusionEngine.setGravityFilter(filter);
+	}
+
+	/**
+	 * Replace the filter of the magnetic samples, for instance with a
+	 * FilterPipeline.
+	 * 
+	 * @param filter
+	 *            the filter.
+	 * @see FusionEngine#setMagneticFilter(FilterStage)
+	 */
+	public void setMagneticFilter(FilterStage filter)
+	{
+		fusionEngine.setMagneticFilter(filter);
+	}
+
+	/**
+	 * Replace the filter of the linear acceleration, for instance with a
+	 * FilterPipeline, or with a TimeWindowMeanFilter to smooth over the same
+	 * span of time on every device whatever its sample rate.
+	 * 
+	 * @param filter
+	 *            the filter.
+	 * @see FusionEngine#setLinearAccelerationFilter(FilterStage)
+	 */
+	public void setLinearAccelerationFilter(FilterStage filter)
+	{
+		fusionEngine.setLinearAccelerationFilter(filter);
+	}
+
+	/**
+	 * Select if the gyroscope bias is estimated while the device is at rest
+	 * and subtracted from the gyroscope samples.
+	 * 
+	 * @param biasEstimation
+	 *            true to estimate and subtract the gyroscope bias.
+	 * @see FusionEngine#setBiasEstimation(boolean)
+	 */
+	public void setBiasEstimation(boolean biasEstimation)
+	{
+		fusionEngine.setBiasEstimation(biasEstimation);
+	}
 
-			// Integrate around this axis with the angular speed by the timestep
-			// in order to get a delta rotation from this sample over the
-			// timestep. We will convert this axis-angle representation of the
-			// delta rotation into a quaternion before turning it into the
-			// rotation matrix.
-			float thetaOverTwo = omegaMagnitude * dT / 2.0f;
-
-			float sinThetaOverTwo = (float) Math.sin(thetaOverTwo);
-			float cosThetaOverTwo = (float) Math.cos(thetaOverTwo);
-
-			deltaRotationVector[0] = sinThetaOverTwo * axisX;
-			deltaRotationVector[1] = sinThetaOverTwo * axisY;
-			deltaRotationVector[2] = sinThetaOverTwo * axisZ;
-			deltaRotationVector[3] = cosThetaOverTwo;
-
-			SensorManager.getRotationMatrixFromVector(deltaRotationMatrix,
-					deltaRotationVector);
-
-			currentRotationMatrix = matrixMultiplication(currentRotationMatrix,
-					deltaRotationMatrix);
-
-			SensorManager.getOrientation(currentRotationMatrix,
-					gyroscopeOrientation);
-
-			// values[0]: azimuth, rotation around the Z axis.
-			// values[1]: pitch, rotation around the X axis.
-			// values[2]: roll, rotation around the Y axis.
-
-			// Find the gravity component of the X-axis
-			// = g*-cos(pitch)*sin(roll);
-			components[0] = (float) (SensorManager.GRAVITY_EARTH
-					* -Math.cos(gyroscopeOrientation[1]) * Math
-					.sin(gyroscopeOrientation[2]));
-
-			// Find the gravity component of the Y-axis
-			// = g*-sin(pitch);
-			components[1] = (float) (SensorManager.GRAVITY_EARTH * -Math
-					.sin(gyroscopeOrientation[1]));
-
-			// Find the gravity component of the Z-axis
-			// = g*cos(pitch)*cos(roll);
-			components[2] = (float) (SensorManager.GRAVITY_EARTH
-					* Math.cos(gyroscopeOrientation[1]) * Math
-					.cos(gyroscopeOrientation[2]));
-
-			// Subtract the gravity component of the signal
-			// from the input acceleration signal to get the
-			// tilt compensated output.
-			linearAcceleration[0] = (this.acceleration[0] - components[0]);
-			linearAcceleration[1] = (this.acceleration[1] - components[1]);
-			linearAcceleration[2] = (this.acceleration[2] - components[2]);
-
-			linearAcceleration = mfLinearAcceleration
-					.filterFloat(linearAcceleration);
+	/**
+	 * Select rest gating. While the device is at rest the fusion holds its
+	 * output and the gyroscope is registered at the rest sensor delay, full
+	 * processing at SENSOR_DELAY_FASTEST resumes as soon as it moves.
+	 * 
+	 * @param restGating
+	 *            true to hold the fusion while the device is at rest.
+	 * @see FusionEngine#setRestGating(boolean)
+	 */
+	public void setRestGating(boolean restGating)
+	{
+		this.restGating = restGating;
+
+		fusionEngine.setRestGating(restGating);
+
+		if (!restGating)
+		{
+			leaveRest();
 		}
+	}
 
-		timestampOld = timestamp;
+	/**
+	 * Set the rate of the gyroscope while the device is at rest with rest
+	 * gating. The default, SENSOR_DELAY_FASTEST, keeps the rate. A slower
+	 * rate also makes the stationary detector slower to notice that the
+	 * device is at rest again after it has moved, its window is counted in
+	 * samples.
+	 * 
+	 * @param restSensorDelay
+	 *            the rate, one of the SensorManager.SENSOR_DELAY_ constants.
+	 */
+	public void setRestSensorDelay(int restSensorDelay)
+	{
+		this.restSensorDelay = restSensorDelay;
 
-		notifyLinearAccelerationObserver();
+		if (stationary)
+		{
+			gyroscopeSensor.setSensorDelay(restSensorDelay);
+		}
 	}
 
-	@Override
-	public void onMagneticSensorChanged(float[] magnetic, long timeStamp)
+	/**
+	 * Indicate if the device was at rest at the most recent gyroscope sample.
+	 * 
+	 * @return true if the device is at rest.
+	 * @see FusionEngine#isStationary()
+	 */
+	public boolean isStationary()
+	{
+		return fusionEngine.isStationary();
+	}
+
+	/**
+	 * Select if the processing time of the fusion is measured.
+	 * 
+	 * @param profiling
+	 *            true to measure the processing time.
+	 * @see FusionEngine#setProfiling(boolean)
+	 */
+	public void setProfiling(boolean profiling)
 	{
-		// Get a local copy of the raw magnetic values from the device sensor.
-		System.arraycopy(magnetic, 0, this.magnetic, 0, magnetic.length);
+		fusionEngine.setProfiling(profiling);
+	}
 
-		// Use a mean filter to smooth the sensor inputs
-		this.magnetic = mfMagnetic.filterFloat(this.magnetic);
+	/**
+	 * Get the processing time of the fusion per hour of sensor time since the
+	 * sensor was started.
+	 * 
+	 * @param stationary
+	 *            true for the time spent at rest, false for the time spent in
+	 *            motion.
+	 * @return the processing time in milliseconds per hour, or -1 if nothing
+	 *         has been measured in that state.
+	 * @see FusionEngine#getCpuTimePerHour(boolean)
+	 */
+	public double getCpuTimePerHour(boolean stationary)
+	{
+		return fusionEngine.getCpuTimePerHour(stationary);
+	}
 
-		// Count the number of samples received.
-		magneticSampleCount++;
+	/**
+	 * Select how the gravity components are found when the gyroscope is
+	 * integrated with a rotation matrix.
+	 * 
+	 * @param gravityFromRotationMatrix
+	 *            true to take the gravity components from the rotation
+	 *            matrix.
+	 * @see FusionEngine#setGravityFromRotationMatrix(boolean)
+	 */
+	public void setGravityFromRotationMatrix(boolean gravityFromRotationMatrix)
+	{
+		fusionEngine.setGravityFromRotationMatrix(gravityFromRotationMatrix);
+	}
+
+	/**
+	 * Get the current orientation of the device. The Cardan angles are only
+	 * computed when they are asked for.
+	 * 
+	 * @param orientation
+	 *            the array the orientation (azimuth, pitch, roll) in radians
+	 *            will be written to.
+	 */
+	public void getOrientation(float[] orientation)
+	{
+		fusionEngine.getOrientation(orientation);
+	}
+
+	/**
+	 * Get the time it took to determine the initial orientation after the
+	 * sensor was started.
+	 * 
+	 * @return the time to lock in nanoseconds, or -1 if the initial
+	 *         orientation has not been determined yet.
+	 * @see FusionEngine#getTimeToLock()
+	 */
+	public long getTimeToLock()
+	{
+		return fusionEngine.getTimeToLock();
 	}
 
 	/**
-	 * Notify observers with new measurements.
+	 * Notify observers with new measurements. Every observer is only notified
+	 * of the measurements its output rate accepts.
 	 */
 	private void notifyLinearAccelerationObserver()
 	{
-		for (LinearAccelerationSensorObserver a : observersAcceleration)
+		// Index the observers directly, an iterator would be allocated for
+		// every sample.
+		for (int i = 0; i < observersAcceleration.size(); i++)
 		{
-			a.onLinearAccelerationSensorChanged(this.linearAcceleration,
-					this.timestampOld);
+			if (observerRates.get(i).accept(this.linearAcceleration,
+					this.timestampOld))
+			{
+				observersAcceleration.get(i).onLinearAccelerationSensorChanged(
+						this.linearAcceleration, this.timestampOld);
+			}
 		}
 	}
 
 	/**
-	 * Register for Sensor.TYPE_ACCELEROMETER measurements.
+	 * Register for Sensor.TYPE_ACCELEROMETER measurements. The observer is
+	 * notified of every measurement.
 	 * 
 	 * @param observer
 	 *            The observer to be registered.
 	 */
 	public void registerAccelerationObserver(
 			LinearAccelerationSensorObserver observer)
+	{
+		registerAccelerationObserver(observer, OutputRate.everySample());
+	}
+
+	/**
+	 * Register for Sensor.TYPE_ACCELEROMETER measurements at a lower output
+	 * rate. The fusion still runs at the sensor rate. If the observer is
+	 * already registered its output rate is replaced.
+	 * 
+	 * @param observer
+	 *            The observer to be registered.
+	 * @param rate
+	 *            The output rate of the observer, not shared with any other
+	 *            observer.
+	 */
+	public void registerAccelerationObserver(
+			LinearAccelerationSensorObserver observer, OutputRate rate)
 	{
 		// Only register the observer if it is not already registered.
 		int i = observersAcceleration.indexOf(observer);
 		if (i == -1)
 		{
 			observersAcceleration.add(observer);
+			observerRates.add(rate);
+		}
+		else
+		{
+			observerRates.set(i, rate);
 		}
-
 	}
 
 	/**
@@ -325,105 +453,122 @@ public class LinearAccelerationSensor implements GyroscopeSensorObserver,
 		if (i >= 0)
 		{
 			observersAcceleration.remove(i);
+			observerRates.remove(i);
 		}
 	}
 
 	/**
-	 * Calculates orientation angles from accelerometer and magnetometer output.
-	 * Note that we only use this *once* at the beginning to orient the
-	 * gyroscope to earth frame. If you do not call this, the gyroscope will
-	 * orient itself to whatever the relative orientation the device is in at
-	 * the time of initialization.
+	 * Get the file the checkpoint is saved to.
+	 * 
+	 * @return the checkpoint file.
 	 */
-	private void calculateOrientation()
+	private File getCheckpointFile()
 	{
-		hasInitialOrientation = SensorManager.getRotationMatrix(
-				initialRotationMatrix, null, gravity, magnetic);
-
-		// Remove the sensor observers since they are no longer required.
-		if (hasInitialOrientation)
-		{
-			gravitySensor.removeGravityObserver(this);
-			magneticSensor.removeMagneticObserver(this);
-		}
+		return new File(context.getFilesDir(), CHECKPOINT_FILE);
 	}
 
 	/**
-	 * Initialize the mean filters.
+	 * Save the fused state to the checkpoint file if the orientation is known.
 	 */
-	private void initFilters()
+	private void saveCheckpoint()
 	{
-		mfAcceleration = new MeanFilter();
-		mfAcceleration.setWindowSize(MEAN_FILTER_WINDOW);
-		
-		mfGravity = new MeanFilter();
-		mfGravity.setWindowSize(MEAN_FILTER_WINDOW);
+		if (!fusionEngine.hasInitialOrientation())
+		{
+			return;
+		}
+
+		DataOutputStream out = null;
 
-		mfLinearAcceleration = new MeanFilter();
-		mfLinearAcceleration.setWindowSize(MEAN_FILTER_WINDOW);
+		try
+		{
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(getCheckpointFile())));
+
+			fusionEngine.writeCheckpoint(out);
 
-		mfMagnetic = new MeanFilter();
-		mfMagnetic.setWindowSize(MEAN_FILTER_WINDOW);
+			out.close();
+			out = null;
+		}
+		catch (IOException e)
+		{
+			Log.w(tag, "Could not save the checkpoint", e);
+		}
+		finally
+		{
+			close(out);
+		}
 	}
 
 	/**
-	 * Initialize the data structures required for the maths.
+	 * Warm start the fusion from the checkpoint file if there is one.
 	 */
-	private void initMaths()
+	private void restoreCheckpoint()
 	{
-		acceleration = new float[3];
-		magnetic = new float[3];
+		File file = getCheckpointFile();
 
-		initialRotationMatrix = new float[9];
+		if (!file.exists())
+		{
+			return;
+		}
+
+		DataInputStream in = null;
 
-		deltaRotationVector = new float[4];
-		deltaRotationMatrix = new float[9];
-		currentRotationMatrix = new float[9];
-		gyroscopeOrientation = new float[3];
+		try
+		{
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
 
-		// Initialize the current rotation matrix as an identity matrix...
-		currentRotationMatrix[0] = 1.0f;
-		currentRotationMatrix[4] = 1.0f;
-		currentRotationMatrix[8] = 1.0f;
+			fusionEngine.readCheckpoint(in);
+		}
+		catch (IOException e)
+		{
+			Log.w(tag, "Could not restore the checkpoint", e);
+		}
+		finally
+		{
+			close(in);
+		}
 	}
 
 	/**
-	 * Initialize the sensors.
+	 * Close a stream, ignoring any errors.
+	 * 
+	 * @param stream
+	 *            the stream to close, may be null.
 	 */
-	private void initSensors()
+	private void close(Closeable stream)
 	{
-		gravitySensor = new GravitySensor(context);
-		magneticSensor = new MagneticSensor(context);
-		gyroscopeSensor = new GyroscopeSensor(context);
+		if (stream != null)
+		{
+			try
+			{
+				stream.close();
+			}
+			catch (IOException e)
+			{
+				// Nothing left to do.
+			}
+		}
 	}
 
 	/**
-	 * Multiply matrix a by b. Android gives us matrices results in
-	 * one-dimensional arrays instead of two, so instead of using some (O)2 to
-	 * transfer to a two-dimensional array and then an (O)3 algorithm to
-	 * multiply, we just use a static linear time method.
-	 * 
-	 * @param a
-	 * @param b
-	 * @return a*b
+	 * Register the gyroscope at full rate again after a rest.
 	 */
-	private float[] matrixMultiplication(float[] a, float[] b)
+	private void leaveRest()
 	{
-		float[] result = new float[9];
-
-		result[0] = a[0] * b[0] + a[1] * b[3] + a[2] * b[6];
-		result[1] = a[0] * b[1] + a[1] * b[4] + a[2] * b[7];
-		result[2] = a[0] * b[2] + a[1] * b[5] + a[2] * b[8];
-
-		result[3] = a[3] * b[0] + a[4] * b[3] + a[5] * b[6];
-		result[4] = a[3] * b[1] + a[4] * b[4] + a[5] * b[7];
-		result[5] = a[3] * b[2] + a[4] * b[5] + a[5] * b[8];
+		stationary = false;
 
-		result[6] = a[6] * b[0] + a[7] * b[3] + a[8] * b[6];
-		result[7] = a[6] * b[1] + a[7] * b[4] + a[8] * b[7];
-		result[8] = a[6] * b[2] + a[7] * b[5] + a[8] * b[8];
+		gyroscopeSensor.setSensorDelay(SensorManager.SENSOR_DELAY_FASTEST);
+	}
 
-		return result;
+	/**
+	 * Initialize the sensors.
+	 */
+	private void initSensors()
+	{
+		gravitySensor = new GravitySensor(context);
+		magneticSensor = new MagneticSensor(context);
+		gyroscopeSensor = new GyroscopeSensor(context);
 	}
 
 	/**
@@ -447,12 +592,14 @@ public class LinearAccelerationSensor implements GyroscopeSensorObserver,
 		magneticSensor.removeMagneticObserver(this);
 		gyroscopeSensor.removeGyroscopeObserver(this);
 
-		initMaths();
+		leaveRest();
 
-		gravitySampleCount = 0;
-		magneticSampleCount = 0;
+		fusionEngine.reset();
 
-		hasInitialOrientation = false;
-		stateInitialized = false;
+		// Deliver the first measurement after the restart to every observer.
+		for (int i = 0; i < observerRates.size(); i++)
+		{
+			observerRates.get(i).reset();
+		}
 	}
 }
@@ -0,0 +1,193 @@
+package com.kircherelectronics.gyrolinearacceleration.sensor;
+
+/*
+ * Copyright 2013, Kaleb Kircher - Boki Software, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Decides which of the measurements produced at the sensor rate are delivered
+ * to an observer. An observer that only needs a few updates a second, like a
+ * UI that is redrawn every 100 ms, can be registered with a lower output rate
+ * while the sensor fusion keeps running at the full sensor rate.
+ * 
+ * An OutputRate keeps the state of a single observer, so every observer must
+ * be registered with its own instance.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class OutputRate
+{
+	private static final int MODE_EVERY_SAMPLE = 0;
+	private static final int MODE_EVERY_NTH_SAMPLE = 1;
+	private static final int MODE_INTERVAL = 2;
+	private static final int MODE_ON_CHANGE = 3;
+
+	private static final long MS2NS = 1000000;
+
+	private final int mode;
+
+	// The number of samples per delivery.
+	private final int samples;
+
+	// The minimum time between deliveries in nanoseconds.
+	private final long interval;
+
+	// The minimum change of any axis that is delivered.
+	private final float epsilon;
+
+	private int count = 0;
+	private long timestampLast = 0;
+	private boolean delivered = false;
+
+	// The last delivered values.
+	private float[] values = new float[3];
+
+	/**
+	 * Initialize the state.
+	 * 
+	 * @param mode
+	 *            the delivery mode.
+	 * @param samples
+	 *            the number of samples per delivery.
+	 * @param interval
+	 *            the minimum time between deliveries in nanoseconds.
+	 * @param epsilon
+	 *            the minimum change of any axis that is delivered.
+	 */
+	private OutputRate(int mode, int samples, long interval, float epsilon)
+	{
+		super();
+
+		this.mode = mode;
+		this.samples = samples;
+		this.interval = interval;
+		this.epsilon = epsilon;
+	}
+
+	/**
+	 * Deliver every sample, the default for an observer.
+	 * 
+	 * @return a new output rate.
+	 */
+	public static OutputRate everySample()
+	{
+		return new OutputRate(MODE_EVERY_SAMPLE, 1, 0, 0);
+	}
+
+	/**
+	 * Deliver every n-th sample.
+	 * 
+	 * @param n
+	 *            the number of samples per delivery.
+	 * @return a new output rate.
+	 */
+	public static OutputRate everyNthSample(int n)
+	{
+		if (n < 1)
+		{
+			throw new IllegalArgumentException("n must be at least 1: " + n);
+		}
+
+		return new OutputRate(MODE_EVERY_NTH_SAMPLE, n, 0, 0);
+	}
+
+	/**
+	 * Deliver a sample at most every so many milliseconds of sensor time.
+	 * 
+	 * @param millis
+	 *            the minimum time between deliveries in milliseconds.
+	 * @return a new output rate.
+	 */
+	public static OutputRate everyMillis(long millis)
+	{
+		return new OutputRate(MODE_INTERVAL, 1, millis * MS2NS, 0);
+	}
+
+	/**
+	 * Deliver a sample when any axis has changed by more than epsilon since
+	 * the last delivered sample.
+	 * 
+	 * @param epsilon
+	 *            the minimum change of any axis that is delivered.
+	 * @return a new output rate.
+	 */
+	public static OutputRate onChange(float epsilon)
+	{
+		return new OutputRate(MODE_ON_CHANGE, 1, 0, epsilon);
+	}
+
+	/**
+	 * Decide if a sample should be delivered. The first sample after a reset
+	 * is always delivered.
+	 * 
+	 * @param values
+	 *            the values (x, y, z) of the sample.
+	 * @param timestamp
+	 *            the time stamp of the sample in nanoseconds.
+	 * @return true if the sample should be delivered to the observer.
+	 */
+	public boolean accept(float[] values, long timestamp)
+	{
+		boolean accept;
+
+		switch (mode)
+		{
+		case MODE_EVERY_NTH_SAMPLE:
+			accept = count == 0;
+
+			if (++count == samples)
+			{
+				count = 0;
+			}
+			break;
+		case MODE_INTERVAL:
+			accept = !delivered || timestamp - timestampLast >= interval;
+			break;
+		case MODE_ON_CHANGE:
+			accept = !delivered
+					|| Math.abs(values[0] - this.values[0]) > epsilon
+					|| Math.abs(values[1] - this.values[1]) > epsilon
+					|| Math.abs(values[2] - this.values[2]) > epsilon;
+			break;
+		default:
+			accept = true;
+			break;
+		}
+
+		if (accept)
+		{
+			delivered = true;
+			timestampLast = timestamp;
+
+			if (mode == MODE_ON_CHANGE)
+			{
+				System.arraycopy(values, 0, this.values, 0, this.values.length);
+			}
+		}
+
+		return accept;
+	}
+
+	/**
+	 * Reset to the initial state, the next sample will be delivered.
+	 */
+	public void reset()
+	{
+		count = 0;
+		timestampLast = 0;
+		delivered = false;
+	}
+}
@@ -0,0 +1,357 @@
+package com.kircherelectronics.gyrolinearacceleration.sensor;
+
+import java.util.concurrent.Executor;
+
+/*
+ * Copyright 2013, Kaleb Kircher - Boki Software, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * The one listener of the application, which owns every registration with
+ * the SensorSource. Sinks register for a sensor type and the hub registers
+ * the sensor when the first sink arrives and unregisters it when the last one
+ * leaves, so a sensor is never registered twice even when several classes
+ * need its measurements. The sensor is registered at the fastest rate any of
+ * its sinks has asked for, and registered again when that changes.
+ * 
+ * The source delivers a sensor type to the entry of the type in a table
+ * indexed by the type. The sinks of a type are kept in an array that is
+ * replaced when a sink registers or leaves, so a sink may leave while it is
+ * being notified and an event is dispatched without allocating. Registering
+ * and removing sinks is synchronized on the hub and may happen on any thread,
+ * the dispatch only reads the current array of sinks and takes no lock.
+ * 
+ * The measurements are delivered on the processing thread of the source, a
+ * HandlerThread on the device. The sinks, the sensors and the fusion behind
+ * them are only used from that thread: they may be created on any thread,
+ * after that every call, including the registration of observers, is
+ * posted to getExecutor(). Results for the UI are handed over with a
+ * LatestSample.
+ * 
+ * The hub does not depend on the platform. The application installs a hub
+ * for the sensors of the device with AndroidSensorSource.install() before
+ * any sensor is created, a plain JVM installs one with a FakeSensorSource.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class SensorHub
+{
+	// The initial size of the table, large enough for the types the
+	// application uses.
+	private static final int TABLE_SIZE = 16;
+
+	// The delay of a type without a registration.
+	private static final int NOT_REGISTERED = -1;
+
+	private static SensorHub instance;
+
+	/**
+	 * The registration and the sinks of a sensor type. The entry is the sink
+	 * the source delivers the type to.
+	 */
+	private static class Entry implements SensorSink
+	{
+		private final int type;
+
+		// The sinks and the delay each asked for, by the index of the sink.
+		// Only replaced with the lock of the hub held, the sinks are volatile
+		// since they are read without it by the dispatch.
+		private volatile SensorSink[] sinks = new SensorSink[0];
+		private int[] delays = new int[0];
+
+		// The delay the sensor is registered at, guarded by the lock of the
+		// hub.
+		private int delay = NOT_REGISTERED;
+
+		/**
+		 * Initialize the state.
+		 * 
+		 * @param type
+		 *            the sensor type.
+		 */
+		private Entry(int type)
+		{
+			super();
+
+			this.type = type;
+		}
+
+		@Override
+		public void onSensorChanged(float[] values, long timestamp)
+		{
+			// Keep the array of the event, a sink may replace it by leaving.
+			final SensorSink[] sinks = this.sinks;
+
+			for (int i = 0; i < sinks.length; i++)
+			{
+				sinks[i].onSensorChanged(values, timestamp);
+			}
+		}
+	}
+
+	private SensorSource source;
+
+	// The entry of each sensor type, by the type, guarded by the lock of the
+	// hub.
+	private Entry[] entries = new Entry[TABLE_SIZE];
+
+	/**
+	 * Initialize the state.
+	 * 
+	 * @param source
+	 *            the source the sensors are registered with.
+	 */
+	public SensorHub(SensorSource source)
+	{
+		super();
+
+		this.source = source;
+	}
+
+	/**
+	 * Get the hub of the application.
+	 * 
+	 * @return the hub.
+	 * @throws IllegalStateException
+	 *             if no hub has been installed.
+	 */
+	public static synchronized SensorHub getInstance()
+	{
+		if (instance == null)
+		{
+			throw new IllegalStateException("No SensorHub has been installed");
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Indicate if the hub of the application has been installed.
+	 * 
+	 * @return true if a hub has been installed.
+	 */
+	public static synchronized boolean hasInstance()
+	{
+		return instance != null;
+	}
+
+	/**
+	 * Install the hub of the application, for instance a hub with a
+	 * FakeSensorSource on a plain JVM. Sensors created before keep the hub
+	 * they were created with.
+	 * 
+	 * @param hub
+	 *            the hub.
+	 */
+	public static synchronized void setInstance(SensorHub hub)
+	{
+		instance = hub;
+	}
+
+	/**
+	 * Get the executor of the processing thread the sinks are notified on.
+	 * 
+	 * @return the executor.
+	 */
+	public Executor getExecutor()
+	{
+		return source.getExecutor();
+	}
+
+	/**
+	 * Register a sink for the measurements of a sensor type. If the sink is
+	 * already registered for the type only its delay is replaced.
+	 * 
+	 * @param type
+	 *            the sensor type, one of the Sensor.TYPE_ constants.
+	 * @param sink
+	 *            the sink.
+	 * @param delay
+	 *            the rate the sink needs, one of the
+	 *            SensorManager.SENSOR_DELAY_ constants.
+	 */
+	public synchronized void register(int type, SensorSink sink, int delay)
+	{
+		Entry entry = getEntry(type);
+
+		final int i = indexOf(entry, sink);
+
+		if (i >= 0)
+		{
+			entry.delays[i] = delay;
+		}
+		else
+		{
+			final int size = entry.sinks.length;
+
+			SensorSink[] sinks = new SensorSink[size + 1];
+			int[] delays = new int[size + 1];
+
+			System.arraycopy(entry.sinks, 0, sinks, 0, size);
+			System.arraycopy(entry.delays, 0, delays, 0, size);
+
+			sinks[size] = sink;
+			delays[size] = delay;
+
+			entry.sinks = sinks;
+			entry.delays = delays;
+		}
+
+		updateRegistration(entry);
+	}
+
+	/**
+	 * Remove a sink from a sensor type. The sensor is unregistered when its
+	 * last sink is removed.
+	 * 
+	 * @param type
+	 *            the sensor type, one of the Sensor.TYPE_ constants.
+	 * @param sink
+	 *            the sink.
+	 */
+	public synchronized void unregister(int type, SensorSink sink)
+	{
+		if (type < 0 || type >= entries.length || entries[type] == null)
+		{
+			return;
+		}
+
+		Entry entry = entries[type];
+
+		final int i = indexOf(entry, sink);
+
+		if (i < 0)
+		{
+			return;
+		}
+
+		final int size = entry.sinks.length - 1;
+
+		SensorSink[] sinks = new SensorSink[size];
+		int[] delays = new int[size];
+
+		System.arraycopy(entry.sinks, 0, sinks, 0, i);
+		System.arraycopy(entry.sinks, i + 1, sinks, i, size - i);
+		System.arraycopy(entry.delays, 0, delays, 0, i);
+		System.arraycopy(entry.delays, i + 1, delays, i, size - i);
+
+		entry.sinks = sinks;
+		entry.delays = delays;
+
+		updateRegistration(entry);
+	}
+
+	/**
+	 * Indicate if a sink is registered for a sensor type.
+	 * 
+	 * @param type
+	 *            the sensor type, one of the Sensor.TYPE_ constants.
+	 * @param sink
+	 *            the sink.
+	 * @return true if the sink is registered.
+	 */
+	public synchronized boolean isRegistered(int type, SensorSink sink)
+	{
+		return type >= 0 && type < entries.length && entries[type] != null
+				&& indexOf(entries[type], sink) >= 0;
+	}
+
+	/**
+	 * Get the entry of a sensor type, creating it and growing the table if
+	 * needed. The lock of the hub must be held.
+	 * 
+	 * @param type
+	 *            the sensor type.
+	 * @return the entry.
+	 */
+	private Entry getEntry(int type)
+	{
+		if (type >= entries.length)
+		{
+			Entry[] table = new Entry[Math.max(type + 1, entries.length * 2)];
+			System.arraycopy(entries, 0, table, 0, entries.length);
+			entries = table;
+		}
+
+		if (entries[type] == null)
+		{
+			entries[type] = new Entry(type);
+		}
+
+		return entries[type];
+	}
+
+	/**
+	 * Find the index of a sink of an entry.
+	 * 
+	 * @param entry
+	 *            the entry.
+	 * @param sink
+	 *            the sink.
+	 * @return the index, or -1 if the sink is not registered.
+	 */
+	private int indexOf(Entry entry, SensorSink sink)
+	{
+		for (int i = 0; i < entry.sinks.length; i++)
+		{
+			if (entry.sinks[i] == sink)
+			{
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Register the sensor of an entry at the fastest delay of its sinks, or
+	 * unregister it if it has none. A smaller SENSOR_DELAY_ constant is a
+	 * faster rate. A type without a sensor stays unregistered. The lock of the
+	 * hub must be held.
+	 * 
+	 * @param entry
+	 *            the entry.
+	 */
+	private void updateRegistration(Entry entry)
+	{
+		int delay = NOT_REGISTERED;
+
+		for (int i = 0; i < entry.delays.length; i++)
+		{
+			if (delay == NOT_REGISTERED || entry.delays[i] < delay)
+			{
+				delay = entry.delays[i];
+			}
+		}
+
+		if (delay == entry.delay)
+		{
+			return;
+		}
+
+		if (entry.delay != NOT_REGISTERED)
+		{
+			source.unregister(entry.type);
+			entry.delay = NOT_REGISTERED;
+		}
+
+		if (delay != NOT_REGISTERED
+				&& source.register(entry.type, entry, delay))
+		{
+			entry.delay = delay;
+		}
+	}
+}
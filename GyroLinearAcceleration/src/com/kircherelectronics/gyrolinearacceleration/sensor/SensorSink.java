@@ -0,0 +1,38 @@
+package com.kircherelectronics.gyrolinearacceleration.sensor;
+
+/*
+ * Copyright 2013, Kaleb Kircher - Boki Software, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Receives the measurements of a sensor type from the SensorHub, on the
+ * processing thread of its SensorSource.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public interface SensorSink
+{
+	/**
+	 * Notify the sink of a new measurement. The values belong to the event
+	 * and must be copied if they are kept.
+	 * 
+	 * @param values
+	 *            the values of the measurement.
+	 * @param timestamp
+	 *            the time stamp of the measurement in nanoseconds.
+	 */
+	public void onSensorChanged(float[] values, long timestamp);
+}
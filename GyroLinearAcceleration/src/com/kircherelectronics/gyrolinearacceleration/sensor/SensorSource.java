@@ -0,0 +1,68 @@
+package com.kircherelectronics.gyrolinearacceleration.sensor;
+
+import java.util.concurrent.Executor;
+
+/*
+ * Copyright 2013, Kaleb Kircher - Boki Software, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Delivers the measurements of the sensors to the SensorHub. A source
+ * delivers every measurement on one processing thread, the thread its
+ * executor runs on, so the sinks, the sensors and the fusion behind them are
+ * only ever used from that thread. The AndroidSensorSource delivers the
+ * measurements of the device from a HandlerThread, a FakeSensorSource
+ * delivers measurements posted by the caller on any executor so the sensors
+ * can be driven on a plain JVM.
+ * 
+ * The hub calls register() and unregister() with its lock held, from whatever
+ * thread a sensor registers on, so they are never called concurrently.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public interface SensorSource
+{
+	/**
+	 * Start delivering the measurements of a sensor type to a sink. A type is
+	 * only registered with one sink at a time.
+	 * 
+	 * @param type
+	 *            the sensor type, one of the Sensor.TYPE_ constants.
+	 * @param sink
+	 *            the sink.
+	 * @param delay
+	 *            the rate, one of the SensorManager.SENSOR_DELAY_ constants.
+	 * @return true if the type was registered, false if there is no sensor of
+	 *         the type.
+	 */
+	public boolean register(int type, SensorSink sink, int delay);
+
+	/**
+	 * Stop delivering the measurements of a sensor type.
+	 * 
+	 * @param type
+	 *            the sensor type, one of the Sensor.TYPE_ constants.
+	 */
+	public void unregister(int type);
+
+	/**
+	 * Get the executor of the processing thread the measurements are
+	 * delivered on.
+	 * 
+	 * @return the executor.
+	 */
+	public Executor getExecutor();
+}
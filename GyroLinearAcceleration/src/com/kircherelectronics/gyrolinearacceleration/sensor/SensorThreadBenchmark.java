@@ -0,0 +1,337 @@
+package com.kircherelectronics.gyrolinearacceleration.sensor;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.kircherelectronics.gyrolinearacceleration.fusion.FusionEngine;
+
+/*
+ * Copyright 2013, Kaleb Kircher - Boki Software, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Measures the UI frame time and the fusion latency with the sensors on the
+ * UI thread and on a processing thread, on a plain JVM. A FakeSensorSource
+ * feeds the acceleration, gyroscope, gravity and magnetic sensors at 200 Hz
+ * through a SensorHub into a FusionEngine, the way the LinearAccelerationSensor
+ * does on the device, while a UI thread draws a frame every 16 ms by spinning
+ * for the draw time and reads the fused sample from a LatestSample. Only the
+ * platform independent classes are used, android.jar is not needed.
+ * 
+ * On the UI thread the measurements queue behind the frames, as they did
+ * with the default handler, and the frames queue behind the measurements. On
+ * the processing thread the two only meet at the LatestSample. The frame
+ * time is measured from the time a frame was due to the time it was drawn,
+ * the fusion latency from the time a gyroscope measurement was posted to the
+ * time its fused sample was published.
+ * 
+ * Run from the command line with the optional arguments [seconds] [draw ms]
+ * to print one CSV row per thread.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class SensorThreadBenchmark
+{
+	// The values of the Sensor.TYPE_ constants.
+	private static final int TYPE_ACCELEROMETER = 1;
+	private static final int TYPE_MAGNETIC_FIELD = 2;
+	private static final int TYPE_GYROSCOPE = 4;
+	private static final int TYPE_GRAVITY = 9;
+
+	// The value of SensorManager.SENSOR_DELAY_FASTEST.
+	private static final int SENSOR_DELAY_FASTEST = 0;
+
+	// The period of the sensors, 200 Hz.
+	private static final long SAMPLE_PERIOD = 5000000;
+
+	// The period of the frames, 60 Hz.
+	private static final long FRAME_PERIOD = 16000000;
+
+	private static final float[] ACCELERATION =
+	{ 0.1f, 0.2f, 9.81f };
+
+	private static final float[] GRAVITY =
+	{ 0, 0, 9.81f };
+
+	private static final float[] MAGNETIC =
+	{ 0, 22, -40 };
+
+	private static final float[] GYROSCOPE =
+	{ 0.01f, -0.01f, 0.02f };
+
+	/**
+	 * Feeds the measurements of the sinks into the fusion, publishes the fused
+	 * samples and measures their latency, on the processing thread.
+	 */
+	private static class Fusion
+	{
+		private final FusionEngine fusionEngine = new FusionEngine();
+
+		private final LatestSample sample;
+
+		private final float[] linearAcceleration = new float[3];
+
+		private long count = 0;
+		private long sum = 0;
+		private long max = 0;
+
+		private final SensorSink acceleration = new SensorSink()
+		{
+			@Override
+			public void onSensorChanged(float[] values, long timestamp)
+			{
+				fusionEngine.onAcceleration(values, timestamp);
+			}
+		};
+
+		private final SensorSink gravity = new SensorSink()
+		{
+			@Override
+			public void onSensorChanged(float[] values, long timestamp)
+			{
+				fusionEngine.onGravity(values, timestamp);
+			}
+		};
+
+		private final SensorSink magnetic = new SensorSink()
+		{
+			@Override
+			public void onSensorChanged(float[] values, long timestamp)
+			{
+				fusionEngine.onMagnetic(values, timestamp);
+			}
+		};
+
+		private final SensorSink gyroscope = new SensorSink()
+		{
+			@Override
+			public void onSensorChanged(float[] values, long timestamp)
+			{
+				if (fusionEngine.onGyroscope(values, timestamp))
+				{
+					fusionEngine.getLinearAcceleration(linearAcceleration);
+
+					publish(timestamp);
+				}
+			}
+		};
+
+		/**
+		 * Initialize the state.
+		 * 
+		 * @param sample
+		 *            the sample the fused samples are published to.
+		 */
+		private Fusion(LatestSample sample)
+		{
+			super();
+
+			this.sample = sample;
+
+			// The same configuration as the LinearAccelerationSensor.
+			fusionEngine.setAdaptiveConvergence(true);
+			fusionEngine.setBiasEstimation(true);
+		}
+
+		/**
+		 * Register the sinks of the fusion with a hub.
+		 * 
+		 * @param hub
+		 *            the hub.
+		 */
+		private void register(SensorHub hub)
+		{
+			hub.register(TYPE_ACCELEROMETER, acceleration,
+					SENSOR_DELAY_FASTEST);
+			hub.register(TYPE_GRAVITY, gravity, SENSOR_DELAY_FASTEST);
+			hub.register(TYPE_MAGNETIC_FIELD, magnetic, SENSOR_DELAY_FASTEST);
+			hub.register(TYPE_GYROSCOPE, gyroscope, SENSOR_DELAY_FASTEST);
+		}
+
+		/**
+		 * Publish the fused sample and measure its latency.
+		 * 
+		 * @param timestamp
+		 *            the time stamp of the gyroscope measurement.
+		 */
+		private void publish(long timestamp)
+		{
+			sample.publish(linearAcceleration, timestamp);
+
+			// The time stamps of the measurements are taken when they are
+			// posted.
+			final long latency = System.nanoTime() - timestamp;
+
+			count++;
+			sum += latency;
+			max = Math.max(max, latency);
+		}
+	}
+
+	/**
+	 * Draws a frame by spinning for the draw time and reads the newest fused
+	 * sample, on the UI thread.
+	 */
+	private static class Frame implements Runnable
+	{
+		private final LatestSample sample;
+
+		private final long drawTime;
+
+		// The time the first frame was due.
+		private final long start;
+
+		private final float[] values = new float[3];
+
+		private long count = 0;
+		private long sum = 0;
+		private long max = 0;
+
+		/**
+		 * Initialize the state.
+		 * 
+		 * @param sample
+		 *            the sample the fused samples are read from.
+		 * @param drawTime
+		 *            the time it takes to draw a frame in nanoseconds.
+		 * @param start
+		 *            the time the first frame is due.
+		 */
+		private Frame(LatestSample sample, long drawTime, long start)
+		{
+			super();
+
+			this.sample = sample;
+			this.drawTime = drawTime;
+			this.start = start;
+		}
+
+		@Override
+		public void run()
+		{
+			final long begin = System.nanoTime();
+
+			sample.read(values);
+
+			while (System.nanoTime() - begin < drawTime)
+			{
+				// Draw.
+			}
+
+			final long frameTime = System.nanoTime()
+					- (start + count * FRAME_PERIOD);
+
+			count++;
+			sum += frameTime;
+			max = Math.max(max, frameTime);
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		float drawMillis = args.length > 1 ? Float.parseFloat(args[1]) : 8;
+
+		final long drawTime = (long) (drawMillis * 1000000);
+
+		System.out
+				.println("thread,frames,frame mean ms,frame max ms,fused samples,latency mean us,latency max us");
+
+		// Warm up the fusion before either is measured.
+		run(false, 1, drawTime, false);
+
+		run(false, seconds, drawTime, true);
+		run(true, seconds, drawTime, true);
+	}
+
+	/**
+	 * Drive the sensors for a while and print the frame time and the fusion
+	 * latency.
+	 * 
+	 * @param processingThread
+	 *            true to deliver the measurements on a processing thread,
+	 *            false to deliver them on the UI thread.
+	 * @param seconds
+	 *            how long the sensors are driven.
+	 * @param drawTime
+	 *            the time it takes to draw a frame in nanoseconds.
+	 * @param print
+	 *            true to print the results.
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting for the threads
+	 *             to finish.
+	 */
+	private static void run(boolean processingThread, int seconds,
+			long drawTime, boolean print) throws InterruptedException
+	{
+		ScheduledExecutorService ui = Executors
+				.newSingleThreadScheduledExecutor();
+		ExecutorService processing = processingThread ? Executors
+				.newSingleThreadExecutor() : ui;
+
+		FakeSensorSource source = new FakeSensorSource(processing);
+		final SensorHub hub = new SensorHub(source);
+
+		LatestSample sample = new LatestSample(3);
+		final Fusion fusion = new Fusion(sample);
+
+		processing.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				fusion.register(hub);
+			}
+		});
+
+		final long start = System.nanoTime();
+		final long end = start + seconds * 1000000000L;
+
+		Frame frame = new Frame(sample, drawTime, start);
+
+		ui.scheduleAtFixedRate(frame, 0, FRAME_PERIOD, TimeUnit.NANOSECONDS);
+
+		for (long due = start; due < end; due += SAMPLE_PERIOD)
+		{
+			LockSupport.parkNanos(due - System.nanoTime());
+
+			final long timestamp = System.nanoTime();
+
+			source.post(TYPE_ACCELEROMETER, ACCELERATION, timestamp);
+			source.post(TYPE_GRAVITY, GRAVITY, timestamp);
+			source.post(TYPE_MAGNETIC_FIELD, MAGNETIC, timestamp);
+			source.post(TYPE_GYROSCOPE, GYROSCOPE, timestamp);
+		}
+
+		ui.shutdown();
+		processing.shutdown();
+
+		ui.awaitTermination(1, TimeUnit.MINUTES);
+		processing.awaitTermination(1, TimeUnit.MINUTES);
+
+		if (print && frame.count > 0 && fusion.count > 0)
+		{
+			System.out.println((processingThread ? "processing" : "ui") + ","
+					+ frame.count + "," + (float) frame.sum / frame.count
+					/ 1000000 + "," + (float) frame.max / 1000000 + ","
+					+ fusion.count + "," + fusion.sum / fusion.count
+					/ 1000 + "," + fusion.max / 1000);
+		}
+	}
+}
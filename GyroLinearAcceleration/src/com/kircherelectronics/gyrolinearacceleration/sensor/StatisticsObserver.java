@@ -0,0 +1,79 @@
+package com.kircherelectronics.gyrolinearacceleration.sensor;
+
+import com.kircherelectronics.gyrolinearacceleration.filters.WindowedStatistics;
+import com.kircherelectronics.gyrolinearacceleration.sensor.observer.AccelerationSensorObserver;
+import com.kircherelectronics.gyrolinearacceleration.sensor.observer.LinearAccelerationSensorObserver;
+
+/*
+ * Copyright 2013, Kaleb Kircher - Boki Software, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Feeds the measurements of a sensor into a WindowedStatistics, so the
+ * variance, RMS, minimum and maximum of the raw or the linear acceleration
+ * can be read live. Register it with the AccelerationSensor or the
+ * LinearAccelerationSensor like any other observer. An instance should only
+ * observe one sensor, since the measurements of both would end up in the
+ * same window.
+ * 
+ * The statistics are updated on the thread the sensor delivers on.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class StatisticsObserver implements AccelerationSensorObserver,
+		LinearAccelerationSensorObserver
+{
+	private WindowedStatistics statistics;
+
+	/**
+	 * Initialize the state.
+	 * 
+	 * @param window
+	 *            the number of measurements the statistics are taken over.
+	 * @throws IllegalArgumentException
+	 *             if the window is smaller than 1.
+	 */
+	public StatisticsObserver(int window)
+	{
+		super();
+
+		statistics = new WindowedStatistics(window);
+	}
+
+	/**
+	 * Get the statistics of the observed measurements.
+	 * 
+	 * @return the statistics.
+	 */
+	public WindowedStatistics getStatistics()
+	{
+		return statistics;
+	}
+
+	@Override
+	public void onAccelerationSensorChanged(float[] acceleration,
+			long timeStamp)
+	{
+		statistics.add(acceleration);
+	}
+
+	@Override
+	public void onLinearAccelerationSensorChanged(float[] linearAcceleration,
+			long timeStamp)
+	{
+		statistics.add(linearAcceleration);
+	}
+}
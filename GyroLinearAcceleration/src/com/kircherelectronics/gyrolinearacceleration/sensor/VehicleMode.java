@@ -0,0 +1,60 @@
+package com.kircherelectronics.gyrolinearacceleration.sensor;
+
+/*
+ * Copyright 2013, Kaleb Kircher - Boki Software, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Remaps the axes of the sensors for vehicle mode, where the device is in
+ * the landscape orientation and the sensors are rotated to face the -Z-Axis
+ * (along the axis of the camera).
+ * 
+ * The rotation is the composition of a rotation of pi/2 around the x-axis
+ * followed by a rotation of -pi/2 around the y-axis, which used to be applied
+ * with commons-math quaternions to every measurement. Composed, the two turn
+ * (x, y, z) into (-y, -z, x): a permutation of the axes with two sign flips,
+ * so the remap is done in place on the values without any arithmetic.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class VehicleMode
+{
+	/**
+	 * The remap is a static method.
+	 */
+	private VehicleMode()
+	{
+		super();
+	}
+
+	/**
+	 * Rotate a measurement from the absolute Android orientation into the
+	 * vehicle mode orientation, in place. Do not confuse this rotation with a
+	 * rotation into absolute earth frame.
+	 * 
+	 * @param values
+	 *            the x, y and z values of the measurement, replaced by the
+	 *            rotated values.
+	 */
+	public static void remap(float[] values)
+	{
+		final float x = values[0];
+
+		values[0] = -values[1];
+		values[1] = -values[2];
+		values[2] = x;
+	}
+}
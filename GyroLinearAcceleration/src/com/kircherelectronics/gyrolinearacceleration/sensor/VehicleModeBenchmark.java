@@ -0,0 +1,128 @@
+package com.kircherelectronics.gyrolinearacceleration.sensor;
+
+import java.util.Random;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+
+/*
+ * Copyright 2013, Kaleb Kircher - Boki Software, Kircher Electronics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Compares the in place remap of VehicleMode with the rotation it replaces,
+ * the composition of the commons-math quaternions that was applied to every
+ * measurement with two new Vector3D and a new array. The cost per
+ * measurement of both is reported, with the largest difference between
+ * their output, which is only the rounding of the quaternion rotation.
+ * 
+ * Run from the command line with the optional argument [samples] to print a
+ * CSV row.
+ * 
+ * @author Kaleb
+ * @version %I%, %G%
+ */
+public class VehicleModeBenchmark
+{
+	// The number of times each remap is run, the fastest run is kept.
+	private static final int RUNS = 5;
+
+	public static void main(String[] args)
+	{
+		int samples = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		float[] input = new float[samples * 3];
+
+		Random random = new Random(42);
+
+		for (int i = 0; i < input.length; i++)
+		{
+			input[i] = (float) (10 * random.nextGaussian());
+		}
+
+		// The rotation of vehicle mode as it was composed.
+		Rotation rotation = new Rotation(new Vector3D(0, 1, 0), -Math.PI / 2)
+				.applyTo(new Rotation(new Vector3D(1, 0, 0), Math.PI / 2));
+
+		float[] quaternion = new float[input.length];
+		float[] remap = new float[input.length];
+
+		float[] values = new float[3];
+
+		long bestQuaternion = Long.MAX_VALUE;
+		long bestRemap = Long.MAX_VALUE;
+
+		for (int r = 0; r < RUNS; r++)
+		{
+			long start = System.nanoTime();
+
+			for (int k = 0; k < samples; k++)
+			{
+				System.arraycopy(input, k * 3, values, 0, 3);
+
+				float[] rotated = rotate(rotation, values);
+
+				System.arraycopy(rotated, 0, quaternion, k * 3, 3);
+			}
+
+			bestQuaternion = Math.min(bestQuaternion, System.nanoTime() - start);
+
+			start = System.nanoTime();
+
+			for (int k = 0; k < samples; k++)
+			{
+				System.arraycopy(input, k * 3, values, 0, 3);
+
+				VehicleMode.remap(values);
+
+				System.arraycopy(values, 0, remap, k * 3, 3);
+			}
+
+			bestRemap = Math.min(bestRemap, System.nanoTime() - start);
+		}
+
+		float difference = 0;
+
+		for (int i = 0; i < input.length; i++)
+		{
+			difference = Math.max(difference,
+					Math.abs(quaternion[i] - remap[i]));
+		}
+
+		System.out.println("quaternion ns/sample,remap ns/sample,max difference");
+		System.out.println((float) bestQuaternion / samples + ","
+				+ (float) bestRemap / samples + "," + difference);
+	}
+
+	/**
+	 * Rotate a measurement the way vehicle mode used to.
+	 * 
+	 * @param rotation
+	 *            the rotation.
+	 * @param values
+	 *            the measurement.
+	 * @return a new array with the rotated measurement.
+	 */
+	private static float[] rotate(Rotation rotation, float[] values)
+	{
+		Vector3D vIn = new Vector3D(values[0], values[1], values[2]);
+		Vector3D vOut = rotation.applyTo(vIn);
+
+		float[] rotated =
+		{ (float) vOut.getX(), (float) vOut.getY(), (float) vOut.getZ() };
+
+		return rotated;
+	}
+}